@@ -0,0 +1,28 @@
+package info.macias.sse.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * <p>Benchmarks entry point, accepting the standard JMH command line options, and always reporting
+ * allocation rates (the <code>gc.alloc.rate.norm</code> lines give the bytes allocated per operation).</p>
+ *
+ * <pre>
+ *   mvn -pl jeasse-common,jeasse-benchmarks -am package
+ *   java -jar jeasse-benchmarks/target/benchmarks.jar [JMH options] [benchmarks regex]
+ * </pre>
+ */
+public class BenchmarkRunner
+{
+    public static void main(String[] args) throws Exception
+    {
+        Options options = new OptionsBuilder()
+            .parent(new CommandLineOptions(args))
+            .addProfiler(GCProfiler.class)
+            .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,59 @@
+package info.macias.sse.benchmarks;
+
+import info.macias.sse.EventBroadcast;
+import info.macias.sse.events.MessageEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fan-out of a broadcast to in-memory subscribers
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastBenchmark
+{
+    @Param({ "1", "1000", "100000" })
+    public int targets;
+
+    private EventBroadcast broadcast;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        broadcast = new EventBroadcast();
+        for (int i = 0; i < targets; ++i) broadcast.addSubscriber(new SinkEventTarget());
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        broadcast.close();
+    }
+
+    @Benchmark
+    public boolean broadcast()
+    {
+        return broadcast.broadcast(new MessageEvent.Builder()
+            .setId(broadcast.nextEventId())
+            .setEvent("update")
+            .setData("{\"user\":\"joe\",\"status\":\"online\"}")
+            .build());
+    }
+}
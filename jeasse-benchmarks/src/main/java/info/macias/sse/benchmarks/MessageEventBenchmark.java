@@ -0,0 +1,88 @@
+package info.macias.sse.benchmarks;
+
+import info.macias.sse.EventBroadcast;
+import info.macias.sse.events.EventEncoder;
+import info.macias.sse.events.MessageEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Events building and encoding
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageEventBenchmark
+{
+    @Param({ "small", "large", "multiline" })
+    public String payload;
+
+    private String data;
+    private String eventId = "4242";
+    private final EventEncoder encoder = new EventEncoder();
+
+    @Setup
+    public void setup()
+    {
+        switch (payload)
+        {
+            case "small":
+                data = "{\"user\":\"joe\",\"status\":\"online\"}";
+                break;
+            case "large":
+            {
+                StringBuilder builder = new StringBuilder();
+                while (builder.length() < 16 * 1024) builder.append("{\"key\":\"value\",\"number\":12345},");
+                data = builder.toString();
+                break;
+            }
+            case "multiline":
+            {
+                StringBuilder builder = new StringBuilder();
+                for (int line = 0; line < 100; ++line) builder.append("line ").append(line).append(" of a multi-line payload\n");
+                data = builder.toString();
+                break;
+            }
+            default:
+                throw new IllegalArgumentException(payload);
+        }
+    }
+
+    @Benchmark
+    public MessageEvent build()
+    {
+        return new MessageEvent.Builder().setId(eventId).setEvent("update").setData(data).build();
+    }
+
+    @Benchmark
+    public byte[] buildAndEncode()
+    {
+        return new MessageEvent.Builder().setId(eventId).setEvent("update").setData(data).build().getBytes();
+    }
+
+    @Benchmark
+    public int encodeIntoReusedBuffer()
+    {
+        return encoder.reset().append("update", data, null, eventId).length();
+    }
+
+    @Benchmark
+    public String padLastEventId()
+    {
+        return EventBroadcast.padLastEventId(eventId);
+    }
+}
@@ -0,0 +1,65 @@
+package info.macias.sse.benchmarks;
+
+import info.macias.sse.EventTarget;
+import info.macias.sse.events.MessageEvent;
+
+import java.io.IOException;
+
+/**
+ * In-memory event target, encoding events as a real target would, and failing after a given number of events
+ * so that subscribers can be churned without explicit removal.
+ */
+class SinkEventTarget implements EventTarget
+{
+    private final int failAfter;
+    private int received = 0;
+    long bytes = 0;
+
+    SinkEventTarget()
+    {
+        this(Integer.MAX_VALUE);
+    }
+
+    SinkEventTarget(int failAfter)
+    {
+        this.failAfter = failAfter;
+    }
+
+    @Override
+    public EventTarget ok()
+    {
+        return this;
+    }
+
+    @Override
+    public EventTarget open() throws IOException
+    {
+        return this;
+    }
+
+    @Override
+    public EventTarget send(String event, String data) throws IOException
+    {
+        return send(new MessageEvent.Builder().setEvent(event).setData(data).build());
+    }
+
+    @Override
+    public EventTarget send(MessageEvent messageEvent) throws IOException
+    {
+        if (received++ >= failAfter) throw new IOException("unsubscribed");
+        bytes += messageEvent.getBytes().length;
+        return this;
+    }
+
+    @Override
+    public EventTarget sendFrame(byte[] frame) throws IOException
+    {
+        bytes += frame.length;
+        return this;
+    }
+
+    @Override
+    public void close()
+    {
+    }
+}
@@ -0,0 +1,116 @@
+package info.macias.sse.benchmarks;
+
+import info.macias.sse.EventBroadcast;
+import info.macias.sse.events.MessageEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Subscription with history replay, and concurrent publish and subscribe churn
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SubscribeBenchmark
+{
+    @Param({ "100", "1000" })
+    public int historySize;
+
+    private ResettableBroadcast broadcast;
+    private String firstEventId;
+
+    /**
+     * Broadcaster whose subscribers can be dropped between invocations
+     */
+    static class ResettableBroadcast extends EventBroadcast
+    {
+        ResettableBroadcast(int historySize)
+        {
+            super(historySize);
+        }
+
+        void reset()
+        {
+            targets.clear();
+        }
+    }
+
+    @Setup
+    public void setup()
+    {
+        broadcast = new ResettableBroadcast(historySize);
+        for (int i = 0; i < historySize; ++i)
+        {
+            MessageEvent messageEvent = new MessageEvent.Builder()
+                .setId(broadcast.nextEventId())
+                .setEvent("update")
+                .setData("{\"sequence\":" + i + "}")
+                .build();
+            if (i == 0) firstEventId = messageEvent.getId();
+            broadcast.broadcast(messageEvent);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void reset()
+    {
+        broadcast.reset();
+    }
+
+    /**
+     * Subscription resuming from the oldest event of the history, which replays all the other ones
+     */
+    @Benchmark
+    public int addSubscriberWithReplay() throws IOException
+    {
+        broadcast.addSubscriber(new SinkEventTarget(), firstEventId);
+        // keep the broadcaster size bounded without measuring a removal
+        if (broadcast.size() >= 10000) broadcast.reset();
+        return broadcast.size();
+    }
+
+    /**
+     * Publisher side of the churn benchmark
+     */
+    @Benchmark
+    @Group("churn")
+    @GroupThreads(1)
+    public boolean publish()
+    {
+        return broadcast.broadcast(new MessageEvent.Builder()
+            .setId(broadcast.nextEventId())
+            .setEvent("update")
+            .setData("{\"user\":\"joe\",\"status\":\"online\"}")
+            .build());
+    }
+
+    /**
+     * Subscribers side of the churn benchmark: each subscriber leaves after a few events
+     */
+    @Benchmark
+    @Group("churn")
+    @GroupThreads(3)
+    public void subscribe() throws IOException
+    {
+        broadcast.addSubscriber(new SinkEventTarget(10));
+    }
+}
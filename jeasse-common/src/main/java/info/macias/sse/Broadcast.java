@@ -30,6 +30,21 @@ public abstract class Broadcast implements Serializable
             .build());
     }
 
+    /**
+     * <p>Broadcasts a {@link MessageEvent} to all the subscribers, containing only 'event' and JSON 'data' fields.
+     * The JSON value is serialized once, straight into the encoded event shared by all subscribers.</p>
+     *
+     * @param event The descriptor of the 'event' field.
+     * @param data The content of the 'data' field.
+     */
+    public boolean broadcast(String event, Json data)
+    {
+        return broadcast(new MessageEvent.Builder()
+            .setEvent(event)
+            .setData(data)
+            .build());
+    }
+
     public abstract boolean broadcast(MessageEvent event);
 
     public abstract void keepAlive();
@@ -44,4 +59,14 @@ public abstract class Broadcast implements Serializable
     public void subscriberJoined(EventTarget target) {}
 
     public void subscriberLeft(EventTarget target) {}
+
+    /**
+     * A subscriber left; by default, calls {@link #subscriberLeft(EventTarget)}
+     * @param target subscriber
+     * @param reason why it left
+     */
+    public void subscriberLeft(EventTarget target, LeaveReason reason)
+    {
+        subscriberLeft(target);
+    }
 }
@@ -0,0 +1,188 @@
+package info.macias.sse;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+/**
+ * <p>Settings of compressed event streams, shared by all the connections using them.</p>
+ *
+ * <p>Each compressed connection holds a {@link StreamCompressor}, whose zlib state takes about 256KB of native
+ * memory (default 32KB window and hash tables, which the JDK does not allow to shrink) plus its output buffer.
+ * The number of simultaneously compressed streams is thus capped; beyond it, connections fall back to identity
+ * encoding. Frames smaller than the threshold are sent as stored blocks, which costs a few bytes but no CPU.</p>
+ */
+public class Compression
+{
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    public static final int DEFAULT_THRESHOLD = 256;
+    public static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+
+    private final int level;
+    private final int threshold;
+    private final int bufferSize;
+    private final int maxStreams;
+    private final AtomicInteger openStreams = new AtomicInteger();
+
+    private Compression(int level, int threshold, int bufferSize, int maxStreams)
+    {
+        this.level = level;
+        this.threshold = threshold;
+        this.bufferSize = bufferSize;
+        this.maxStreams = maxStreams;
+    }
+
+    public int getLevel()
+    {
+        return level;
+    }
+
+    public int getThreshold()
+    {
+        return threshold;
+    }
+
+    public int getBufferSize()
+    {
+        return bufferSize;
+    }
+
+    public int getMaxStreams()
+    {
+        return maxStreams;
+    }
+
+    /**
+     * Number of currently open compressed streams
+     * @return open streams count
+     */
+    public int getOpenStreams()
+    {
+        return openStreams.get();
+    }
+
+    /**
+     * Chooses a content encoding from an <code>Accept-Encoding</code> header, gzip being preferred
+     * @param acceptEncoding header value, possibly null
+     * @return {@link #GZIP}, {@link #DEFLATE}, or null for identity
+     */
+    public static String negotiate(String acceptEncoding)
+    {
+        if (acceptEncoding == null) return null;
+        boolean deflate = false;
+        for (String part : acceptEncoding.split(","))
+        {
+            String[] params = part.split(";");
+            String coding = params[0].trim().toLowerCase(Locale.ROOT);
+            boolean refused = false;
+            for (int i = 1; i < params.length; ++i)
+            {
+                String param = params[i].trim();
+                if (param.startsWith("q="))
+                {
+                    try
+                    {
+                        refused = Double.parseDouble(param.substring(2)) <= 0.0;
+                    }
+                    catch (NumberFormatException nfe)
+                    {
+                        refused = true;
+                    }
+                }
+            }
+            if (refused) continue;
+            if (coding.equals(GZIP) || coding.equals("x-gzip")) return GZIP;
+            if (coding.equals(DEFLATE)) deflate = true;
+        }
+        return deflate ? DEFLATE : null;
+    }
+
+    /**
+     * Opens a compressed stream, if the streams cap allows it
+     * @param encoding {@link #GZIP} or {@link #DEFLATE}
+     * @return new compressor, or null if too many streams are open
+     */
+    public StreamCompressor open(String encoding)
+    {
+        if (!GZIP.equals(encoding) && !DEFLATE.equals(encoding)) throw new IllegalArgumentException("unsupported encoding: " + encoding);
+        for (;;)
+        {
+            int open = openStreams.get();
+            if (maxStreams > 0 && open >= maxStreams) return null;
+            if (openStreams.compareAndSet(open, open + 1)) break;
+        }
+        return new StreamCompressor(this, encoding);
+    }
+
+    /* called once by each closed compressor */
+    void released()
+    {
+        openStreams.decrementAndGet();
+    }
+
+    public static class Builder
+    {
+        private int level = Deflater.DEFAULT_COMPRESSION;
+        private int threshold = DEFAULT_THRESHOLD;
+        private int bufferSize = DEFAULT_BUFFER_SIZE;
+        private int maxStreams = 0;
+
+        /**
+         * @param level zlib compression level, from 1 (fastest) to 9 (smallest)
+         * @return this builder
+         */
+        public Builder setLevel(int level)
+        {
+            this.level = level;
+            return this;
+        }
+
+        /**
+         * @param threshold frames smaller than this number of bytes are not compressed
+         * @return this builder
+         */
+        public Builder setThreshold(int threshold)
+        {
+            this.threshold = threshold;
+            return this;
+        }
+
+        /**
+         * @param bufferSize per connection output buffer size
+         * @return this builder
+         */
+        public Builder setBufferSize(int bufferSize)
+        {
+            if (bufferSize < 64) throw new IllegalArgumentException("buffer size too small");
+            this.bufferSize = bufferSize;
+            return this;
+        }
+
+        /**
+         * @param maxStreams maximum number of simultaneously compressed connections, zero for no limit
+         * @return this builder
+         */
+        public Builder setMaxStreams(int maxStreams)
+        {
+            this.maxStreams = maxStreams;
+            return this;
+        }
+
+        /**
+         * Caps the number of compressed connections according to a native memory budget
+         * @param bytes total memory budget
+         * @return this builder
+         */
+        public Builder setMemoryBudget(long bytes)
+        {
+            return setMaxStreams((int)Math.max(1, Math.min(Integer.MAX_VALUE, bytes / (StreamCompressor.ZLIB_MEMORY + bufferSize))));
+        }
+
+        public Compression build()
+        {
+            return new Compression(level, threshold, bufferSize, maxStreams);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package info.macias.sse;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Outcome of an asynchronous broadcast, see {@link EventBroadcast#broadcastAsync(info.macias.sse.events.MessageEvent)}.</p>
+ *
+ * <p>An event is delivered to a subscriber once its {@link EventTarget#send(info.macias.sse.events.MessageEvent)}
+ * method returned, that is once it has been written and flushed, or enqueued for event targets having their own
+ * outbound queue.</p>
+ */
+public final class DeliveryReport
+{
+    private final int delivered;
+    private final int failed;
+    private final long nanos;
+
+    public DeliveryReport(int delivered, int failed, long nanos)
+    {
+        this.delivered = delivered;
+        this.failed = failed;
+        this.nanos = nanos;
+    }
+
+    /**
+     * @return number of subscribers the event was delivered to
+     */
+    public int getDelivered()
+    {
+        return delivered;
+    }
+
+    /**
+     * @return number of subscribers which failed, and were evicted
+     */
+    public int getFailed()
+    {
+        return failed;
+    }
+
+    /**
+     * @return time between the publication of the event and its last delivery, in nanoseconds
+     */
+    public long getNanos()
+    {
+        return nanos;
+    }
+
+    /**
+     * @param unit time unit
+     * @return time between the publication of the event and its last delivery
+     */
+    public long getDuration(TimeUnit unit)
+    {
+        return unit.convert(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "delivered=" + delivered + ", failed=" + failed + ", micros=" + TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
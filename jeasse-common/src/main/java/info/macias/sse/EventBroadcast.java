@@ -16,18 +16,32 @@ limitations under the License.
 
 package info.macias.sse;
 
+import info.macias.sse.bridge.EventBridge;
 import info.macias.sse.events.MessageEvent;
+import info.macias.sse.journal.EventJournal;
+import info.macias.sse.metrics.Metrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.SortedMap;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * This class implements a one-to-many connection for broadcasting messages across multiple subscribers.
@@ -37,9 +51,49 @@ import java.util.stream.Collectors;
 public class EventBroadcast extends Broadcast
 {
 	protected static Logger logger = LoggerFactory.getLogger("sse");
-    protected Queue<EventTarget> targets = new ConcurrentLinkedQueue<>();
-    private static final int MAX_HISTORY_SIZE = 20;
-    protected SortedMap<String, MessageEvent> history = new ConcurrentSkipListMap(); // messages per id
+
+	/* headroom buckets: exact below 16, then 8 per power of two, and a last one for unbounded queues */
+	private static final int HEADROOM_BUCKETS = 16 + 27 * 8 + 1;
+	static final long HEADROOM_REFRESH_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+	/** Events waiting for the default publishing thread, beyond which asynchronous broadcasts are rejected */
+	public static final int DEFAULT_PUBLISH_QUEUE_CAPACITY = 4096;
+
+    protected final SubscriberRegistry targets = new SubscriberRegistry();
+    protected final SubscriptionIndex interests = new SubscriptionIndex();
+    protected final EventHistory history;
+    protected volatile EventJournal journal = null;
+    protected volatile KeepAliveScheduler keepAliveScheduler = null;
+    protected volatile Metrics metrics = Metrics.NOOP;
+    protected volatile EventBridge bridge = null;
+    protected volatile String bridgeChannel = null;
+    protected volatile SlowConsumerPolicy slowConsumerPolicy = null;
+    private transient volatile Executor publishExecutor = null;
+    private transient ExecutorService ownPublishExecutor = null;
+    /* queue headroom histogram, and last computed headroom, guarded by the histogram */
+    private final transient int[] headroomBuckets = new int[HEADROOM_BUCKETS];
+    private transient double headroomPercentile = -1;
+    private transient long headroomTime = 0;
+    private transient long headroomDeliveries = 0;
+    private transient int headroom = Integer.MAX_VALUE;
+    private transient volatile boolean headroomStale = true;
+    /* number of fan-outs, each of them taking at most one slot in each queue */
+    private final transient AtomicLong deliveries = new AtomicLong();
+
+	/**
+	 * Builds a broadcaster keeping the default number of events in its history
+	 */
+	public EventBroadcast() {
+		this(EventHistory.DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Builds a broadcaster
+	 * @param historySize number of events kept for subscribers resuming with a <code>Last-Event-ID</code>
+	 */
+	public EventBroadcast(int historySize) {
+		history = new EventHistory(historySize);
+	}
 
 	/**
 	 * <p>Adds a subscriber from a <code>connectionRequest</code> that contains the information to allow sending back
@@ -85,46 +139,195 @@ public class EventBroadcast extends Broadcast
     }
 
 	public void addSubscriber(EventTarget eventTarget, MessageEvent welcomeMessage, String lastEventId) throws IOException {
+		addSubscriber(eventTarget, welcomeMessage, lastEventId, null);
+	}
+
+	/**
+	 * <p>Adds a subscriber which will only receive the selected events.</p>
+	 *
+	 * @param eventTarget an event target to be subscribed to the broadcast messages
+	 * @param selector events the subscriber is interested in
+	 *
+	 * @throws IOException if there was an error during the acknowledge process between broadcaster and subscriber
+	 */
+	public final void addSubscriber(EventTarget eventTarget, EventSelector selector) throws IOException {
+		addSubscriber(eventTarget, null, null, selector);
+	}
+
+	/**
+	 * <p>Adds a subscriber, sending it a welcome message and the events it missed.</p>
+	 *
+	 * @param eventTarget an event target to be subscribed to the broadcast messages
+	 * @param welcomeMessage the welcome message, or null
+	 * @param lastEventId last event id received by the subscriber, or null
+	 * @param selector events the subscriber is interested in, or null for all events
+	 *
+	 * @throws IOException if there was an error during the acknowledge process between broadcaster and subscriber
+	 */
+	public void addSubscriber(EventTarget eventTarget, MessageEvent welcomeMessage, String lastEventId, EventSelector selector) throws IOException {
 		eventTarget.ok().open();
 		if (welcomeMessage != null) eventTarget.send(welcomeMessage);
-		if (lastEventId != null)
+		if (lastEventId != null && lastEventId.length() > 0)
 		{
-			lastEventId = padLastEventId(lastEventId);
-			if (lastEventId != null && lastEventId.length() > 0) {
-				synchronized (history) { // to avoid sending twice a new event
-					SortedMap<String, MessageEvent> missedEvents = history.tailMap(lastEventId);
-					Iterator<Map.Entry<String, MessageEvent>> it = missedEvents.entrySet().iterator();
-					if (it.hasNext())
-					{
-						// skip first event if it's the same
-						// (quite complex code thereafter to avoid adding an additional branching in the loop...)
-						Map.Entry<String, MessageEvent> entry = it.next();
-						if (entry.getKey().equals(lastEventId))
-						{
-							if (it.hasNext()) entry = it.next();
-							else entry = null;
-						}
-						if (entry != null)
-						{
-							do
-							{
-								MessageEvent msg = entry.getValue();
-								logger.trace(">> #{}/history {}~{}: {}", eventTarget.getID(), msg.getId(), msg.getEvent(), msg.getData());
-								eventTarget.send(msg);
-								if (!it.hasNext()) break;
-								entry = it.next();
-							}
-							while (true);
-						}
-					}
-				}
+			// the journal, if any, streams missed frames straight from its segments
+			EventJournal journal = this.journal;
+			ReplayTarget replayTarget = new ReplayTarget(eventTarget, selector);
+			if (journal != null && journal.replay(lastEventId, replayTarget))
+			{
+				logger.trace(">> #{}/journal since {}", eventTarget.getID(), lastEventId);
+			}
+			else for (MessageEvent msg : history.since(lastEventId))
+			{
+				logger.trace(">> #{}/history {}~{}: {}", eventTarget.getID(), msg.getId(), msg.getEvent(), msg.getData());
+				replayTarget.send(msg);
 			}
+			metrics.historyReplayed(replayTarget.count);
 		}
 		// wait for history to have been sent AND subclasses to have sent context before adding event target to known targets
-		targets.add(eventTarget);
+		register(eventTarget, selector);
+		metrics.subscriberJoined();
 		subscriberJoined(eventTarget);
 	}
 
+	/**
+	 * Adds an event target to the collection of subscribers
+	 * @param eventTarget event target
+	 */
+	protected void register(EventTarget eventTarget) {
+		targets.add(eventTarget);
+		headroomStale = true;
+		KeepAliveScheduler scheduler = keepAliveScheduler;
+		if (scheduler != null) scheduler.add(eventTarget, this);
+	}
+
+	/**
+	 * Adds an event target to the collection of subscribers, or to the subscription index if it has a selector
+	 * @param eventTarget event target
+	 * @param selector events the subscriber is interested in, or null for all events
+	 */
+	protected void register(EventTarget eventTarget, EventSelector selector) {
+		if (selector == null) {
+			register(eventTarget);
+			return;
+		}
+		interests.add(eventTarget, selector);
+		headroomStale = true;
+		KeepAliveScheduler scheduler = keepAliveScheduler;
+		if (scheduler != null) scheduler.add(eventTarget, this);
+	}
+
+	/**
+	 * Called when a subscriber has been detached after a failed write, or because it could not keep up
+	 * @param eventTarget evicted event target
+	 * @param reason why it has been evicted
+	 */
+	protected void evicted(EventTarget eventTarget, LeaveReason reason) {
+		interests.remove(eventTarget);
+		KeepAliveScheduler scheduler = keepAliveScheduler;
+		if (scheduler != null) scheduler.remove(eventTarget);
+		metrics.subscriberEvicted();
+		metrics.subscriberLeft();
+		subscriberLeft(eventTarget, reason);
+	}
+
+	/**
+	 * Removes an event target from the collections of subscribers
+	 * @param eventTarget event target
+	 * @return whether the event target was a subscriber
+	 */
+	protected boolean unregister(EventTarget eventTarget) {
+		return targets.remove(eventTarget) | interests.remove(eventTarget);
+	}
+
+	/**
+	 * Detaches a subscriber after a failed write which happened outside of a broadcast
+	 * @param eventTarget event target to evict
+	 */
+	protected void evict(EventTarget eventTarget) {
+		evict(eventTarget, LeaveReason.DISCONNECTED);
+	}
+
+	/**
+	 * Detaches a subscriber which failed or could not keep up, outside of a broadcast
+	 * @param eventTarget event target to evict
+	 * @param reason why it is evicted
+	 */
+	protected void evict(EventTarget eventTarget, LeaveReason reason) {
+		if (unregister(eventTarget)) evicted(eventTarget, reason);
+	}
+
+	/**
+	 * Leave reason of a subscriber whose write failed
+	 * @param failure write failure
+	 * @return {@link LeaveReason#SLOW_CONSUMER} for a {@link SlowConsumerException}, {@link LeaveReason#DISCONNECTED} otherwise
+	 */
+	protected static LeaveReason reasonOf(Exception failure) {
+		return failure instanceof SlowConsumerException ? LeaveReason.SLOW_CONSUMER : LeaveReason.DISCONNECTED;
+	}
+
+	/**
+	 * <p>Evicts subscribers which are still connected but do not keep up, as per the given thresholds. They are
+	 * checked before and after each write and keep-alive, and by the keep-alive scheduler, if any, at each of its
+	 * rounds.</p>
+	 * @param policy slow consumers thresholds, or null to only evict subscribers whose writes fail
+	 */
+	public void setSlowConsumerPolicy(SlowConsumerPolicy policy) {
+		this.slowConsumerPolicy = policy;
+	}
+
+	public SlowConsumerPolicy getSlowConsumerPolicy() {
+		return slowConsumerPolicy;
+	}
+
+	/**
+	 * Checks a subscriber against the slow consumer policy, and disconnects it if it does not keep up
+	 * @param eventTarget event target
+	 * @return whether the subscriber has been disconnected, in which case it has to be evicted
+	 */
+	protected boolean disconnectIfSlow(EventTarget eventTarget) {
+		SlowConsumerPolicy policy = slowConsumerPolicy;
+		if (policy == null) return false;
+		String exceeded = policy.check(eventTarget);
+		if (exceeded == null) return false;
+		logger.debug("#{} slow consumer: {}", eventTarget.getID(), exceeded);
+		eventTarget.disconnect(policy.getRetryHint());
+		return true;
+	}
+
+	/**
+	 * Checks, before writing to it, whether a subscriber is stalled in a write for longer than the slow consumer
+	 * policy allows, and disconnects it if so, so that the broadcast does not wait for it
+	 * @param eventTarget event target
+	 * @return whether the subscriber has been disconnected, in which case it has to be evicted
+	 */
+	protected boolean disconnectIfStalled(EventTarget eventTarget) {
+		SlowConsumerPolicy policy = slowConsumerPolicy;
+		if (policy == null) return false;
+		String exceeded = policy.checkStall(eventTarget);
+		if (exceeded == null) return false;
+		logger.debug("#{} slow consumer: {}", eventTarget.getID(), exceeded);
+		eventTarget.disconnect(policy.getRetryHint());
+		return true;
+	}
+
+	/**
+	 * <p>Delegates keep-alives to a scheduler, which only sends heartbeats to idle subscribers, spread over time.
+	 * It replaces periodic calls to {@link #keepAlive()}.</p>
+	 * @param scheduler keep-alive scheduler, possibly shared between broadcasters, or null to stop using it
+	 */
+	public void setKeepAliveScheduler(KeepAliveScheduler scheduler) {
+		KeepAliveScheduler previous = keepAliveScheduler;
+		keepAliveScheduler = scheduler;
+		for (EventTarget target : targets) {
+			if (previous != null) previous.remove(target);
+			if (scheduler != null) scheduler.add(target, this);
+		}
+		for (EventTarget target : interests.getSubscribers()) {
+			if (previous != null) previous.remove(target);
+			if (scheduler != null) scheduler.add(target, this);
+		}
+	}
+
     /**
      * Utility method to left-pad last-event-id with zeros when it's a numeric id
      */
@@ -150,7 +353,7 @@ public class EventBroadcast extends Broadcast
 	 * @return the size of the Set holding the subscribers
 	 */
 	public int getSubscriberCount() {
-		return targets.size();
+		return targets.size() + interests.size();
 	}
 
 	/**
@@ -158,7 +361,7 @@ public class EventBroadcast extends Broadcast
 	 * @return the size of the Set holding the subscribers
 	 */
 	public int size() {
-		return targets.size();
+		return getSubscriberCount();
 	}
 
 	/**
@@ -169,6 +372,76 @@ public class EventBroadcast extends Broadcast
 		return getSubscriberCount() > 0;
 	}
 
+	/**
+	 * <p>Number of events the outbound queues of the subscribers can still absorb, see
+	 * {@link EventTarget#getQueueCapacity()}.</p>
+	 *
+	 * <p>With a percentile of 1, this is the headroom of the fullest queue: no subscriber would overflow. With a
+	 * percentile of 0.9, the fullest tenth of the queues is ignored.</p>
+	 *
+	 * <p>As it is asked for by publishers at each batch, the headroom is computed at most every 10 milliseconds, or
+	 * when a subscriber joins, in a single pass over the subscribers counting their headrooms in buckets. It is
+	 * rounded down by at most an eighth, and lowered by one for each event delivered since it was computed, so that
+	 * it never overestimates the room left.</p>
+	 * @param percentile share of the subscribers, between 0 and 1, which must be able to absorb the events
+	 * @return headroom, or {@link Integer#MAX_VALUE} if no subscriber has a bounded queue
+	 */
+	public int getQueueHeadroom(double percentile) {
+		if (percentile < 0 || percentile > 1) throw new IllegalArgumentException("percentile must be between 0 and 1");
+		synchronized (headroomBuckets) {
+			long now = System.nanoTime();
+			long deliveries = this.deliveries.get();
+			if (headroomStale || percentile != headroomPercentile || now - headroomTime >= HEADROOM_REFRESH_NANOS) {
+				headroomStale = false;
+				headroomDeliveries = deliveries;
+				headroom = computeQueueHeadroom(percentile);
+				headroomPercentile = percentile;
+				headroomTime = now;
+			}
+			if (headroom == Integer.MAX_VALUE) return headroom;
+			return (int)Math.max(0, headroom - (deliveries - headroomDeliveries));
+		}
+	}
+
+	/**
+	 * Counts an event, or a keep-alive, handed over to the subscribers, once whatever the number of collections or
+	 * shards it is delivered through: the queue headroom is lowered by one until it is computed again
+	 */
+	protected void countDelivery() {
+		deliveries.incrementAndGet();
+	}
+
+	private int computeQueueHeadroom(double percentile) {
+		int[] buckets = headroomBuckets;
+		Arrays.fill(buckets, 0);
+		int count = 0;
+		// the collections may change meanwhile
+		for (Iterable<EventTarget> subscribers : Arrays.asList(targets, interests.getSubscribers())) {
+			for (EventTarget target : subscribers) {
+				int capacity = target.getQueueCapacity();
+				++buckets[capacity == Integer.MAX_VALUE ? HEADROOM_BUCKETS - 1 : headroomBucket(Math.max(0, capacity - target.getQueueDepth()))];
+				++count;
+			}
+		}
+		if (count == 0) return Integer.MAX_VALUE;
+		int rank = Math.min(count - 1, (int)Math.floor((1 - percentile) * count));
+		for (int bucket = 0; ; ++bucket) {
+			rank -= buckets[bucket];
+			if (rank < 0) return bucket == HEADROOM_BUCKETS - 1 ? Integer.MAX_VALUE : headroomLowerBound(bucket);
+		}
+	}
+
+	static int headroomBucket(int headroom) {
+		if (headroom < 16) return headroom;
+		int exponent = 31 - Integer.numberOfLeadingZeros(headroom);
+		return 16 + (exponent - 4) * 8 + ((headroom >>> (exponent - 3)) & 7);
+	}
+
+	static int headroomLowerBound(int bucket) {
+		if (bucket < 16) return bucket;
+		return (8 + (bucket - 16) % 8) << ((bucket - 16) / 8 + 1);
+	}
+
 	/**
 	 * <p>Broadcasts a {@link MessageEvent} to the subscribers.</p>
 	 *
@@ -180,49 +453,309 @@ public class EventBroadcast extends Broadcast
 	 */
 	public boolean broadcast(MessageEvent messageEvent)
 	{
-		boolean hasLiveDispatchers = false;
-        for (Iterator<EventTarget> it = targets.iterator(); it.hasNext(); ) {
+		return publish(messageEvent, null) > 0;
+	}
+
+	/**
+	 * <p>Broadcasts a {@link MessageEvent} to the subscribers from the publishing thread (see
+	 * {@link #setPublishExecutor(Executor)}), and returns immediately.</p>
+	 *
+	 * <p>Events published asynchronously are delivered in order, but not necessarily after the events previously
+	 * published with {@link #broadcast(MessageEvent)}.</p>
+	 *
+	 * <p>When the publishing executor rejects the event, for instance because the queue of the default one is full,
+	 * the report is completed exceptionally with a {@link RejectedExecutionException}: publishers are expected to
+	 * slow down or drop events.</p>
+	 *
+	 * @param messageEvent The instance that encapsulates all the desired fields for the {@link MessageEvent}
+	 * @return delivery report, completed once the event has been handed over to all the subscribers
+	 */
+	public CompletableFuture<DeliveryReport> broadcastAsync(MessageEvent messageEvent)
+	{
+		long start = System.nanoTime();
+		CompletableFuture<DeliveryReport> report = new CompletableFuture<>();
+		try
+		{
+			getPublishExecutor().execute(() ->
+			{
+				try
+				{
+					AtomicInteger failed = new AtomicInteger();
+					int delivered = publish(messageEvent, failed);
+					report.complete(new DeliveryReport(delivered, failed.get(), System.nanoTime() - start));
+				}
+				catch (Throwable t)
+				{
+					report.completeExceptionally(t);
+					if (t instanceof Error) throw (Error)t;
+				}
+			});
+		}
+		catch (RejectedExecutionException ree)
+		{
+			report.completeExceptionally(ree);
+		}
+		return report;
+	}
+
+	/* delivers an event to all the subscribers, counting the failed ones if asked to */
+	private int publish(MessageEvent messageEvent, AtomicInteger failed)
+	{
+		Metrics metrics = this.metrics;
+		metrics.eventPublished();
+		countDelivery();
+		long start = metrics == Metrics.NOOP ? 0L : System.nanoTime();
+		int delivered = deliver(targets, messageEvent, failed) + deliver(interests, messageEvent, failed);
+		if (metrics != Metrics.NOOP) metrics.broadcastDelivered(delivered, System.nanoTime() - start);
+		addToHistory(messageEvent);
+		forward(messageEvent);
+		return delivered;
+	}
+
+	/**
+	 * Sets the executor running asynchronous broadcasts. It must run tasks one at a time, in submission order,
+	 * for subscribers to receive events in order. By default, a single daemon thread is started on first use, with
+	 * a queue of {@link #DEFAULT_PUBLISH_QUEUE_CAPACITY} events.
+	 * @param executor publishing executor, or null to use the default one
+	 */
+	public synchronized void setPublishExecutor(Executor executor) {
+		if (ownPublishExecutor != null && executor != ownPublishExecutor) {
+			ownPublishExecutor.shutdown();
+			ownPublishExecutor = null;
+		}
+		publishExecutor = executor;
+	}
+
+	/**
+	 * @return the executor running asynchronous broadcasts
+	 */
+	public Executor getPublishExecutor() {
+		Executor executor = publishExecutor;
+		if (executor != null) return executor;
+		synchronized (this) {
+			if (publishExecutor == null) {
+				// bounded, so that asynchronous publishers get rejections rather than piling events up
+				ownPublishExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+					new ArrayBlockingQueue<>(DEFAULT_PUBLISH_QUEUE_CAPACITY), runnable -> {
+						Thread thread = new Thread(runnable, "sse-publish");
+						thread.setDaemon(true);
+						return thread;
+					});
+				publishExecutor = ownPublishExecutor;
+			}
+			return publishExecutor;
+		}
+	}
+
+	/**
+	 * Sends an event to the subscribers of an index which are interested in it
+	 * @param index subscription index
+	 * @param messageEvent event to be sent
+	 * @return number of interested subscribers the event was delivered to
+	 */
+	protected int deliver(SubscriptionIndex index, MessageEvent messageEvent)
+	{
+		return deliver(index, messageEvent, null);
+	}
+
+	/**
+	 * Sends an event to the subscribers of an index which are interested in it
+	 * @param index subscription index
+	 * @param messageEvent event to be sent
+	 * @param failed counter of failed subscribers, or null
+	 * @return number of interested subscribers the event was delivered to
+	 */
+	protected int deliver(SubscriptionIndex index, MessageEvent messageEvent, AtomicInteger failed)
+	{
+		if (index.isEmpty()) return 0;
+		String eventName = EventSelector.typeOf(messageEvent);
+		int delivered = 0;
+		Set<EventTarget> named = index.getByName(eventName);
+		if (named != null) delivered = deliver(named, messageEvent, failed);
+		for (Map.Entry<String, Set<EventTarget>> entry : index.getByPrefix().entrySet())
+		{
+			if (eventName.startsWith(entry.getKey())) delivered += deliver(entry.getValue(), messageEvent, failed);
+		}
+		return delivered;
+	}
+
+	/**
+	 * Sends an event to a collection of subscribers, removing from the collection the ones which went offline.
+	 * @param recipients subscribers
+	 * @param messageEvent event to be sent
+	 * @return number of subscribers the event was delivered to
+	 */
+	protected int deliver(Iterable<EventTarget> recipients, MessageEvent messageEvent)
+	{
+		return deliver(recipients, messageEvent, null);
+	}
+
+	/**
+	 * Sends an event to a collection of subscribers, removing from the collection the ones which went offline.
+	 * @param recipients subscribers
+	 * @param messageEvent event to be sent
+	 * @param failed counter of failed subscribers, or null
+	 * @return number of subscribers the event was delivered to
+	 */
+	protected int deliver(Iterable<EventTarget> recipients, MessageEvent messageEvent, AtomicInteger failed)
+	{
+		int delivered = 0;
+        for (Iterator<EventTarget> it = recipients.iterator(); it.hasNext(); ) {
             EventTarget dispatcher = it.next();
+            LeaveReason reason;
             try
 			{
-                dispatcher.send(messageEvent);
-                hasLiveDispatchers = true;
+                // a subscriber stalled in another write would hold up the whole broadcast
+                if (!disconnectIfStalled(dispatcher))
+                {
+                    dispatcher.send(messageEvent);
+                    if (!disconnectIfSlow(dispatcher))
+                    {
+                        ++delivered;
+                        continue;
+                    }
+                }
+                reason = LeaveReason.SLOW_CONSUMER;
             }
             catch (IOException|IllegalStateException e)
 			{
-                // Client disconnected. Removing from targets
-                it.remove();
-                subscriberLeft(dispatcher);
+                // Client disconnected
+                reason = reasonOf(e);
             }
+            // Removing from targets
+            it.remove();
+            evicted(dispatcher, reason);
+            if (failed != null) failed.incrementAndGet();
         }
-        if (messageEvent.getId() != null && !messageEvent.isVolatile())
+		return delivered;
+    }
+
+	/**
+	 * Keeps the event in the history, for subscribers reconnecting with a <code>Last-Event-ID</code>
+	 * @param messageEvent broadcasted event
+	 */
+	protected void addToHistory(MessageEvent messageEvent)
+	{
+		if (history.append(messageEvent))
 		{
-			String id = padLastEventId(messageEvent.getId());
-			if (!history.containsKey(id)) {
-				history.put(id, messageEvent);
-				while (history.size() > MAX_HISTORY_SIZE) history.remove(history.firstKey());
+			EventJournal journal = this.journal;
+			if (journal != null)
+			{
+				try
+				{
+					journal.append(messageEvent);
+				}
+				catch (IOException ioe)
+				{
+					logger.error("could not journalize event {}", messageEvent.getId(), ioe);
+				}
 			}
 		}
-	return hasLiveDispatchers;
-    }
+	}
+
+	/**
+	 * Hands a published event over to the bridge, if any, for peer nodes
+	 * @param messageEvent broadcasted event
+	 */
+	protected void forward(MessageEvent messageEvent)
+	{
+		EventBridge bridge = this.bridge;
+		if (bridge != null) bridge.forward(bridgeChannel, messageEvent);
+	}
+
+	/**
+	 * Called by {@link EventBridge#attach(String, EventBroadcast)}, which should be used instead.
+	 * @param bridge bridge to peer nodes, or null to detach the current one
+	 * @param channel channel name, identifying this broadcaster on all nodes
+	 */
+	public void setBridge(EventBridge bridge, String channel) {
+		this.bridgeChannel = channel;
+		this.bridge = bridge;
+	}
+
+	public EventBridge getBridge() {
+		return bridge;
+	}
+
+	/**
+	 * Restricts generated ids, so that several nodes sharing events generate distinct ids,
+	 * see {@link EventHistory#setIdStride(int, int)}
+	 * @param stride ids stride, typically the number of nodes
+	 * @param offset ids offset, typically the node index
+	 */
+	public void setEventIdStride(int stride, int offset) {
+		history.setIdStride(stride, offset);
+	}
+
+	/**
+	 * Attaches a durable journal, so that subscribers can resume from their <code>Last-Event-ID</code> across
+	 * restarts. Generated ids (see {@link #nextEventId()}) will follow the ones found in the journal.
+	 * @param journal event journal, or null to detach the current one
+	 */
+	public void setJournal(EventJournal journal) {
+		if (journal != null) history.reserveIds(journal.getLastNumericId());
+		this.journal = journal;
+	}
+
+	public EventJournal getJournal() {
+		return journal;
+	}
+
+	/**
+	 * Sets the metrics implementation fed by this broadcaster
+	 * @param metrics metrics, or null to stop collecting them
+	 */
+	public void setMetrics(Metrics metrics) {
+		this.metrics = metrics == null ? Metrics.NOOP : metrics;
+	}
+
+	public Metrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Generates a new event id, greater than all the numeric ids found in the history, which allows
+	 * the fastest <code>Last-Event-ID</code> lookups.
+	 * @return new event id
+	 */
+	public String nextEventId() {
+		return history.nextId();
+	}
 
     @Override
 	public void keepAlive()
 	{
-		boolean hasLiveDispatchers = false;
-		for (Iterator<EventTarget> it = targets.iterator(); it.hasNext(); ) {
+		countDelivery();
+		keepAlive(targets);
+		keepAlive(interests.getSubscribers());
+	}
+
+	/**
+	 * Sends a keep-alive to a collection of subscribers, removing from the collection the ones which went offline.
+	 * @param recipients subscribers
+	 */
+	protected void keepAlive(Iterable<EventTarget> recipients)
+	{
+		for (Iterator<EventTarget> it = recipients.iterator(); it.hasNext(); ) {
 			EventTarget dispatcher = it.next();
+			LeaveReason reason;
 			try
 			{
-				dispatcher.keepAlive();
-				hasLiveDispatchers = true;
+				if (!disconnectIfStalled(dispatcher))
+				{
+					dispatcher.keepAlive();
+					if (!disconnectIfSlow(dispatcher)) continue;
+				}
+				reason = LeaveReason.SLOW_CONSUMER;
 			}
 			catch (IOException|IllegalStateException e)
 			{
-				// Client disconnected. Removing from targets
-				it.remove();
-				subscriberLeft(dispatcher);
+				// Client disconnected
+				reason = reasonOf(e);
 			}
+			// Removing from targets
+			it.remove();
+			evicted(dispatcher, reason);
 		}
 	}
 
@@ -238,20 +771,89 @@ public class EventBroadcast extends Broadcast
             } catch (Exception e) {
                 // Uncontrolled exception when closing a dispatcher. Removing anyway and ignoring.
             }
+            KeepAliveScheduler scheduler = keepAliveScheduler;
+            if (scheduler != null) scheduler.remove(d);
+        }
+        for (EventTarget d : interests.getSubscribers()) {
+            try {
+                d.close();
+            } catch (Exception e) {
+                // Uncontrolled exception when closing a dispatcher. Removing anyway and ignoring.
+            }
+            KeepAliveScheduler scheduler = keepAliveScheduler;
+            if (scheduler != null) scheduler.remove(d);
         }
         targets.clear();
+        interests.clear();
         history.clear();
+        synchronized (this) {
+            // pending asynchronous broadcasts are still run; a new thread is started on next use
+            if (ownPublishExecutor != null) {
+                ownPublishExecutor.shutdown();
+                if (publishExecutor == ownPublishExecutor) publishExecutor = null;
+                ownPublishExecutor = null;
+            }
+        }
     }
 
+	/**
+	 * Subscribers having the given id
+	 * @param targetId event target id, see {@link EventTarget#getID()}
+	 * @return subscribers, possibly none
+	 */
+	public List<EventTarget> getSubscribers(String targetId)
+	{
+		Set<EventTarget> all = targets.get(targetId), interested = interests.getById(targetId);
+		if (interested.isEmpty()) return new ArrayList<>(all);
+		List<EventTarget> subscribers = new ArrayList<>(all.size() + interested.size());
+		subscribers.addAll(all);
+		subscribers.addAll(interested);
+		return subscribers;
+	}
+
+	/**
+	 * <p>Sends an event to the subscribers having the given id only, whatever events they subscribed to.</p>
+	 *
+	 * <p>The event is not kept in the history, which is shared by all subscribers, nor forwarded to other nodes.
+	 * Subscribers which went offline are detached.</p>
+	 * @param targetId event target id, see {@link EventTarget#getID()}
+	 * @param messageEvent event to be sent
+	 * @return whether the event was delivered to some subscriber
+	 */
+	public boolean send(String targetId, MessageEvent messageEvent)
+	{
+		int delivered = 0;
+		for (EventTarget target : getSubscribers(targetId))
+		{
+			try
+			{
+				target.send(messageEvent);
+				++delivered;
+			}
+			catch (IOException|IllegalStateException e)
+			{
+				evict(target, reasonOf(e));
+			}
+		}
+		return delivered > 0;
+	}
+
+	/**
+	 * Detaches the subscribers having the given id, and closes their connections
+	 * @param targetId event target id, see {@link EventTarget#getID()}
+	 */
 	public void remove(String targetId)
 	{
-		for (Iterator<EventTarget> it = targets.iterator(); it.hasNext(); )
+		for (EventTarget target : getSubscribers(targetId))
 		{
-			EventTarget dispatcher = it.next();
-			if (targetId.equals(dispatcher.getID()))
+			if (unregister(target))
 			{
-				targets.remove(targetId);
-				break;
+				KeepAliveScheduler scheduler = keepAliveScheduler;
+				if (scheduler != null) scheduler.remove(target);
+				metrics.subscriberLeft();
+				subscriberLeft(target, LeaveReason.REMOVED);
+				// also releases resources such as writer threads
+				target.close();
 			}
 		}
 	}
@@ -263,7 +865,68 @@ public class EventBroadcast extends Broadcast
 	@Override
 	public String toString()
 	{
-		return targets.stream().map(eventTarget -> eventTarget.getID()).collect(Collectors.joining(":"));
+		return Stream.concat(targets.stream(), StreamSupport.stream(interests.getSubscribers().spliterator(), false))
+			.map(eventTarget -> eventTarget.getID()).collect(Collectors.joining(":"));
 	}
 
+	/**
+	 * Event target counting replayed events, and filtering them for selective subscribers
+	 */
+	private static class ReplayTarget implements EventTarget
+	{
+		private final EventTarget target;
+		private final EventSelector selector;
+		int count = 0;
+
+		ReplayTarget(EventTarget target, EventSelector selector) {
+			this.target = target;
+			this.selector = selector;
+		}
+
+		@Override
+		public EventTarget ok() {
+			return this;
+		}
+
+		@Override
+		public EventTarget open() throws IOException {
+			return this;
+		}
+
+		@Override
+		public EventTarget send(String event, String data) throws IOException {
+			return send(new MessageEvent.Builder().setEvent(event).setData(data).build());
+		}
+
+		@Override
+		public EventTarget send(MessageEvent messageEvent) throws IOException {
+			if (selector == null || selector.matches(messageEvent)) {
+				target.send(messageEvent);
+				++count;
+			}
+			return this;
+		}
+
+		@Override
+		public EventTarget sendFrame(byte[] frame) throws IOException {
+			// frames are only parsed when they have to be filtered
+			if (selector != null) return EventTarget.super.sendFrame(frame);
+			target.sendFrame(frame);
+			for (int i = 1; i < frame.length; ++i) {
+				// journaled events end with an empty line, which cannot appear within an event
+				if (frame[i] == '\n' && frame[i - 1] == '\n') ++count;
+			}
+			return this;
+		}
+
+		@Override
+		public void close() {
+			target.close();
+		}
+
+		@Override
+		public String getID() {
+			return target.getID();
+		}
+	}
 }
@@ -0,0 +1,245 @@
+package info.macias.sse;
+
+import info.macias.sse.events.MessageEvent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>Fixed-capacity history of broadcasted events, used to resume subscribers reconnecting with a
+ * <code>Last-Event-ID</code> header.</p>
+ *
+ * <p>Events are stored in an array ring indexed by a monotonic sequence number, so that appending is O(1)
+ * and does not allocate. As long as event ids are increasing numbers (which is the case for ids produced by
+ * {@link #nextId()}), resuming is a binary search; other ids are looked up by a backward scan.</p>
+ *
+ * <p>The ring is only allocated on the first append, and released when cleared, so that idle broadcasters
+ * stay cheap.</p>
+ */
+public class EventHistory
+{
+    public static final int DEFAULT_CAPACITY = 20;
+
+    private MessageEvent[] events = null;
+    private long[] numericIds = null;
+    private final int capacity;
+
+    /* sequence number of the next appended event */
+    private long head = 0;
+    /* sequence number of the last event which broke numeric ids ordering */
+    private long disorder = -1;
+    private long lastNumericId = -1;
+    private long lastGeneratedId = 0;
+    private int idStride = 1;
+    private int idOffset = 0;
+
+    public EventHistory()
+    {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity maximum number of events kept
+     */
+    public EventHistory(int capacity)
+    {
+        if (capacity <= 0) throw new IllegalArgumentException("history capacity must be strictly positive");
+        this.capacity = capacity;
+    }
+
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * Generates a new event id, greater than all the numeric ids seen so far
+     * @return new numeric event id
+     */
+    public synchronized String nextId()
+    {
+        long next = Math.max(lastGeneratedId, lastNumericId) + 1;
+        if (idStride > 1) next += Math.floorMod(idOffset - next, (long)idStride);
+        lastGeneratedId = next;
+        return String.valueOf(lastGeneratedId);
+    }
+
+    /**
+     * Restricts generated ids to the values congruent to <code>offset</code> modulo <code>stride</code>,
+     * so that several nodes sharing events generate distinct ids, which still are increasing numbers
+     * @param stride ids stride, typically the number of nodes
+     * @param offset ids offset, typically the node index
+     */
+    public synchronized void setIdStride(int stride, int offset)
+    {
+        if (stride <= 0 || offset < 0 || offset >= stride) throw new IllegalArgumentException("invalid id stride");
+        idStride = stride;
+        idOffset = offset;
+    }
+
+    /**
+     * Makes sure that generated ids will be greater than the given one, for instance an id found in
+     * some persistent storage
+     * @param lastUsedId last used numeric id
+     */
+    public synchronized void reserveIds(long lastUsedId)
+    {
+        lastGeneratedId = Math.max(lastGeneratedId, lastUsedId);
+    }
+
+    /**
+     * Returns the sequence number which will be given to the next appended event. It is also
+     * the total number of events appended so far.
+     * @return head sequence number
+     */
+    public synchronized long getHeadSequence()
+    {
+        return head;
+    }
+
+    /**
+     * Appends an event, evicting the oldest one if the history is full. Events without id, volatile events,
+     * and events whose id is already present are ignored.
+     * @param messageEvent broadcasted event
+     * @return whether the event was appended
+     */
+    public synchronized boolean append(MessageEvent messageEvent)
+    {
+        String id = messageEvent.getId();
+        if (id == null || messageEvent.isVolatile()) return false;
+        long numericId = parseId(id);
+        if (head > 0)
+        {
+            if (id.equals(events[index(head - 1)].getId())) return false;
+            if (numericId < 0)
+            {
+                // not worth a scan on the broadcast path: only consecutive duplicates are ignored
+                disorder = head;
+            }
+            else if (numericId <= lastNumericId)
+            {
+                if (find(id, numericId) >= 0) return false;
+                disorder = head;
+            }
+        }
+        if (events == null)
+        {
+            events = new MessageEvent[capacity];
+            numericIds = new long[capacity];
+        }
+        int index = index(head);
+        events[index] = messageEvent;
+        numericIds[index] = numericId;
+        if (numericId >= 0) lastNumericId = Math.max(lastNumericId, numericId);
+        ++head;
+        return true;
+    }
+
+    /**
+     * Returns the events following the given one
+     * @param lastEventId last event id received by the client
+     * @return list of missed events, possibly empty
+     */
+    public synchronized List<MessageEvent> since(String lastEventId)
+    {
+        if (lastEventId == null || lastEventId.isEmpty() || head == 0) return Collections.emptyList();
+        long numericId = parseId(lastEventId);
+        long from;
+        if (numericId >= 0 && isOrdered())
+        {
+            // also works if the last event id has already been evicted
+            from = upperBound(numericId);
+        }
+        else
+        {
+            long seq = find(lastEventId, numericId);
+            if (seq < 0) return Collections.emptyList();
+            from = seq + 1;
+        }
+        List<MessageEvent> missed = new ArrayList<>((int)(head - from));
+        for (long seq = from; seq < head; ++seq) missed.add(events[index(seq)]);
+        return missed;
+    }
+
+    /**
+     * Number of events currently kept
+     * @return history size
+     */
+    public synchronized int size()
+    {
+        return (int)(head - oldest());
+    }
+
+    public synchronized void clear()
+    {
+        events = null;
+        numericIds = null;
+        head = 0;
+        disorder = -1;
+        lastNumericId = -1;
+    }
+
+    private int index(long seq)
+    {
+        return (int)(seq % capacity);
+    }
+
+    private long oldest()
+    {
+        return Math.max(0, head - capacity);
+    }
+
+    /* whether all kept events have increasing numeric ids */
+    private boolean isOrdered()
+    {
+        return disorder < oldest();
+    }
+
+    /* sequence number of the event with the given id, or -1 */
+    private long find(String id, long numericId)
+    {
+        if (numericId >= 0 && isOrdered())
+        {
+            long seq = upperBound(numericId) - 1;
+            return seq >= oldest() && numericIds[index(seq)] == numericId ? seq : -1;
+        }
+        for (long seq = head - 1; seq >= oldest(); --seq)
+        {
+            if (id.equals(events[index(seq)].getId())) return seq;
+        }
+        return -1;
+    }
+
+    /* sequence number of the first event whose numeric id is greater than the given one */
+    private long upperBound(long numericId)
+    {
+        long low = oldest(), high = head;
+        while (low < high)
+        {
+            long mid = (low + high) >>> 1;
+            if (numericIds[index(mid)] <= numericId) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * Parses non-negative numeric ids without throwing, zero-padded ids being accepted.
+     * @param id event id
+     * @return numeric value, or -1 if not numeric
+     */
+    public static long parseId(String id)
+    {
+        int len = id.length();
+        if (len == 0 || len > 18) return -1;
+        long value = 0;
+        for (int i = 0; i < len; ++i)
+        {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+}
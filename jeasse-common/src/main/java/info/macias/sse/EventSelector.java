@@ -0,0 +1,113 @@
+package info.macias.sse;
+
+import info.macias.sse.events.MessageEvent;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * <p>Set of event names, and of event name prefixes, a subscriber is interested in.</p>
+ *
+ * <p>As per the SSE specification, events without an <code>event</code> field are of the <code>message</code>
+ * type. Names already covered by a prefix are ignored, so that a selector matches an event at most once.</p>
+ */
+public final class EventSelector implements Serializable
+{
+    private static final long serialVersionUID = 3121469547120598307L;
+
+    public static final String DEFAULT_EVENT = "message";
+
+    private final Set<String> names;
+    private final Set<String> prefixes;
+
+    /**
+     * @param names event names
+     * @param prefixes event name prefixes
+     */
+    public EventSelector(Collection<String> names, Collection<String> prefixes)
+    {
+        Set<String> keptPrefixes = new HashSet<>();
+        for (String prefix : prefixes)
+        {
+            if (!startsWithAny(prefix, prefixes, prefix)) keptPrefixes.add(prefix);
+        }
+        Set<String> keptNames = new HashSet<>();
+        for (String name : names)
+        {
+            if (!startsWithAny(name, keptPrefixes, null)) keptNames.add(name);
+        }
+        this.names = Collections.unmodifiableSet(keptNames);
+        this.prefixes = Collections.unmodifiableSet(keptPrefixes);
+    }
+
+    /**
+     * Selects events by name
+     * @param names event names
+     * @return new selector
+     */
+    public static EventSelector events(String... names)
+    {
+        return new EventSelector(Arrays.asList(names), Collections.emptySet());
+    }
+
+    /**
+     * Selects events by name prefix
+     * @param prefixes event name prefixes
+     * @return new selector
+     */
+    public static EventSelector prefixes(String... prefixes)
+    {
+        return new EventSelector(Collections.emptySet(), Arrays.asList(prefixes));
+    }
+
+    /* whether the string starts with one of the prefixes, except itself */
+    private static boolean startsWithAny(String str, Collection<String> prefixes, String except)
+    {
+        for (String prefix : prefixes)
+        {
+            if (str.startsWith(prefix) && !prefix.equals(except)) return true;
+        }
+        return false;
+    }
+
+    public Set<String> getNames()
+    {
+        return names;
+    }
+
+    public Set<String> getPrefixes()
+    {
+        return prefixes;
+    }
+
+    public boolean matches(String eventName)
+    {
+        return names.contains(eventName) || startsWithAny(eventName, prefixes, null);
+    }
+
+    public boolean matches(MessageEvent messageEvent)
+    {
+        return matches(typeOf(messageEvent));
+    }
+
+    /**
+     * Event type, as seen by clients
+     * @param messageEvent event
+     * @return event name, or <code>message</code> if the event has no name
+     */
+    public static String typeOf(MessageEvent messageEvent)
+    {
+        String event = messageEvent.getEvent();
+        return event == null ? DEFAULT_EVENT : event;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "names=" + names + ", prefixes=" + prefixes;
+    }
+}
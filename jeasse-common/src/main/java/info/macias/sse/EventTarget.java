@@ -68,6 +68,26 @@ public interface EventTarget
 	 */
 	EventTarget send(MessageEvent messageEvent) throws IOException;
 
+	/**
+	 * Sends an already encoded frame to the subscriber. The frame contains one or several complete events, UTF-8
+	 * encoded and terminated by an empty line, as returned by {@link MessageEvent#getBytes()}. Frames are shared
+	 * between subscribers and must not be modified.
+	 * <p>The default implementation parses the frame back into events and sends them one by one; implementations
+	 * writing to a byte stream should override it to write the frame as is.</p>
+	 * @param frame encoded frame
+	 * @return The same {@link EventTarget} object that received the method call
+	 * @throws IOException if there was an error writing into the response's {@link java.io.OutputStream}. This may be
+	 * a common exception: e.g. it will be thrown when the SSE subscriber closes the connection
+	 */
+	default EventTarget sendFrame(byte[] frame) throws IOException
+	{
+		for (MessageEvent messageEvent : MessageEvent.parse(frame))
+		{
+			send(messageEvent);
+		}
+		return this;
+	}
+
 	/**
 	 * Closes the connection between the server and the client.
 	 */
@@ -82,4 +102,85 @@ public interface EventTarget
     }
 
     default void keepAlive() throws IOException {}
+
+    /**
+     * Returns the time of the last write to the subscriber, for implementations which track it, so that
+     * heartbeats are only sent to idle subscribers (see {@link KeepAliveScheduler})
+     * @return time of the last write in milliseconds, as per {@link System#currentTimeMillis()}, or zero if unknown
+     */
+    default long getLastWriteTime()
+    {
+        return 0L;
+    }
+
+    /**
+     * Returns the number of events waiting to be written to this subscriber, for implementations
+     * which queue outgoing events
+     * @return current outbound queue depth
+     */
+    default int getQueueDepth()
+    {
+        return 0;
+    }
+
+    /**
+     * Returns the number of events handed over to this subscriber since the last one written to it, including the
+     * ones its outbound queue dropped meanwhile, that is how far it lags behind the broadcaster
+     * <p>The default implementation returns the queue depth.</p>
+     * @return lag, in events
+     */
+    default int getLag()
+    {
+        return getQueueDepth();
+    }
+
+    /**
+     * Returns the maximum number of events which can wait to be written to this subscriber, for implementations
+     * which queue outgoing events
+     * @return outbound queue capacity, or {@link Integer#MAX_VALUE} if unbounded
+     */
+    default int getQueueCapacity()
+    {
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * Returns the number of bytes waiting to be written to this subscriber, for implementations
+     * which queue outgoing events
+     * @return pending bytes
+     */
+    default long getPendingBytes()
+    {
+        return 0L;
+    }
+
+    /**
+     * Returns how long the oldest pending write to this subscriber has been waiting: the time since queued events
+     * were last written, or the duration of the ongoing (or last) blocking write
+     * @return write latency in milliseconds, or zero if unknown
+     */
+    default long getWriteLatency()
+    {
+        return 0L;
+    }
+
+    /**
+     * Disconnects a subscriber which cannot keep up: pending events are dropped, and the connection is closed after
+     * a <code>retry:</code> hint has been sent, if possible, so that the client reconnects later on and resumes from
+     * its <code>Last-Event-ID</code>.
+     * <p>The default implementation sends the hint as a regular event, then closes the target.</p>
+     * @param retryHint reconnection delay, in milliseconds
+     */
+    default void disconnect(int retryHint)
+    {
+        try
+        {
+            send(new MessageEvent.Builder().setRetry(retryHint).build());
+        }
+        catch (IOException | IllegalStateException e)
+        {
+            // client already gone
+        }
+        close();
+    }
 }
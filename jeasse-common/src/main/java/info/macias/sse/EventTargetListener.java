@@ -36,4 +36,14 @@ public interface EventTargetListener {
      */
     public void subscriberLeft(EventTarget eventTarget);
 
+    /**
+     * A subscriber just left
+     *
+     * @param eventTarget The leaving subscriber
+     * @param reason Why it left
+     */
+    default void subscriberLeft(EventTarget eventTarget, LeaveReason reason) {
+        subscriberLeft(eventTarget);
+    }
+
 }
@@ -0,0 +1,206 @@
+package info.macias.sse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Idle-aware keep-alive engine, based on a hashed timer wheel.</p>
+ *
+ * <p>Subscribers are spread across the wheel buckets, and every tick one bucket is visited: only the subscribers
+ * which have not been written to for longer than the keep-alive interval (see {@link EventTarget#getLastWriteTime()})
+ * receive a heartbeat. Each subscriber is thus checked once per interval, and heartbeats are spread over time
+ * instead of all being sent at once.</p>
+ *
+ * <p>The ticking thread never writes to a subscriber itself: heartbeats are handed over to a bounded pool of
+ * heartbeat threads, at most one being in flight per subscriber, so that a stalled blocking write does not hold up
+ * the slow consumer checks of the other subscribers. When the pool is saturated, the heartbeats which do not fit are
+ * skipped until the next round.</p>
+ *
+ * <p>One scheduler, and its ticking thread, can be shared by several broadcasters,
+ * see {@link EventBroadcast#setKeepAliveScheduler(KeepAliveScheduler)}.</p>
+ */
+public class KeepAliveScheduler implements AutoCloseable
+{
+    protected static Logger logger = LoggerFactory.getLogger("sse");
+
+    public static final int DEFAULT_WHEEL_SIZE = 64;
+    public static final int DEFAULT_HEARTBEAT_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    public static final int HEARTBEAT_QUEUE_CAPACITY = 4096;
+
+    private static final AtomicInteger schedulerCount = new AtomicInteger();
+
+    private final long intervalMillis;
+    private final List<Map<EventTarget, EventBroadcast>> buckets;
+    private final ScheduledExecutorService ticker;
+    private final ExecutorService heartbeats;
+    /* subscribers whose heartbeat has not been written yet */
+    private final Set<EventTarget> beating = ConcurrentHashMap.newKeySet();
+    private int cursor = 0;
+
+    /**
+     * @param interval keep-alive interval
+     * @param unit time unit of the interval argument
+     */
+    public KeepAliveScheduler(long interval, TimeUnit unit)
+    {
+        this(interval, unit, DEFAULT_WHEEL_SIZE);
+    }
+
+    /**
+     * @param interval keep-alive interval
+     * @param unit time unit of the interval argument
+     * @param wheelSize number of buckets, that is of ticks per interval
+     */
+    public KeepAliveScheduler(long interval, TimeUnit unit, int wheelSize)
+    {
+        this(interval, unit, wheelSize, DEFAULT_HEARTBEAT_THREADS);
+    }
+
+    /**
+     * @param interval keep-alive interval
+     * @param unit time unit of the interval argument
+     * @param wheelSize number of buckets, that is of ticks per interval
+     * @param heartbeatThreads maximum number of heartbeat threads, that is of heartbeats written at once
+     */
+    public KeepAliveScheduler(long interval, TimeUnit unit, int wheelSize, int heartbeatThreads)
+    {
+        if (wheelSize <= 0) throw new IllegalArgumentException("wheel size must be strictly positive");
+        if (heartbeatThreads <= 0) throw new IllegalArgumentException("heartbeat threads must be strictly positive");
+        intervalMillis = unit.toMillis(interval);
+        buckets = new ArrayList<>(wheelSize);
+        for (int i = 0; i < wheelSize; ++i) buckets.add(new ConcurrentHashMap<>());
+        String name = "sse-keepalive-" + schedulerCount.incrementAndGet();
+        ticker = Executors.newSingleThreadScheduledExecutor(runnable ->
+        {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger heartbeatCount = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(heartbeatThreads, heartbeatThreads, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(HEARTBEAT_QUEUE_CAPACITY), runnable ->
+        {
+            Thread thread = new Thread(runnable, name + "-heartbeat-" + heartbeatCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        pool.allowCoreThreadTimeOut(true);
+        heartbeats = pool;
+        long tick = Math.max(1, unit.toNanos(interval) / wheelSize);
+        ticker.scheduleAtFixedRate(this::tick, tick, tick, TimeUnit.NANOSECONDS);
+    }
+
+    public long getInterval()
+    {
+        return intervalMillis;
+    }
+
+    private Map<EventTarget, EventBroadcast> bucket(EventTarget target)
+    {
+        return buckets.get(Math.floorMod(System.identityHashCode(target), buckets.size()));
+    }
+
+    /**
+     * Starts watching a subscriber
+     * @param target subscriber
+     * @param owner broadcaster from which the subscriber will be evicted if the heartbeat fails
+     */
+    public void add(EventTarget target, EventBroadcast owner)
+    {
+        bucket(target).put(target, owner);
+    }
+
+    /**
+     * Stops watching a subscriber
+     * @param target subscriber
+     */
+    public void remove(EventTarget target)
+    {
+        bucket(target).remove(target);
+    }
+
+    private void tick()
+    {
+        try
+        {
+            Map<EventTarget, EventBroadcast> bucket = buckets.get(cursor);
+            cursor = (cursor + 1) % buckets.size();
+            long idleSince = System.currentTimeMillis() - intervalMillis;
+            for (Map.Entry<EventTarget, EventBroadcast> entry : bucket.entrySet())
+            {
+                EventTarget target = entry.getKey();
+                EventBroadcast owner = entry.getValue();
+                // subscribers with a stalled backlog look active, they are checked first
+                if (owner.disconnectIfSlow(target))
+                {
+                    bucket.remove(target);
+                    owner.evict(target, LeaveReason.SLOW_CONSUMER);
+                    continue;
+                }
+                if (target.getLastWriteTime() > idleSince || !beating.add(target)) continue;
+                try
+                {
+                    heartbeats.execute(() -> heartbeat(target, owner));
+                }
+                catch (RejectedExecutionException ree)
+                {
+                    // saturated by stalled writes, or closed meanwhile: skipped until the next round
+                    beating.remove(target);
+                }
+            }
+        }
+        catch (RuntimeException e)
+        {
+            // never let an exception cancel the periodic task
+            logger.error("keep-alive error", e);
+        }
+    }
+
+    private void heartbeat(EventTarget target, EventBroadcast owner)
+    {
+        try
+        {
+            target.keepAlive();
+        }
+        catch (IOException | IllegalStateException e)
+        {
+            // Client disconnected
+            remove(target);
+            owner.evict(target, EventBroadcast.reasonOf(e));
+        }
+        catch (RuntimeException e)
+        {
+            logger.error("keep-alive error", e);
+        }
+        finally
+        {
+            beating.remove(target);
+        }
+    }
+
+    /**
+     * Stops the scheduler threads
+     */
+    @Override
+    public void close()
+    {
+        ticker.shutdownNow();
+        heartbeats.shutdownNow();
+        for (Map<EventTarget, EventBroadcast> bucket : buckets) bucket.clear();
+    }
+}
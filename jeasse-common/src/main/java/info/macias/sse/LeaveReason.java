@@ -0,0 +1,23 @@
+package info.macias.sse;
+
+/**
+ * Why a subscriber left a broadcaster, see {@link Broadcast#subscriberLeft(EventTarget, LeaveReason)}
+ */
+public enum LeaveReason
+{
+    /**
+     * The subscriber has been removed by the application, see {@link EventBroadcast#remove(String)}
+     */
+    REMOVED,
+
+    /**
+     * The connection failed, typically because the client went away
+     */
+    DISCONNECTED,
+
+    /**
+     * The subscriber could not keep up with the event flow: its outbound queue overflowed, or it exceeded the
+     * thresholds of the broadcaster {@link SlowConsumerPolicy}
+     */
+    SLOW_CONSUMER
+}
@@ -0,0 +1,358 @@
+package info.macias.sse;
+
+import info.macias.sse.events.MessageEvent;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Per-subscriber mailbox holding the events which have been published but not yet written to the subscriber.</p>
+ *
+ * <p>The queue is bounded by its capacity, and applies its {@link OverflowPolicy} when full. All methods
+ * synchronize on the queue instance itself, so that consumers can also use it as a lock to keep
+ * writes ordered.</p>
+ *
+ * <p>In conflating mode, an event having a {@link MessageEvent#getConflationKey() conflation key} replaces in place
+ * the pending event with the same key, if any: the newest value is sent at the position of the oldest one. Conflated
+ * events do not count against the capacity.</p>
+ */
+public class OutboundQueue
+{
+    public static final int DEFAULT_RETRY_HINT = 5000;
+
+    private final Deque<MessageEvent> events = new ArrayDeque<>();
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private long blockTimeout = 1000;
+    private int retryHint = DEFAULT_RETRY_HINT;
+    private long dropped = 0;
+    private boolean terminated = false;
+    /* newest pending event per conflation key, null if not conflating */
+    private Map<String, MessageEvent> conflated = null;
+    private long conflatedCount = 0;
+    /* size of the pending events, and time of the last progress while some are pending */
+    private long pendingBytes = 0;
+    private long progressTime = 0;
+    /* offer sequence of the pending events (a ring following the events order), of the last offered event, and of
+       the last taken one, so that the lag accounts for the dropped events */
+    private long[] sequences = new long[16];
+    private int sequencesHead = 0;
+    private long offered = 0;
+    private long taken = 0;
+
+    /**
+     * Builds an unbounded queue
+     */
+    public OutboundQueue()
+    {
+        this(Integer.MAX_VALUE, OverflowPolicy.DISCONNECT);
+    }
+
+    /**
+     * Builds a bounded queue
+     * @param capacity maximum number of pending events
+     * @param policy behaviour when the queue is full
+     */
+    public OutboundQueue(int capacity, OverflowPolicy policy)
+    {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity must be strictly positive");
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+    /**
+     * Sets the maximum time a publisher will wait for room, for the {@link OverflowPolicy#BLOCK} policy
+     * @param blockTimeout timeout in milliseconds
+     * @return this queue
+     */
+    public OutboundQueue setBlockTimeout(long blockTimeout)
+    {
+        this.blockTimeout = blockTimeout;
+        return this;
+    }
+
+    /**
+     * Sets the reconnection delay sent to evicted subscribers in the <code>retry:</code> field
+     * @param retryHint reconnection delay in milliseconds
+     * @return this queue
+     */
+    public OutboundQueue setRetryHint(int retryHint)
+    {
+        this.retryHint = retryHint;
+        return this;
+    }
+
+    /**
+     * Enables or disables conflation of pending events by conflation key
+     * @param conflation whether to conflate events
+     * @return this queue
+     */
+    public synchronized OutboundQueue setConflation(boolean conflation)
+    {
+        conflated = conflation ? new HashMap<>() : null;
+        return this;
+    }
+
+    public synchronized boolean isConflating()
+    {
+        return conflated != null;
+    }
+
+    public int getRetryHint()
+    {
+        return retryHint;
+    }
+
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    public OverflowPolicy getPolicy()
+    {
+        return policy;
+    }
+
+    /**
+     * Enqueues an event, applying the overflow policy if the queue is full.
+     * @param event event to enqueue
+     * @return false if an event has been dropped
+     * @throws SlowConsumerException if the subscriber has to be disconnected
+     */
+    public synchronized boolean offer(MessageEvent event) throws SlowConsumerException
+    {
+        if (terminated) throw new SlowConsumerException("outbound queue is terminated");
+        String key = conflated == null ? null : event.getConflationKey();
+        if (key != null && conflated.containsKey(key))
+        {
+            // the pending event will be substituted when polled
+            conflated.put(key, event);
+            ++conflatedCount;
+            return true;
+        }
+        ++offered;
+        if (events.size() >= capacity)
+        {
+            switch (policy)
+            {
+                case DROP_OLDEST:
+                    forget(events.pollFirst());
+                    add(event);
+                    if (key != null) conflated.put(key, event);
+                    ++dropped;
+                    return false;
+                case DROP_NEWEST:
+                    ++dropped;
+                    return false;
+                case DISCONNECT:
+                    throw new SlowConsumerException("outbound queue is full");
+                case BLOCK:
+                    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(blockTimeout);
+                    try
+                    {
+                        while (events.size() >= capacity)
+                        {
+                            if (terminated) throw new SlowConsumerException("outbound queue is terminated");
+                            long remaining = deadline - System.nanoTime();
+                            if (remaining <= 0) throw new SlowConsumerException("outbound queue is still full after " + blockTimeout + "ms");
+                            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                        }
+                    }
+                    catch (InterruptedException ie)
+                    {
+                        Thread.currentThread().interrupt();
+                        throw new SlowConsumerException("interrupted while waiting for outbound queue");
+                    }
+                    if (key != null && conflated.containsKey(key))
+                    {
+                        // queued meanwhile by another publisher
+                        conflated.put(key, event);
+                        ++conflatedCount;
+                        --offered;
+                        return true;
+                    }
+                    break;
+            }
+        }
+        add(event);
+        if (key != null) conflated.put(key, event);
+        // wake up a consumer waiting in take()
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Retrieves and removes the oldest event, waiting for one if the queue is empty
+     * @return oldest event
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized MessageEvent take() throws InterruptedException
+    {
+        while (events.isEmpty()) wait();
+        return poll();
+    }
+
+    /**
+     * Retrieves and removes the oldest event, waiting up to the given time if the queue is empty
+     * @param timeout maximum time to wait
+     * @param unit time unit of the timeout argument
+     * @return oldest event, or null if the timeout elapsed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized MessageEvent poll(long timeout, TimeUnit unit) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (events.isEmpty())
+        {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) return null;
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return poll();
+    }
+
+    /**
+     * Discards pending events, replacing them with the given final events regardless of the capacity.
+     * Subsequent offers will be refused.
+     * @param finalEvents events to be consumed before the queue is abandoned
+     */
+    public synchronized void terminate(MessageEvent... finalEvents)
+    {
+        terminated = true;
+        events.clear();
+        sequencesHead = 0;
+        taken = offered;
+        pendingBytes = 0;
+        if (conflated != null) conflated.clear();
+        for (MessageEvent event : finalEvents) add(event);
+        notifyAll();
+    }
+
+    public synchronized boolean isTerminated()
+    {
+        return terminated;
+    }
+
+    /**
+     * Retrieves and removes the oldest event
+     * @return oldest event, or null if the queue is empty
+     */
+    public synchronized MessageEvent poll()
+    {
+        MessageEvent event = events.pollFirst();
+        if (event != null)
+        {
+            taken = Math.max(taken, sequences[sequencesHead]);
+            sequencesHead = (sequencesHead + 1) % sequences.length;
+            pendingBytes -= event.getBytes().length;
+            progressTime = System.nanoTime();
+            if (policy == OverflowPolicy.BLOCK) notifyAll();
+            if (conflated != null && event.getConflationKey() != null)
+            {
+                MessageEvent newest = conflated.remove(event.getConflationKey());
+                if (newest != null) event = newest;
+            }
+        }
+        return event;
+    }
+
+    private void add(MessageEvent event)
+    {
+        if (events.isEmpty()) progressTime = System.nanoTime();
+        int size = events.size();
+        if (size == sequences.length)
+        {
+            long[] grown = new long[size * 2];
+            for (int i = 0; i < size; ++i) grown[i] = sequences[(sequencesHead + i) % size];
+            sequences = grown;
+            sequencesHead = 0;
+        }
+        sequences[(sequencesHead + size) % sequences.length] = offered;
+        events.addLast(event);
+        pendingBytes += event.getBytes().length;
+    }
+
+    private void forget(MessageEvent event)
+    {
+        if (event == null) return;
+        sequencesHead = (sequencesHead + 1) % sequences.length;
+        pendingBytes -= event.getBytes().length;
+        if (conflated != null && event.getConflationKey() != null) conflated.remove(event.getConflationKey());
+    }
+
+    /**
+     * Discards all pending events
+     */
+    public synchronized void clear()
+    {
+        events.clear();
+        sequencesHead = 0;
+        taken = offered;
+        pendingBytes = 0;
+        if (conflated != null) conflated.clear();
+        notifyAll();
+    }
+
+    /**
+     * Current queue depth
+     * @return number of pending events
+     */
+    public synchronized int size()
+    {
+        return events.size();
+    }
+
+    public synchronized boolean isEmpty()
+    {
+        return events.isEmpty();
+    }
+
+    /**
+     * Number of events offered since the last one taken by the consumer, including the ones dropped meanwhile by the
+     * overflow policy (conflated values do not count)
+     * @return lag, in events
+     */
+    public synchronized int getLag()
+    {
+        return (int)Math.min(Integer.MAX_VALUE, offered - taken);
+    }
+
+    /**
+     * Size of the pending events, as encoded (conflated values are accounted for with the size of the replaced event)
+     * @return pending bytes
+     */
+    public synchronized long getPendingBytes()
+    {
+        return pendingBytes;
+    }
+
+    /**
+     * Time since the consumer last took an event, while events are pending
+     * @return stall time in milliseconds, or zero if the queue is empty
+     */
+    public synchronized long getStallTime()
+    {
+        return events.isEmpty() ? 0L : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - progressTime);
+    }
+
+    /**
+     * Number of events discarded by the {@link OverflowPolicy#DROP_OLDEST} and {@link OverflowPolicy#DROP_NEWEST} policies
+     * @return dropped events count
+     */
+    public synchronized long getDropped()
+    {
+        return dropped;
+    }
+
+    /**
+     * Number of pending events which have been replaced by newer ones in conflating mode
+     * @return conflated events count
+     */
+    public synchronized long getConflated()
+    {
+        return conflatedCount;
+    }
+}
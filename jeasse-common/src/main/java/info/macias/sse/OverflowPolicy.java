@@ -0,0 +1,30 @@
+package info.macias.sse;
+
+/**
+ * Behaviour of an {@link OutboundQueue} when a subscriber does not consume its events fast enough
+ * and its queue is full.
+ */
+public enum OverflowPolicy
+{
+    /**
+     * Discard the oldest queued event to make room for the new one
+     */
+    DROP_OLDEST,
+
+    /**
+     * Discard the new event
+     */
+    DROP_NEWEST,
+
+    /**
+     * Disconnect the subscriber, after having sent a <code>retry:</code> hint so that it reconnects
+     * later on and resumes from the history using its <code>Last-Event-ID</code>
+     */
+    DISCONNECT,
+
+    /**
+     * Block the publisher until some room is available, or until the block timeout is elapsed,
+     * in which case the subscriber is disconnected as per {@link #DISCONNECT}
+     */
+    BLOCK
+}
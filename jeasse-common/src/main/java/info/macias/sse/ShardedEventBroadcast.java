@@ -0,0 +1,359 @@
+package info.macias.sse;
+
+import info.macias.sse.events.MessageEvent;
+import info.macias.sse.metrics.Metrics;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Broadcaster which partitions its subscribers across several shards, each shard having its own writer thread.</p>
+ *
+ * <p>A broadcast only hands the event over to each shard and returns immediately; the shards then deliver it
+ * in parallel. Since a subscriber belongs to a single shard, whose tasks are run sequentially, events are
+ * still received in order by each subscriber.</p>
+ *
+ * <p>Subscribers join and leave their shard through its task queue, and events are appended to the history and
+ * handed over to the shards atomically, so that a subscriber joining during a broadcast does not get an event
+ * both from the history and from its shard.</p>
+ *
+ * <p>Failed subscribers are evicted (and {@link #subscriberLeft(EventTarget, LeaveReason)} is called) from the shard
+ * writer threads.</p>
+ */
+public class ShardedEventBroadcast extends EventBroadcast
+{
+    private static final AtomicInteger broadcastCount = new AtomicInteger();
+
+    private final Shard[] shards;
+    private final AtomicInteger nextShard = new AtomicInteger();
+    private final Map<EventTarget, Shard> assignments = new ConcurrentHashMap<>();
+    /* makes history appends and shard submissions atomic with respect to joining subscribers */
+    private final Object fanOutLock = new Object();
+
+    private static class Shard
+    {
+        final SubscriberRegistry targets = new SubscriberRegistry();
+        final SubscriptionIndex interests = new SubscriptionIndex();
+        final ExecutorService writer;
+
+        Shard(ThreadFactory threadFactory)
+        {
+            writer = Executors.newSingleThreadExecutor(threadFactory);
+        }
+    }
+
+    /**
+     * Builds a sharded broadcaster with one shard per available processor
+     */
+    public ShardedEventBroadcast()
+    {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Builds a sharded broadcaster using daemon writer threads
+     * @param shardCount number of shards
+     */
+    public ShardedEventBroadcast(int shardCount)
+    {
+        this(shardCount, daemonThreadFactory());
+    }
+
+    /**
+     * Builds a sharded broadcaster
+     * @param shardCount number of shards
+     * @param threadFactory factory for shards writer threads
+     */
+    public ShardedEventBroadcast(int shardCount, ThreadFactory threadFactory)
+    {
+        this(shardCount, EventHistory.DEFAULT_CAPACITY, threadFactory);
+    }
+
+    /**
+     * Builds a sharded broadcaster
+     * @param shardCount number of shards
+     * @param historySize number of events kept for subscribers resuming with a <code>Last-Event-ID</code>
+     * @param threadFactory factory for shards writer threads
+     */
+    public ShardedEventBroadcast(int shardCount, int historySize, ThreadFactory threadFactory)
+    {
+        super(historySize);
+        if (shardCount <= 0) throw new IllegalArgumentException("shard count must be strictly positive");
+        shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; ++i)
+        {
+            shards[i] = new Shard(threadFactory);
+        }
+    }
+
+    private static ThreadFactory daemonThreadFactory()
+    {
+        String prefix = "sse-shard-" + broadcastCount.incrementAndGet() + "-";
+        AtomicInteger threadCount = new AtomicInteger();
+        return runnable ->
+        {
+            Thread thread = new Thread(runnable, prefix + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    public int getShardCount()
+    {
+        return shards.length;
+    }
+
+    /* round-robin assignment keeps shards balanced */
+    private Shard assign(EventTarget eventTarget)
+    {
+        Shard shard = shards[Math.floorMod(nextShard.getAndIncrement(), shards.length)];
+        assignments.put(eventTarget, shard);
+        return shard;
+    }
+
+    @Override
+    protected void register(EventTarget eventTarget)
+    {
+        super.register(eventTarget);
+        Shard shard = assign(eventTarget);
+        synchronized (fanOutLock)
+        {
+            // events already in the history have been replayed, the shard must not deliver them again
+            submit(shard, () -> shard.targets.add(eventTarget));
+        }
+    }
+
+    @Override
+    protected void register(EventTarget eventTarget, EventSelector selector)
+    {
+        super.register(eventTarget, selector);
+        if (selector != null)
+        {
+            // the global index only keeps track of subscribers, shards indices are used for delivery
+            Shard shard = assign(eventTarget);
+            synchronized (fanOutLock)
+            {
+                submit(shard, () -> shard.interests.add(eventTarget, selector));
+            }
+        }
+    }
+
+    @Override
+    protected void evicted(EventTarget eventTarget, LeaveReason reason)
+    {
+        targets.remove(eventTarget);
+        leaveShard(eventTarget);
+        super.evicted(eventTarget, reason);
+    }
+
+    @Override
+    protected boolean unregister(EventTarget eventTarget)
+    {
+        leaveShard(eventTarget);
+        return super.unregister(eventTarget);
+    }
+
+    /* removal goes through the shard queue as well, so that it cannot overtake a pending addition */
+    private void leaveShard(EventTarget eventTarget)
+    {
+        Shard shard = assignments.remove(eventTarget);
+        if (shard != null)
+        {
+            submit(shard, () ->
+            {
+                if (!shard.targets.remove(eventTarget)) shard.interests.remove(eventTarget);
+            });
+        }
+    }
+
+    /**
+     * <p>Hands the event over to the shards, and returns immediately.</p>
+     * @param messageEvent The instance that encapsulates all the desired fields for the {@link MessageEvent}
+     * @return whether there are subscribers (it cannot be known yet whether they are still alive)
+     */
+    @Override
+    public boolean broadcast(MessageEvent messageEvent)
+    {
+        Metrics metrics = this.metrics;
+        fanOut(messageEvent, metrics == Metrics.NOOP ? null : new FanOut(metrics, null));
+        return hasSubscribers();
+    }
+
+    /**
+     * <p>Hands the event over to the shards, and returns immediately, without using the publishing executor.</p>
+     * @param messageEvent The instance that encapsulates all the desired fields for the {@link MessageEvent}
+     * @return delivery report, completed by the last shard done with the event
+     */
+    @Override
+    public CompletableFuture<DeliveryReport> broadcastAsync(MessageEvent messageEvent)
+    {
+        CompletableFuture<DeliveryReport> report = new CompletableFuture<>();
+        fanOut(messageEvent, new FanOut(metrics, report));
+        return report;
+    }
+
+    private void fanOut(MessageEvent messageEvent, FanOut fanOut)
+    {
+        metrics.eventPublished();
+        countDelivery();
+        synchronized (fanOutLock)
+        {
+            addToHistory(messageEvent);
+            for (Shard shard : shards)
+            {
+                boolean submitted = submit(shard, () ->
+                {
+                    int delivered = 0;
+                    try
+                    {
+                        AtomicInteger failed = fanOut == null ? null : fanOut.failed;
+                        delivered = deliver(shard.targets, messageEvent, failed) + deliver(shard.interests, messageEvent, failed);
+                    }
+                    finally
+                    {
+                        if (fanOut != null) fanOut.shardDone(delivered);
+                    }
+                });
+                if (!submitted && fanOut != null) fanOut.shardDone(0);
+            }
+        }
+        forward(messageEvent);
+    }
+
+    /**
+     * Fan-out measure of a single broadcast, reported by the last shard
+     */
+    private class FanOut
+    {
+        private final Metrics metrics;
+        private final CompletableFuture<DeliveryReport> report;
+        private final long start = System.nanoTime();
+        private final AtomicInteger pendingShards = new AtomicInteger(shards.length);
+        private final AtomicInteger delivered = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+
+        FanOut(Metrics metrics, CompletableFuture<DeliveryReport> report)
+        {
+            this.metrics = metrics;
+            this.report = report;
+        }
+
+        void shardDone(int count)
+        {
+            delivered.addAndGet(count);
+            if (pendingShards.decrementAndGet() == 0)
+            {
+                long nanos = System.nanoTime() - start;
+                metrics.broadcastDelivered(delivered.get(), nanos);
+                if (report != null) report.complete(new DeliveryReport(delivered.get(), failed.get(), nanos));
+            }
+        }
+    }
+
+    @Override
+    public void keepAlive()
+    {
+        countDelivery();
+        for (Shard shard : shards)
+        {
+            submit(shard, () ->
+            {
+                keepAlive(shard.targets);
+                keepAlive(shard.interests.getSubscribers());
+            });
+        }
+    }
+
+    private boolean submit(Shard shard, Runnable task)
+    {
+        try
+        {
+            shard.writer.execute(task);
+            return true;
+        }
+        catch (RejectedExecutionException ree)
+        {
+            logger.debug("dropping task for a shut down broadcaster");
+            return false;
+        }
+    }
+
+    /**
+     * Closes all the connections, and stops the writer threads once pending deliveries have been done. The
+     * broadcaster cannot be used afterwards.
+     */
+    @Override
+    public void close()
+    {
+        super.close();
+        assignments.clear();
+        for (Shard shard : shards)
+        {
+            submit(shard, () ->
+            {
+                shard.targets.clear();
+                shard.interests.clear();
+            });
+            shard.writer.shutdown();
+        }
+    }
+
+    /**
+     * <p>Hands the event over to the shards of the subscribers having the given id, and returns immediately.</p>
+     * @param targetId event target id, see {@link EventTarget#getID()}
+     * @param messageEvent event to be sent
+     * @return whether there are such subscribers (it cannot be known yet whether they are still alive)
+     */
+    @Override
+    public boolean send(String targetId, MessageEvent messageEvent)
+    {
+        List<EventTarget> recipients = getSubscribers(targetId);
+        for (EventTarget target : recipients)
+        {
+            Shard shard = assignments.get(target);
+            if (shard == null) continue;
+            submit(shard, () ->
+            {
+                try
+                {
+                    target.send(messageEvent);
+                }
+                catch (IOException | IllegalStateException e)
+                {
+                    evict(target, reasonOf(e));
+                }
+            });
+        }
+        return !recipients.isEmpty();
+    }
+
+    /**
+     * Stops the writer threads, after pending deliveries have been done.
+     * @param timeout maximum time to wait for pending deliveries
+     * @param unit time unit of the timeout argument
+     * @return true if all pending deliveries were done before the timeout
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException
+    {
+        for (Shard shard : shards)
+        {
+            shard.writer.shutdown();
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Shard shard : shards)
+        {
+            if (!shard.writer.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,17 @@
+package info.macias.sse;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a subscriber has to be disconnected because it cannot keep up with the event flow.
+ * Since it is an {@link IOException}, a broadcaster receiving it will evict the subscriber.
+ */
+public class SlowConsumerException extends IOException
+{
+    private static final long serialVersionUID = 3128455760914395127L;
+
+    public SlowConsumerException(String message)
+    {
+        super(message);
+    }
+}
@@ -0,0 +1,127 @@
+package info.macias.sse;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Thresholds beyond which a subscriber which is still connected, but hardly reading, is evicted, so that it does
+ * not slow down the whole broadcast nor accumulate events without limit. See
+ * {@link EventBroadcast#setSlowConsumerPolicy(SlowConsumerPolicy)}.</p>
+ *
+ * <p>Subscribers are checked after each write and each keep-alive, against the statistics reported by their event
+ * target:</p>
+ * <ul>
+ *     <li>the write latency (see {@link EventTarget#getWriteLatency()}), that is how long the oldest pending write
+ *     has been waiting;</li>
+ *     <li>the pending bytes (see {@link EventTarget#getPendingBytes()});</li>
+ *     <li>the lag behind the broadcaster, that is the number of events handed over since the last one written,
+ *     dropped ones included (see {@link EventTarget#getLag()}).</li>
+ * </ul>
+ *
+ * <p>The write latency is also checked before each write, so that the broadcast does not wait for a subscriber
+ * already stalled in a write.</p>
+ *
+ * <p>An evicted subscriber gets a <code>retry:</code> hint, when the connection allows it, before being closed, so
+ * that it reconnects later on and resumes from the history using its <code>Last-Event-ID</code>.</p>
+ */
+public class SlowConsumerPolicy
+{
+    private long maxWriteLatency = Long.MAX_VALUE;
+    private long maxPendingBytes = Long.MAX_VALUE;
+    private int maxLag = Integer.MAX_VALUE;
+    private int retryHint = OutboundQueue.DEFAULT_RETRY_HINT;
+
+    /**
+     * Sets the maximum time the oldest pending write of a subscriber may wait
+     * @param maxWriteLatency maximum write latency
+     * @param unit time unit of the maxWriteLatency argument
+     * @return this policy
+     */
+    public SlowConsumerPolicy setMaxWriteLatency(long maxWriteLatency, TimeUnit unit)
+    {
+        this.maxWriteLatency = unit.toMillis(maxWriteLatency);
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of bytes waiting to be written to a subscriber
+     * @param maxPendingBytes maximum pending bytes
+     * @return this policy
+     */
+    public SlowConsumerPolicy setMaxPendingBytes(long maxPendingBytes)
+    {
+        this.maxPendingBytes = maxPendingBytes;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of events handed over to a subscriber since the last one written to it
+     * @param maxLag maximum lag, in events
+     * @return this policy
+     */
+    public SlowConsumerPolicy setMaxLag(int maxLag)
+    {
+        this.maxLag = maxLag;
+        return this;
+    }
+
+    /**
+     * Sets the reconnection delay sent to evicted subscribers in the <code>retry:</code> field
+     * @param retryHint reconnection delay in milliseconds
+     * @return this policy
+     */
+    public SlowConsumerPolicy setRetryHint(int retryHint)
+    {
+        this.retryHint = retryHint;
+        return this;
+    }
+
+    /**
+     * @return maximum write latency, in milliseconds
+     */
+    public long getMaxWriteLatency()
+    {
+        return maxWriteLatency;
+    }
+
+    public long getMaxPendingBytes()
+    {
+        return maxPendingBytes;
+    }
+
+    public int getMaxLag()
+    {
+        return maxLag;
+    }
+
+    public int getRetryHint()
+    {
+        return retryHint;
+    }
+
+    /**
+     * Checks a subscriber against the thresholds
+     * @param target event target
+     * @return the exceeded threshold, or null if the subscriber keeps up
+     */
+    public String check(EventTarget target)
+    {
+        int lag = target.getLag();
+        if (lag > maxLag) return "lag of " + lag + " events";
+        long pendingBytes = target.getPendingBytes();
+        if (pendingBytes > maxPendingBytes) return pendingBytes + " pending bytes";
+        long writeLatency = target.getWriteLatency();
+        if (writeLatency > maxWriteLatency) return "write latency of " + writeLatency + "ms";
+        return null;
+    }
+
+    /**
+     * Checks whether a subscriber is stalled in a write, before writing to it
+     * @param target event target
+     * @return the exceeded threshold, or null if the subscriber is not stalled
+     */
+    public String checkStall(EventTarget target)
+    {
+        long writeLatency = target.getWriteLatency();
+        return writeLatency > maxWriteLatency ? "stalled write for " + writeLatency + "ms" : null;
+    }
+}
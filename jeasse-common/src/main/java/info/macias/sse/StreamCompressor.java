@@ -0,0 +1,143 @@
+package info.macias.sse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * <p>Per connection gzip or deflate compressor. Each frame is flushed with <code>SYNC_FLUSH</code>, so that
+ * the client can decode every event as soon as it is received, while the dictionary is kept across events.</p>
+ *
+ * <p>Frames have to be compressed in the order they are written. {@link #close()} must be called
+ * to release native memory.</p>
+ */
+public class StreamCompressor implements Closeable
+{
+    /* approximate zlib deflate state size with default parameters */
+    static final int ZLIB_MEMORY = 256 * 1024 + 6 * 1024;
+
+    private static final byte[] EMPTY = new byte[0];
+    private static final byte[] GZIP_HEADER = { 0x1f, (byte)0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte)0xff };
+
+    private final Compression settings;
+    private final String encoding;
+    private final boolean gzip;
+    private final Deflater deflater;
+    private final CRC32 crc;
+    private final byte[] buffer;
+    private boolean started = false;
+    private int currentLevel;
+    private boolean closed = false;
+
+    StreamCompressor(Compression settings, String encoding)
+    {
+        this.settings = settings;
+        this.encoding = encoding;
+        gzip = Compression.GZIP.equals(encoding);
+        currentLevel = settings.getLevel();
+        deflater = new Deflater(currentLevel, gzip);
+        crc = gzip ? new CRC32() : null;
+        buffer = new byte[settings.getBufferSize()];
+    }
+
+    /**
+     * @return content encoding
+     */
+    public String getEncoding()
+    {
+        return encoding;
+    }
+
+    /**
+     * Compresses a frame
+     * @param frame encoded frame
+     * @return compressed bytes, to be written and flushed
+     */
+    public synchronized byte[] compress(byte[] frame)
+    {
+        if (closed) throw new IllegalStateException("compressor is closed");
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(buffer.length, frame.length + 32));
+        if (!started)
+        {
+            if (gzip) out.write(GZIP_HEADER, 0, GZIP_HEADER.length);
+            started = true;
+        }
+        int level = frame.length < settings.getThreshold() ? Deflater.NO_COMPRESSION : settings.getLevel();
+        int count;
+        if (level != currentLevel)
+        {
+            // zlib applies a new level to the pending input with the old one, so apply it without input
+            deflater.setLevel(level);
+            deflater.setInput(EMPTY);
+            do
+            {
+                count = deflater.deflate(buffer, 0, buffer.length, Deflater.NO_FLUSH);
+                out.write(buffer, 0, count);
+            }
+            while (count == buffer.length);
+            currentLevel = level;
+        }
+        if (gzip) crc.update(frame, 0, frame.length);
+        deflater.setInput(frame);
+        do
+        {
+            count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+            out.write(buffer, 0, count);
+        }
+        while (count == buffer.length || !deflater.needsInput());
+        return out.toByteArray();
+    }
+
+    /**
+     * Terminates the stream
+     * @return final bytes (and gzip trailer), to be written before closing the connection
+     */
+    public synchronized byte[] finish()
+    {
+        if (closed) throw new IllegalStateException("compressor is closed");
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        if (!started)
+        {
+            if (gzip) out.write(GZIP_HEADER, 0, GZIP_HEADER.length);
+            started = true;
+        }
+        deflater.finish();
+        while (!deflater.finished())
+        {
+            int count = deflater.deflate(buffer);
+            out.write(buffer, 0, count);
+        }
+        if (gzip)
+        {
+            writeIntLE(out, (int)crc.getValue());
+            writeIntLE(out, (int)deflater.getBytesRead());
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeIntLE(ByteArrayOutputStream out, int value)
+    {
+        out.write(value);
+        out.write(value >>> 8);
+        out.write(value >>> 16);
+        out.write(value >>> 24);
+    }
+
+    /**
+     * Releases native memory. Idempotent.
+     */
+    @Override
+    public synchronized void close()
+    {
+        if (closed) return;
+        closed = true;
+        deflater.end();
+        settings.released();
+    }
+
+    public synchronized boolean isClosed()
+    {
+        return closed;
+    }
+}
@@ -0,0 +1,140 @@
+package info.macias.sse;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * <p>Concurrent set of subscribers, indexed by their {@link EventTarget#getID() id}, with constant time
+ * addition, removal, lookup by id and count.</p>
+ *
+ * <p>Subscribers are indexed under the id they have when added. Several subscribers may share the same id
+ * (for instance a user id, for a user having several open pages); subscribers with an empty id (the default)
+ * are not indexed.</p>
+ *
+ * <p>Iteration is weakly consistent, and supports removal.</p>
+ */
+public class SubscriberRegistry implements Iterable<EventTarget>
+{
+    private final Map<EventTarget, String> members = new ConcurrentHashMap<>();
+    private final Map<String, Set<EventTarget>> byId = new ConcurrentHashMap<>();
+    private final AtomicInteger count = new AtomicInteger();
+
+    /**
+     * Adds a subscriber
+     * @param eventTarget subscriber
+     * @return whether the subscriber was not already present
+     */
+    public boolean add(EventTarget eventTarget)
+    {
+        String id = eventTarget.getID();
+        if (id == null) id = "";
+        if (members.putIfAbsent(eventTarget, id) != null) return false;
+        count.incrementAndGet();
+        if (!id.isEmpty())
+        {
+            byId.compute(id, (key, set) ->
+            {
+                if (set == null) set = ConcurrentHashMap.newKeySet();
+                set.add(eventTarget);
+                return set;
+            });
+        }
+        return true;
+    }
+
+    /**
+     * Removes a subscriber
+     * @param eventTarget subscriber
+     * @return whether the subscriber was present
+     */
+    public boolean remove(EventTarget eventTarget)
+    {
+        String id = members.remove(eventTarget);
+        if (id == null) return false;
+        count.decrementAndGet();
+        if (!id.isEmpty())
+        {
+            byId.computeIfPresent(id, (key, set) ->
+            {
+                set.remove(eventTarget);
+                return set.isEmpty() ? null : set;
+            });
+        }
+        return true;
+    }
+
+    public boolean contains(EventTarget eventTarget)
+    {
+        return members.containsKey(eventTarget);
+    }
+
+    /**
+     * Subscribers having the given id
+     * @param id subscriber id
+     * @return unmodifiable set of subscribers, possibly empty
+     */
+    public Set<EventTarget> get(String id)
+    {
+        Set<EventTarget> set = id == null ? null : byId.get(id);
+        return set == null ? Collections.emptySet() : Collections.unmodifiableSet(set);
+    }
+
+    public int size()
+    {
+        return count.get();
+    }
+
+    public boolean isEmpty()
+    {
+        return count.get() == 0;
+    }
+
+    public Stream<EventTarget> stream()
+    {
+        return members.keySet().stream();
+    }
+
+    @Override
+    public Iterator<EventTarget> iterator()
+    {
+        return new Iterator<EventTarget>()
+        {
+            private final Iterator<EventTarget> it = members.keySet().iterator();
+            private EventTarget current = null;
+
+            @Override
+            public boolean hasNext()
+            {
+                return it.hasNext();
+            }
+
+            @Override
+            public EventTarget next()
+            {
+                return current = it.next();
+            }
+
+            @Override
+            public void remove()
+            {
+                if (current == null) throw new IllegalStateException();
+                SubscriberRegistry.this.remove(current);
+                current = null;
+            }
+        };
+    }
+
+    public void clear()
+    {
+        for (Iterator<EventTarget> it = iterator(); it.hasNext(); )
+        {
+            it.next();
+            it.remove();
+        }
+    }
+}
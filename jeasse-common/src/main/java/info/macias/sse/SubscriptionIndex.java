@@ -0,0 +1,156 @@
+package info.macias.sse;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>Inverted index from event names, and event name prefixes, to the subscribers interested in them,
+ * so that a broadcast only visits interested subscribers.</p>
+ *
+ * <p>The subscriber sets returned by {@link #getByName(String)} and {@link #getByPrefix()} support removal
+ * while iterating; a subscriber removed this way must then be removed from the whole index with
+ * {@link #remove(EventTarget)}.</p>
+ */
+public class SubscriptionIndex
+{
+    private final Map<EventTarget, EventSelector> selectors = new ConcurrentHashMap<>();
+    private final Map<String, Set<EventTarget>> byName = new ConcurrentHashMap<>();
+    private final Map<String, Set<EventTarget>> byPrefix = new ConcurrentHashMap<>();
+    private final SubscriberRegistry subscribers = new SubscriberRegistry();
+
+    /**
+     * Indexes a subscriber
+     * @param eventTarget subscriber
+     * @param selector events the subscriber is interested in
+     */
+    public void add(EventTarget eventTarget, EventSelector selector)
+    {
+        if (selectors.putIfAbsent(eventTarget, selector) != null) return;
+        subscribers.add(eventTarget);
+        for (String name : selector.getNames()) link(byName, name, eventTarget);
+        for (String prefix : selector.getPrefixes()) link(byPrefix, prefix, eventTarget);
+    }
+
+    /**
+     * Removes a subscriber from the index
+     * @param eventTarget subscriber
+     * @return whether the subscriber was indexed
+     */
+    public boolean remove(EventTarget eventTarget)
+    {
+        EventSelector selector = selectors.remove(eventTarget);
+        if (selector == null) return false;
+        subscribers.remove(eventTarget);
+        for (String name : selector.getNames()) unlink(byName, name, eventTarget);
+        for (String prefix : selector.getPrefixes()) unlink(byPrefix, prefix, eventTarget);
+        return true;
+    }
+
+    /* key sets are created and dropped atomically with respect to other updates of the same key */
+    private static void link(Map<String, Set<EventTarget>> map, String key, EventTarget eventTarget)
+    {
+        map.compute(key, (k, set) ->
+        {
+            if (set == null) set = ConcurrentHashMap.newKeySet();
+            set.add(eventTarget);
+            return set;
+        });
+    }
+
+    private static void unlink(Map<String, Set<EventTarget>> map, String key, EventTarget eventTarget)
+    {
+        map.computeIfPresent(key, (k, set) ->
+        {
+            set.remove(eventTarget);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    public EventSelector getSelector(EventTarget eventTarget)
+    {
+        return selectors.get(eventTarget);
+    }
+
+    /**
+     * Indexed subscribers having the given id
+     * @param id subscriber id
+     * @return unmodifiable set of subscribers, possibly empty
+     */
+    public Set<EventTarget> getById(String id)
+    {
+        return subscribers.get(id);
+    }
+
+    /**
+     * Subscribers interested in the given event name, not counting prefix matches
+     * @param eventName event name
+     * @return subscribers, or null
+     */
+    public Set<EventTarget> getByName(String eventName)
+    {
+        return byName.get(eventName);
+    }
+
+    /**
+     * Subscribers interested in event name prefixes
+     * @return map from prefixes to subscribers
+     */
+    public Map<String, Set<EventTarget>> getByPrefix()
+    {
+        return Collections.unmodifiableMap(byPrefix);
+    }
+
+    /**
+     * All indexed subscribers. Removal through the iterator removes the subscriber from the whole index.
+     * @return indexed subscribers
+     */
+    public Iterable<EventTarget> getSubscribers()
+    {
+        return () -> new Iterator<EventTarget>()
+        {
+            private final Iterator<EventTarget> it = selectors.keySet().iterator();
+            private EventTarget current = null;
+
+            @Override
+            public boolean hasNext()
+            {
+                return it.hasNext();
+            }
+
+            @Override
+            public EventTarget next()
+            {
+                return current = it.next();
+            }
+
+            @Override
+            public void remove()
+            {
+                if (current == null) throw new IllegalStateException();
+                SubscriptionIndex.this.remove(current);
+                current = null;
+            }
+        };
+    }
+
+    public int size()
+    {
+        return subscribers.size();
+    }
+
+    public boolean isEmpty()
+    {
+        return subscribers.isEmpty();
+    }
+
+    public void clear()
+    {
+        selectors.clear();
+        subscribers.clear();
+        byName.clear();
+        byPrefix.clear();
+    }
+}
@@ -0,0 +1,345 @@
+package info.macias.sse;
+
+import info.macias.sse.events.MessageEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Event target decorator giving each subscriber its own writer thread.</p>
+ *
+ * <p>Sending an event only enqueues it in the subscriber {@link OutboundQueue}; the writer thread takes events
+ * from the queue and does the (blocking) write on the wrapped target. With JDK 21+ virtual threads (see
+ * {@link VirtualThreads}), this gives the isolation of a thread per connection without the cost of platform
+ * threads, and is a simpler alternative to callback-based non-blocking I/O for containers whose blocking
+ * I/O is virtual-thread friendly.</p>
+ *
+ * <p>Optionally, the writer can coalesce several events into a single frame, written and flushed at once (see
+ * {@link #setBatching(long, TimeUnit, int)}), which saves system calls and TCP segments during bursts.</p>
+ *
+ * <p>A write failure on the wrapped target closes it, and is reported by the next call to
+ * {@link #send(MessageEvent)}, so that the broadcaster evicts the subscriber.</p>
+ */
+public class ThreadedEventTarget implements EventTarget
+{
+    protected static Logger logger = LoggerFactory.getLogger("sse");
+
+    /* queue sentinels */
+    private static final MessageEvent KEEP_ALIVE = MessageEvent.fromFrame(":\n\n".getBytes(StandardCharsets.UTF_8));
+    private static final MessageEvent CLOSE = MessageEvent.fromFrame(new byte[0]);
+
+    private final EventTarget target;
+    private final OutboundQueue queue;
+    private final ThreadFactory threadFactory;
+    private Thread writer = null;
+    private volatile IOException writeError = null;
+    /* whether the queue has been terminated because it overflowed */
+    private boolean overflowed = false;
+
+    /* batching, disabled by default */
+    private volatile boolean batching = false;
+    private volatile long lingerNanos = 0;
+    private volatile int maxBatchBytes = 0;
+
+    /**
+     * Wraps an event target, with an unbounded queue, using virtual threads when available and platform threads otherwise
+     * @param target wrapped event target
+     */
+    public ThreadedEventTarget(EventTarget target)
+    {
+        this(target, new OutboundQueue());
+    }
+
+    /**
+     * Wraps an event target, using virtual threads when available and platform threads otherwise
+     * @param target wrapped event target
+     * @param queue outbound queue
+     */
+    public ThreadedEventTarget(EventTarget target, OutboundQueue queue)
+    {
+        this(target, queue, VirtualThreads.factoryOrPlatform());
+    }
+
+    /**
+     * Wraps an event target
+     * @param target wrapped event target
+     * @param queue outbound queue
+     * @param threadFactory factory for the writer thread, typically {@link VirtualThreads#factory()}
+     */
+    public ThreadedEventTarget(EventTarget target, OutboundQueue queue, ThreadFactory threadFactory)
+    {
+        this.target = target;
+        this.queue = queue;
+        this.threadFactory = threadFactory;
+    }
+
+    public EventTarget getTarget()
+    {
+        return target;
+    }
+
+    /**
+     * <p>Enables micro-batching: pending events are concatenated in a single frame, written and flushed once.</p>
+     * <p>The writer waits for more events up to the linger time, unless the batch reaches the byte threshold.
+     * Lingering is adaptive: a target which has been idle for longer than the linger time gets its first event
+     * immediately, so that isolated events are not delayed.</p>
+     * <p>Batches are sent with {@link EventTarget#sendFrame(byte[])}, which the wrapped target should override.</p>
+     * @param linger maximum time to wait for more events, typically 0 to 20 ms
+     * @param unit time unit of the linger argument
+     * @param maxBatchBytes byte threshold triggering the write of a batch
+     * @return The same {@link ThreadedEventTarget} object that received the method call
+     */
+    public ThreadedEventTarget setBatching(long linger, TimeUnit unit, int maxBatchBytes)
+    {
+        this.lingerNanos = unit.toNanos(linger);
+        this.maxBatchBytes = maxBatchBytes;
+        this.batching = true;
+        return this;
+    }
+
+    @Override
+    public ThreadedEventTarget ok()
+    {
+        target.ok();
+        return this;
+    }
+
+    /**
+     * Opens the wrapped target on the caller thread, then starts the writer thread.
+     * @return The same {@link EventTarget} object that received the method call
+     * @throws IOException if the wrapped target could not be opened
+     */
+    @Override
+    public synchronized ThreadedEventTarget open() throws IOException
+    {
+        target.open();
+        if (writer == null)
+        {
+            writer = threadFactory.newThread(this::run);
+            writer.start();
+        }
+        return this;
+    }
+
+    @Override
+    public ThreadedEventTarget send(String event, String data) throws IOException
+    {
+        return enqueue(new MessageEvent.Builder().setEvent(event).setData(data).build());
+    }
+
+    @Override
+    public ThreadedEventTarget send(MessageEvent messageEvent) throws IOException
+    {
+        return enqueue(messageEvent);
+    }
+
+    @Override
+    public ThreadedEventTarget sendFrame(byte[] frame) throws IOException
+    {
+        return enqueue(MessageEvent.fromFrame(frame));
+    }
+
+    @Override
+    public void keepAlive() throws IOException
+    {
+        enqueue(KEEP_ALIVE);
+    }
+
+    private ThreadedEventTarget enqueue(MessageEvent messageEvent) throws IOException
+    {
+        if (writeError != null) throw writeError;
+        try
+        {
+            queue.offer(messageEvent);
+        }
+        catch (SlowConsumerException sce)
+        {
+            // the writer sets the error before terminating the queue
+            if (writeError != null) throw writeError;
+            synchronized (this)
+            {
+                if (!queue.isTerminated())
+                {
+                    logger.debug("#{} slow consumer: {}", getID(), sce.getMessage());
+                    // let the writer send a reconnection hint, then close the connection
+                    overflowed = true;
+                    queue.terminate(new MessageEvent.Builder().setRetry(queue.getRetryHint()).build(), CLOSE);
+                }
+                else if (!overflowed) throw new IOException("event target #" + getID() + " is closed");
+            }
+            throw sce;
+        }
+        return this;
+    }
+
+    private void run()
+    {
+        try
+        {
+            BatchBuffer batch = new BatchBuffer();
+            long lastWrite = System.nanoTime() - lingerNanos - 1;
+            boolean closing = false;
+            while (!closing)
+            {
+                MessageEvent messageEvent = queue.take();
+                if (messageEvent == CLOSE) break;
+                else if (batching)
+                {
+                    long now = System.nanoTime();
+                    long linger = now - lastWrite > lingerNanos ? 0 : lingerNanos;
+                    long deadline = now + linger;
+                    batch.add(messageEvent);
+                    while (batch.size() < maxBatchBytes)
+                    {
+                        // when idle, only take what is already there
+                        long remaining = deadline - System.nanoTime();
+                        MessageEvent next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                        if (next == null) break;
+                        if (next == CLOSE)
+                        {
+                            closing = true;
+                            break;
+                        }
+                        batch.add(next);
+                    }
+                    target.sendFrame(batch.drain());
+                    lastWrite = System.nanoTime();
+                }
+                else if (messageEvent == KEEP_ALIVE) target.keepAlive();
+                else if (messageEvent.isFrame()) target.sendFrame(messageEvent.getBytes());
+                else target.send(messageEvent);
+            }
+        }
+        catch (IOException | IllegalStateException | UnsupportedOperationException e)
+        {
+            writeError = e instanceof IOException ? (IOException)e : new IOException(e);
+            queue.terminate();
+        }
+        catch (InterruptedException ie)
+        {
+            writeError = new IOException("writer thread interrupted");
+            queue.terminate();
+        }
+        catch (RuntimeException | Error e)
+        {
+            // the target is evicted by the next event, instead of piling events up for a dead writer
+            logger.error("#" + getID() + " writer thread failure", e);
+            writeError = new IOException(e);
+            queue.terminate();
+            if (e instanceof Error) throw e;
+        }
+        finally
+        {
+            target.close();
+        }
+    }
+
+    /**
+     * Frames accumulator, which avoids copying a lone frame
+     */
+    private static class BatchBuffer extends ByteArrayOutputStream
+    {
+        private byte[] single = null;
+
+        void add(MessageEvent messageEvent)
+        {
+            byte[] frame = messageEvent.getBytes();
+            if (single == null && count == 0) single = frame;
+            else
+            {
+                if (single != null)
+                {
+                    write(single, 0, single.length);
+                    single = null;
+                }
+                write(frame, 0, frame.length);
+            }
+        }
+
+        @Override
+        public synchronized int size()
+        {
+            return single == null ? count : single.length;
+        }
+
+        byte[] drain()
+        {
+            byte[] frames = single == null ? toByteArray() : single;
+            single = null;
+            reset();
+            return frames;
+        }
+    }
+
+    /**
+     * Discards pending events and closes the wrapped target from the writer thread
+     */
+    @Override
+    public synchronized void close()
+    {
+        if (writer == null) target.close();
+        else if (!queue.isTerminated()) queue.terminate(CLOSE);
+    }
+
+    @Override
+    public String getID()
+    {
+        return target.getID();
+    }
+
+    @Override
+    public int getQueueDepth()
+    {
+        return queue.size();
+    }
+
+    @Override
+    public int getQueueCapacity()
+    {
+        return queue.getCapacity();
+    }
+
+    @Override
+    public int getLag()
+    {
+        return queue.getLag();
+    }
+
+    @Override
+    public long getPendingBytes()
+    {
+        return queue.getPendingBytes();
+    }
+
+    @Override
+    public long getWriteLatency()
+    {
+        return queue.getStallTime();
+    }
+
+    /**
+     * Drops pending events, and lets the writer send the reconnection hint before closing the wrapped target
+     * @param retryHint reconnection delay, in milliseconds
+     */
+    @Override
+    public synchronized void disconnect(int retryHint)
+    {
+        if (writer == null) EventTarget.super.disconnect(retryHint);
+        else if (!queue.isTerminated()) queue.terminate(new MessageEvent.Builder().setRetry(retryHint).build(), CLOSE);
+    }
+
+    /**
+     * A subscriber with pending events is considered active
+     * @return time of the last write to the wrapped target, or the current time if events are pending
+     */
+    @Override
+    public long getLastWriteTime()
+    {
+        return queue.isEmpty() ? target.getLastWriteTime() : System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,212 @@
+package info.macias.sse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * <p>Registry of named broadcasters (per room, per user, per entity...), lazily created on first access.</p>
+ *
+ * <p>A topic which has had no subscriber, no new event in its history and no lookup for longer than the idle
+ * timeout is closed and removed by a background sweep. Callers should therefore look topics up with
+ * {@link #get(String)} when they need them rather than keep references to them.</p>
+ *
+ * @param <B> broadcaster class
+ */
+public class TopicRegistry<B extends EventBroadcast> implements AutoCloseable
+{
+    protected static Logger logger = LoggerFactory.getLogger("sse");
+
+    public static final long DEFAULT_IDLE_TIMEOUT = 5;
+    public static final TimeUnit DEFAULT_IDLE_TIMEOUT_UNIT = TimeUnit.MINUTES;
+
+    private static final AtomicInteger registryCount = new AtomicInteger();
+
+    /**
+     * Registry entry, tracking the last activity of a topic
+     */
+    private static class Topic<B extends EventBroadcast>
+    {
+        final B broadcast;
+        volatile long lastAccess;
+        long lastHead;
+
+        Topic(B broadcast, long now)
+        {
+            this.broadcast = broadcast;
+            lastAccess = now;
+        }
+
+        /* whether the topic has been idle since the given time, also marking new history events as activity */
+        boolean isIdleSince(long since, long now)
+        {
+            long head = broadcast.history.getHeadSequence();
+            if (head != lastHead)
+            {
+                lastHead = head;
+                lastAccess = now;
+            }
+            return broadcast.size() == 0 && lastAccess < since;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Topic<B>> topics = new ConcurrentHashMap<>();
+    private final Function<String, B> factory;
+    private final long idleTimeoutMillis;
+    private final ScheduledExecutorService sweeper;
+
+    /**
+     * Builds a registry, removing topics idle for more than {@link #DEFAULT_IDLE_TIMEOUT} minutes
+     * @param factory broadcaster factory, given the topic name
+     */
+    public TopicRegistry(Function<String, B> factory)
+    {
+        this(factory, DEFAULT_IDLE_TIMEOUT, DEFAULT_IDLE_TIMEOUT_UNIT);
+    }
+
+    /**
+     * Builds a registry
+     * @param factory broadcaster factory, given the topic name
+     * @param idleTimeout time after which topics without subscribers nor activity are removed, zero to only
+     * remove them on explicit calls to {@link #sweep()}
+     * @param unit time unit of the idleTimeout argument
+     */
+    public TopicRegistry(Function<String, B> factory, long idleTimeout, TimeUnit unit)
+    {
+        this.factory = factory;
+        idleTimeoutMillis = unit.toMillis(idleTimeout);
+        if (idleTimeoutMillis > 0)
+        {
+            String name = "sse-topics-" + registryCount.incrementAndGet();
+            sweeper = Executors.newSingleThreadScheduledExecutor(runnable ->
+            {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+            long period = Math.max(1, idleTimeoutMillis / 2);
+            sweeper.scheduleWithFixedDelay(this::sweep, period, period, TimeUnit.MILLISECONDS);
+        }
+        else
+        {
+            sweeper = null;
+        }
+    }
+
+    /**
+     * Returns a topic, creating it if needed
+     * @param name topic name
+     * @return topic broadcaster
+     */
+    public B get(String name)
+    {
+        // atomic with respect to the sweep, which could otherwise remove the topic being handed out
+        Topic<B> topic = topics.compute(name, (key, existing) ->
+        {
+            long now = System.currentTimeMillis();
+            if (existing == null) return new Topic<>(factory.apply(key), now);
+            existing.lastAccess = now;
+            return existing;
+        });
+        return topic.broadcast;
+    }
+
+    /**
+     * Returns an existing topic
+     * @param name topic name
+     * @return topic broadcaster, or null if not found
+     */
+    public B find(String name)
+    {
+        Topic<B> topic = topics.get(name);
+        return topic == null ? null : topic.broadcast;
+    }
+
+    public boolean contains(String name)
+    {
+        return topics.containsKey(name);
+    }
+
+    /**
+     * Closes and removes a topic
+     * @param name topic name
+     * @return whether the topic existed
+     */
+    public boolean remove(String name)
+    {
+        Topic<B> topic = topics.remove(name);
+        if (topic == null) return false;
+        topic.broadcast.close();
+        return true;
+    }
+
+    /**
+     * Number of registered topics
+     * @return topics count
+     */
+    public int size()
+    {
+        return topics.size();
+    }
+
+    /**
+     * Names of registered topics
+     * @return unmodifiable view of topic names
+     */
+    public Set<String> getTopicNames()
+    {
+        return Collections.unmodifiableSet(topics.keySet());
+    }
+
+    /**
+     * Closes and removes idle topics. Called periodically when an idle timeout is set.
+     * @return number of removed topics
+     */
+    public int sweep()
+    {
+        long now = System.currentTimeMillis();
+        long since = now - idleTimeoutMillis;
+        int removed = 0;
+        try
+        {
+            for (String name : topics.keySet())
+            {
+                boolean[] idle = { false };
+                // atomic with respect to concurrent lookups of the same topic
+                topics.computeIfPresent(name, (key, topic) ->
+                {
+                    idle[0] = topic.isIdleSince(since, now);
+                    if (idle[0]) topic.broadcast.close();
+                    return idle[0] ? null : topic;
+                });
+                if (idle[0]) ++removed;
+            }
+        }
+        catch (RuntimeException e)
+        {
+            // never let an exception cancel the periodic task
+            logger.error("topics sweep error", e);
+        }
+        if (removed > 0) logger.debug("removed {} idle topics", removed);
+        return removed;
+    }
+
+    /**
+     * Stops the background sweep, and closes all topics
+     */
+    @Override
+    public void close()
+    {
+        if (sweeper != null) sweeper.shutdownNow();
+        for (Topic<B> topic : topics.values()) topic.broadcast.close();
+        topics.clear();
+    }
+}
@@ -0,0 +1,68 @@
+package info.macias.sse;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Access to JDK 21+ virtual threads, looked up by reflection so that the library still runs on Java 8.
+ */
+public final class VirtualThreads
+{
+    private static final ThreadFactory virtualThreadFactory = lookup();
+
+    private VirtualThreads() {}
+
+    private static ThreadFactory lookup()
+    {
+        try
+        {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = ofVirtual.invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "sse-writer-", 0L);
+            return (ThreadFactory)builderClass.getMethod("factory").invoke(builder);
+        }
+        catch (ReflectiveOperationException | RuntimeException e)
+        {
+            // pre-JDK 21, or preview feature not enabled
+            return null;
+        }
+    }
+
+    /**
+     * Whether virtual threads are available in the running JVM
+     * @return true for JDK 21+
+     */
+    public static boolean isAvailable()
+    {
+        return virtualThreadFactory != null;
+    }
+
+    /**
+     * Returns a factory of virtual threads
+     * @return virtual threads factory
+     * @throws UnsupportedOperationException if virtual threads are not available
+     */
+    public static ThreadFactory factory()
+    {
+        if (virtualThreadFactory == null) throw new UnsupportedOperationException("virtual threads require JDK 21+");
+        return virtualThreadFactory;
+    }
+
+    /**
+     * Returns a factory of virtual threads if available, of platform daemon threads otherwise
+     * @return threads factory
+     */
+    public static ThreadFactory factoryOrPlatform()
+    {
+        if (virtualThreadFactory != null) return virtualThreadFactory;
+        AtomicInteger threadCount = new AtomicInteger();
+        return runnable ->
+        {
+            Thread thread = new Thread(runnable, "sse-writer-" + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
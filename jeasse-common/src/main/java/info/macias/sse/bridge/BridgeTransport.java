@@ -0,0 +1,35 @@
+package info.macias.sse.bridge;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * <p>Transport of {@link EventBridge} packets between the nodes of a cluster.</p>
+ *
+ * <p>Implementations deliver each sent packet, as a whole, to the receivers of all the other nodes. Delivery may
+ * be best effort: the bridge ignores duplicate events, but does not retransmit lost ones.</p>
+ */
+public interface BridgeTransport extends Closeable
+{
+    /**
+     * Starts the transport
+     * @param receiver callback for the packets received from other nodes, which may be called concurrently
+     * @throws IOException if the transport cannot be started
+     */
+    void open(Consumer<byte[]> receiver) throws IOException;
+
+    /**
+     * Sends a packet to all the other nodes
+     * @param packet packet
+     * @throws IOException if the packet could not be sent to some node
+     */
+    void send(byte[] packet) throws IOException;
+
+    /**
+     * Stops the transport
+     * @throws IOException on error
+     */
+    @Override
+    void close() throws IOException;
+}
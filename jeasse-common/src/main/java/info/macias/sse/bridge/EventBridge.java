@@ -0,0 +1,485 @@
+package info.macias.sse.bridge;
+
+import info.macias.sse.EventBroadcast;
+import info.macias.sse.events.MessageEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Bridge between the broadcasters of several nodes, so that an event published on one node reaches the
+ * subscribers connected to all of them.</p>
+ *
+ * <p>Broadcasters are attached to the bridge under a channel name, the same on every node. The events they
+ * publish are forwarded in their encoded form, batched into packets sent through a {@link BridgeTransport};
+ * received events are broadcasted to the local subscribers of the channel, and appended to its history, but
+ * not forwarded again.</p>
+ *
+ * <p>Events are deduplicated by id. For the histories of all nodes to hold the same events under the same ids,
+ * events ids should be generated with {@link EventBroadcast#nextEventId()}, after having given each node its
+ * index with {@link Builder#setNode(int, int)}: nodes then generate distinct ids.</p>
+ *
+ * <p>Packets are sent by a single flusher thread, in order, so the events published on a node reach every other
+ * node in their publication order, provided the transport preserves the order of the packets sent to a node, as
+ * {@link TcpLoopbackTransport} does. There is no total order across nodes though: events published concurrently
+ * on different nodes may be interleaved differently in the history of each node. A client resuming on another
+ * node than the one it was connected to therefore gets exactly the events it missed only if the channel is
+ * published from a single node; otherwise it may miss or get again the events published concurrently on other
+ * nodes, within the forwarding delay. Load balancers should keep clients on the same node when they can.</p>
+ *
+ * <p>While the transport is stalled, forwarded events wait in the pending batch, up to a given size (see
+ * {@link Builder#setMaxPendingBytes(long)}): beyond it, they are dropped, with a warning, and counted as dropped
+ * events by the metrics of their broadcaster.</p>
+ *
+ * <p>Bridges are built using {@link EventBridge.Builder}.</p>
+ */
+public class EventBridge implements AutoCloseable
+{
+    protected static Logger logger = LoggerFactory.getLogger("sse");
+
+    public static final int DEFAULT_BATCH_SIZE = 64;
+    public static final long DEFAULT_LINGER_MILLIS = 5;
+    public static final int DEFAULT_DEDUP_CAPACITY = 1024;
+    public static final long DEFAULT_MAX_PENDING_BYTES = 16 * 1024 * 1024;
+
+    private static final int MAGIC = 0x53534542; // "SSEB"
+    private static final byte VERSION = 1;
+    private static final byte VOLATILE = 1;
+    private static final byte FRAME = 2;
+    private static final byte CONFLATION_KEY = 4;
+
+    private static final AtomicInteger bridgeCount = new AtomicInteger();
+
+    /* set while broadcasting received events, so that they are not forwarded back */
+    private static final ThreadLocal<Boolean> receiving = new ThreadLocal<>();
+
+    /**
+     * Attached broadcaster, with the ids of the events recently seen on its channel
+     */
+    private static class Channel
+    {
+        final EventBroadcast broadcast;
+        final Map<String, Boolean> seen;
+
+        Channel(EventBroadcast broadcast, int dedupCapacity)
+        {
+            this.broadcast = broadcast;
+            seen = new LinkedHashMap<String, Boolean>(16, 0.75f, true)
+            {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest)
+                {
+                    return size() > dedupCapacity;
+                }
+            };
+        }
+
+        /* returns whether the id was new */
+        boolean markSeen(String id)
+        {
+            synchronized (seen)
+            {
+                return seen.put(id, Boolean.TRUE) == null;
+            }
+        }
+    }
+
+    private final BridgeTransport transport;
+    private final long nodeId = new Random().nextLong();
+    private final int nodeIndex;
+    private final int nodeCount;
+    private final int batchSize;
+    private final int dedupCapacity;
+    private final long maxPendingBytes;
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private final Map<String, Channel> channels = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    /* held while sending, so that packets are sent in the order of their batches */
+    private final Object sendLock = new Object();
+    private final Object batchLock = new Object();
+    private ByteArrayOutputStream batch = new ByteArrayOutputStream();
+    private int batchCount = 0;
+    /* whether events are being dropped, so that it is only logged once per stall */
+    private boolean overflowing = false;
+
+    private EventBridge(BridgeTransport transport, int nodeIndex, int nodeCount, int batchSize, long lingerMillis, int dedupCapacity,
+                        long maxPendingBytes) throws IOException
+    {
+        this.transport = transport;
+        this.nodeIndex = nodeIndex;
+        this.nodeCount = nodeCount;
+        this.batchSize = batchSize;
+        this.dedupCapacity = dedupCapacity;
+        this.maxPendingBytes = maxPendingBytes;
+        // opened first, so that no flusher thread is left behind if it fails
+        transport.open(this::receive);
+        String name = "sse-bridge-flusher-" + bridgeCount.incrementAndGet();
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable ->
+        {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, lingerMillis, lingerMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Attaches a broadcaster: its events will be forwarded to the same channel on other nodes, and the
+     * events received on this channel will be broadcasted to its subscribers.
+     * @param channel channel name, identifying the broadcaster on all nodes
+     * @param broadcast broadcaster
+     */
+    public void attach(String channel, EventBroadcast broadcast)
+    {
+        if (channel == null || broadcast == null) throw new IllegalArgumentException("null channel or broadcaster");
+        if (channels.putIfAbsent(channel, new Channel(broadcast, dedupCapacity)) != null)
+        {
+            throw new IllegalStateException("channel already attached: " + channel);
+        }
+        if (nodeCount > 1) broadcast.setEventIdStride(nodeCount, nodeIndex);
+        broadcast.setBridge(this, channel);
+    }
+
+    /**
+     * Detaches a broadcaster
+     * @param channel channel name
+     * @return whether the channel was attached
+     */
+    public boolean detach(String channel)
+    {
+        Channel removed = channels.remove(channel);
+        if (removed == null) return false;
+        removed.broadcast.setBridge(null, null);
+        return true;
+    }
+
+    public int getNodeIndex()
+    {
+        return nodeIndex;
+    }
+
+    public int getNodeCount()
+    {
+        return nodeCount;
+    }
+
+    /**
+     * Called by attached broadcasters for each published event
+     * @param channel channel name
+     * @param messageEvent published event
+     */
+    public void forward(String channel, MessageEvent messageEvent)
+    {
+        if (receiving.get() != null) return;
+        Channel attached = channels.get(channel);
+        if (attached == null) return;
+        String id = messageEvent.getId();
+        if (id != null && !attached.markSeen(id)) return;
+        byte flags = 0;
+        if (messageEvent.isVolatile()) flags |= VOLATILE;
+        if (messageEvent.isFrame()) flags |= FRAME;
+        String conflationKey = messageEvent.getConflationKey();
+        if (conflationKey != null) flags |= CONFLATION_KEY;
+        byte[] bytes = messageEvent.getBytes();
+        // encoded apart, so that an event which cannot be encoded leaves the batch untouched
+        ByteArrayOutputStream entry = new ByteArrayOutputStream(channel.length() + bytes.length + 16);
+        try
+        {
+            DataOutputStream output = new DataOutputStream(entry);
+            output.writeUTF(channel);
+            output.writeByte(flags);
+            if (conflationKey != null) output.writeUTF(conflationKey);
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        }
+        catch (IOException ioe)
+        {
+            // cannot happen with an in-memory buffer, save for too long names
+            logger.warn("bridge: could not encode event {}: {}", id, ioe.getMessage());
+            dropped(attached);
+            return;
+        }
+        boolean full = false;
+        boolean overflow = false;
+        synchronized (batchLock)
+        {
+            if (batch.size() + entry.size() > maxPendingBytes)
+            {
+                if (!overflowing) logger.warn("bridge: {} bytes pending, dropping events until the transport catches up", batch.size());
+                overflowing = overflow = true;
+            }
+            else
+            {
+                byte[] encoded = entry.toByteArray();
+                batch.write(encoded, 0, encoded.length);
+                full = ++batchCount >= batchSize;
+            }
+        }
+        if (overflow) dropped(attached);
+        // the publisher never sends itself: the transport may block on a dead or slow peer
+        if (full && flushScheduled.compareAndSet(false, true))
+        {
+            try
+            {
+                flusher.execute(this::flush);
+            }
+            catch (RejectedExecutionException ree)
+            {
+                // closing, the pending batch is sent by close()
+                flushScheduled.set(false);
+            }
+        }
+    }
+
+    private void dropped(Channel attached)
+    {
+        droppedEvents.incrementAndGet();
+        attached.broadcast.getMetrics().eventDropped();
+    }
+
+    /**
+     * Number of events which could not be forwarded, because the pending batch was full or the event could not
+     * be encoded
+     * @return dropped events count
+     */
+    public long getDroppedEvents()
+    {
+        return droppedEvents.get();
+    }
+
+    /**
+     * Sends the pending batch, if any. Called periodically, and whenever the batch is full, by the flusher thread.
+     */
+    public void flush()
+    {
+        synchronized (sendLock)
+        {
+            flushScheduled.set(false);
+            byte[] entries;
+            int count;
+            synchronized (batchLock)
+            {
+                if (batchCount == 0) return;
+                entries = batch.toByteArray();
+                count = batchCount;
+                batch = new ByteArrayOutputStream(Math.max(32, Math.min(entries.length, 64 * 1024)));
+                batchCount = 0;
+                overflowing = false;
+            }
+            send(entries, count);
+        }
+    }
+
+    private void send(byte[] entries, int count)
+    {
+        try
+        {
+            ByteArrayOutputStream packet = new ByteArrayOutputStream(entries.length + 17);
+            DataOutputStream output = new DataOutputStream(packet);
+            output.writeInt(MAGIC);
+            output.writeByte(VERSION);
+            output.writeLong(nodeId);
+            output.writeInt(count);
+            output.write(entries);
+            transport.send(packet.toByteArray());
+        }
+        catch (IOException ioe)
+        {
+            logger.warn("bridge: could not forward {} events: {}", count, ioe.getMessage());
+        }
+        catch (RuntimeException e)
+        {
+            // never let an exception cancel the periodic task
+            logger.error("bridge: could not forward {} events", count, e);
+        }
+    }
+
+    /**
+     * Handles a packet received from another node
+     * @param packet packet
+     */
+    protected void receive(byte[] packet)
+    {
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(packet)))
+        {
+            if (input.readInt() != MAGIC || input.readByte() != VERSION)
+            {
+                logger.warn("bridge: ignoring invalid packet");
+                return;
+            }
+            if (input.readLong() == nodeId) return;
+            int count = input.readInt();
+            for (int i = 0; i < count; ++i)
+            {
+                String channel = input.readUTF();
+                byte flags = input.readByte();
+                String conflationKey = (flags & CONFLATION_KEY) != 0 ? input.readUTF() : null;
+                byte[] bytes = new byte[input.readInt()];
+                input.readFully(bytes);
+                Channel attached = channels.get(channel);
+                if (attached == null) continue;
+                MessageEvent messageEvent = decode(bytes, flags, conflationKey);
+                if (messageEvent == null) continue;
+                String id = messageEvent.getId();
+                if (id != null && !attached.markSeen(id)) continue;
+                receiving.set(Boolean.TRUE);
+                try
+                {
+                    attached.broadcast.broadcast(messageEvent);
+                }
+                finally
+                {
+                    receiving.remove();
+                }
+            }
+        }
+        catch (IOException ioe)
+        {
+            logger.warn("bridge: ignoring truncated packet");
+        }
+    }
+
+    private static MessageEvent decode(byte[] bytes, byte flags, String conflationKey)
+    {
+        if ((flags & FRAME) != 0) return MessageEvent.fromFrame(bytes);
+        List<MessageEvent> parsed = MessageEvent.parse(bytes);
+        if (parsed.size() != 1) return null;
+        MessageEvent parsedEvent = parsed.get(0);
+        if ((flags & VOLATILE) == 0 && conflationKey == null) return parsedEvent;
+        MessageEvent.Builder builder = new MessageEvent.Builder()
+            .setData(parsedEvent.getData())
+            .setEvent(parsedEvent.getEvent())
+            .setId(parsedEvent.getId());
+        if (parsedEvent.getRetry() != null) builder.setRetry(parsedEvent.getRetry());
+        if ((flags & VOLATILE) != 0) builder.setVolatile();
+        if (conflationKey != null) builder.setConflationKey(conflationKey);
+        return builder.build();
+    }
+
+    /**
+     * Sends pending events, detaches all broadcasters and closes the transport
+     */
+    @Override
+    public void close()
+    {
+        flusher.shutdownNow();
+        flush();
+        for (String channel : channels.keySet()) detach(channel);
+        try
+        {
+            transport.close();
+        }
+        catch (IOException ioe)
+        {
+            logger.warn("bridge: could not close transport", ioe);
+        }
+    }
+
+    public static class Builder
+    {
+        private BridgeTransport transport = null;
+        private int nodeIndex = 0;
+        private int nodeCount = 1;
+        private int batchSize = DEFAULT_BATCH_SIZE;
+        private long lingerMillis = DEFAULT_LINGER_MILLIS;
+        private int dedupCapacity = DEFAULT_DEDUP_CAPACITY;
+        private long maxPendingBytes = DEFAULT_MAX_PENDING_BYTES;
+
+        /**
+         * @param transport transport to other nodes
+         * @return this builder
+         */
+        public Builder setTransport(BridgeTransport transport)
+        {
+            this.transport = transport;
+            return this;
+        }
+
+        /**
+         * Sets the position of this node in the cluster, used to generate distinct event ids on each node
+         * @param index node index, from zero to count - 1
+         * @param count number of nodes
+         * @return this builder
+         */
+        public Builder setNode(int index, int count)
+        {
+            if (count <= 0 || index < 0 || index >= count) throw new IllegalArgumentException("invalid node index");
+            nodeIndex = index;
+            nodeCount = count;
+            return this;
+        }
+
+        /**
+         * @param batchSize number of events after which a batch is sent without waiting for the linger time
+         * @return this builder
+         */
+        public Builder setBatchSize(int batchSize)
+        {
+            if (batchSize <= 0) throw new IllegalArgumentException("invalid batch size");
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * @param linger maximum time a forwarded event waits for its batch to fill up
+         * @param unit time unit of the linger argument
+         * @return this builder
+         */
+        public Builder setLinger(long linger, TimeUnit unit)
+        {
+            lingerMillis = Math.max(1, unit.toMillis(linger));
+            return this;
+        }
+
+        /**
+         * @param dedupCapacity number of recent event ids remembered per channel to detect duplicates
+         * @return this builder
+         */
+        public Builder setDedupCapacity(int dedupCapacity)
+        {
+            this.dedupCapacity = dedupCapacity;
+            return this;
+        }
+
+        /**
+         * @param maxPendingBytes maximum size of the pending batch, beyond which forwarded events are dropped
+         * @return this builder
+         */
+        public Builder setMaxPendingBytes(long maxPendingBytes)
+        {
+            if (maxPendingBytes <= 0) throw new IllegalArgumentException("invalid maximum pending bytes");
+            this.maxPendingBytes = maxPendingBytes;
+            return this;
+        }
+
+        /**
+         * Builds the bridge and opens its transport
+         * @return new bridge
+         * @throws IOException if the transport cannot be opened
+         */
+        public EventBridge build() throws IOException
+        {
+            if (transport == null) throw new IllegalStateException("no transport");
+            return new EventBridge(transport, nodeIndex, nodeCount, batchSize, lingerMillis, dedupCapacity, maxPendingBytes);
+        }
+    }
+}
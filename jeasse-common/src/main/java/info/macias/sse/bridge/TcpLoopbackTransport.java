@@ -0,0 +1,245 @@
+package info.macias.sse.bridge;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * <p>Reference {@link BridgeTransport}, exchanging length-prefixed packets over TCP connections between all the
+ * nodes (full mesh). Each node listens on the loopback interface, which makes it suitable to run several nodes
+ * in the same host or the same JVM, for instance in tests.</p>
+ *
+ * <p>Connections to peers are opened on the first packet sent to them, and reopened after a failure; packets sent
+ * to an unreachable peer are dropped.</p>
+ */
+public class TcpLoopbackTransport implements BridgeTransport
+{
+    protected static Logger logger = LoggerFactory.getLogger("sse");
+
+    public static final int MAX_PACKET_SIZE = 16 * 1024 * 1024;
+    private static final int CONNECT_TIMEOUT = 2000;
+
+    private static final AtomicInteger transportCount = new AtomicInteger();
+
+    /**
+     * Outgoing connection to a peer
+     */
+    private static class Peer
+    {
+        final InetSocketAddress address;
+        Socket socket = null;
+        DataOutputStream output = null;
+
+        Peer(InetSocketAddress address)
+        {
+            this.address = address;
+        }
+
+        synchronized void send(byte[] packet) throws IOException
+        {
+            try
+            {
+                if (output == null)
+                {
+                    socket = new Socket();
+                    socket.setTcpNoDelay(true);
+                    socket.connect(address, CONNECT_TIMEOUT);
+                    output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                }
+                output.writeInt(packet.length);
+                output.write(packet);
+                output.flush();
+            }
+            catch (IOException ioe)
+            {
+                close();
+                throw ioe;
+            }
+        }
+
+        synchronized void close()
+        {
+            try
+            {
+                if (socket != null) socket.close();
+            }
+            catch (IOException ioe) {}
+            socket = null;
+            output = null;
+        }
+    }
+
+    private final int port;
+    private final List<Peer> peers = new CopyOnWriteArrayList<>();
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private final String name = "sse-bridge-" + transportCount.incrementAndGet();
+    private ServerSocket serverSocket = null;
+    private volatile boolean closed = false;
+
+    /**
+     * Builds a transport listening on an ephemeral port, see {@link #getPort()}
+     */
+    public TcpLoopbackTransport()
+    {
+        this(0);
+    }
+
+    /**
+     * Builds a transport
+     * @param port listening port on the loopback interface, zero for an ephemeral port
+     */
+    public TcpLoopbackTransport(int port)
+    {
+        this.port = port;
+    }
+
+    /**
+     * Adds a peer node on the loopback interface
+     * @param port peer listening port
+     * @return this transport
+     */
+    public TcpLoopbackTransport addPeer(int port)
+    {
+        return addPeer(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    /**
+     * Adds a peer node
+     * @param address peer listening address
+     * @return this transport
+     */
+    public TcpLoopbackTransport addPeer(InetSocketAddress address)
+    {
+        peers.add(new Peer(address));
+        return this;
+    }
+
+    /**
+     * Listening port, only known once the transport is opened when an ephemeral port was asked for
+     * @return listening port
+     */
+    public synchronized int getPort()
+    {
+        return serverSocket == null ? port : serverSocket.getLocalPort();
+    }
+
+    @Override
+    public synchronized void open(Consumer<byte[]> receiver) throws IOException
+    {
+        if (serverSocket != null) throw new IllegalStateException("transport already open");
+        serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        ServerSocket server = serverSocket;
+        startThread(name + "-accept", () ->
+        {
+            while (!closed)
+            {
+                try
+                {
+                    Socket socket = server.accept();
+                    connections.add(socket);
+                    startThread(name + "-" + socket.getPort(), () -> read(socket, receiver));
+                }
+                catch (IOException ioe)
+                {
+                    if (!closed) logger.error("bridge transport: accept failed", ioe);
+                    break;
+                }
+            }
+        });
+    }
+
+    private void read(Socket socket, Consumer<byte[]> receiver)
+    {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream())))
+        {
+            while (!closed)
+            {
+                int length = input.readInt();
+                if (length < 0 || length > MAX_PACKET_SIZE) throw new IOException("invalid packet length: " + length);
+                byte[] packet = new byte[length];
+                input.readFully(packet);
+                try
+                {
+                    receiver.accept(packet);
+                }
+                catch (RuntimeException e)
+                {
+                    logger.error("bridge transport: could not handle packet", e);
+                }
+            }
+        }
+        catch (EOFException | SocketException e)
+        {
+            // peer or transport closed
+        }
+        catch (IOException ioe)
+        {
+            logger.warn("bridge transport: connection from {} dropped: {}", socket.getRemoteSocketAddress(), ioe.getMessage());
+        }
+        finally
+        {
+            connections.remove(socket);
+        }
+    }
+
+    @Override
+    public void send(byte[] packet) throws IOException
+    {
+        if (closed) throw new IOException("transport closed");
+        IOException error = null;
+        for (Peer peer : peers)
+        {
+            try
+            {
+                peer.send(packet);
+            }
+            catch (IOException ioe)
+            {
+                if (error == null) error = new IOException("could not reach " + peer.address, ioe);
+                else error.addSuppressed(ioe);
+            }
+        }
+        if (error != null) throw error;
+    }
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        closed = true;
+        for (Peer peer : peers) peer.close();
+        for (Socket socket : connections)
+        {
+            try
+            {
+                socket.close();
+            }
+            catch (IOException ioe) {}
+        }
+        connections.clear();
+        if (serverSocket != null) serverSocket.close();
+    }
+
+    private static void startThread(String name, Runnable runnable)
+    {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
@@ -0,0 +1,431 @@
+package info.macias.sse.events;
+
+import com.republicate.json.Json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * <p>Encoder of event frames, writing the fields framing and their UTF-8 encoding in a single pass into a
+ * reusable byte buffer, without intermediate strings.</p>
+ *
+ * <p>Data lines may end with <code>\r\n</code>, <code>\n</code> or <code>\r</code>: each line of the data is sent
+ * in its own <code>data:</code> field, so that clients get back the same lines (joined by <code>\n</code>).
+ * Line breaks are removed from the event name and id, which must fit on a single line.</p>
+ *
+ * <p>An encoder is not thread-safe; {@link #encode(String, String, Integer, String)} uses a per-thread encoder.</p>
+ */
+public final class EventEncoder
+{
+    public static final int DEFAULT_CAPACITY = 256;
+
+    /* per-thread buffers grown beyond this size are not kept once the encoding is done */
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    private static final byte[] EVENT = { 'e', 'v', 'e', 'n', 't', ':', ' ' };
+    private static final byte[] DATA = { 'd', 'a', 't', 'a', ':', ' ' };
+    private static final byte[] RETRY = { 'r', 'e', 't', 'r', 'y', ':', ' ' };
+    private static final byte[] ID = { 'i', 'd', ':', ' ' };
+
+    private static final ThreadLocal<EventEncoder> encoders = ThreadLocal.withInitial(EventEncoder::new);
+
+    private byte[] buffer;
+    private int length = 0;
+    private DataWriter dataWriter = null;
+
+    public EventEncoder()
+    {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity initial buffer capacity, grown as needed
+     */
+    public EventEncoder(int capacity)
+    {
+        buffer = new byte[Math.max(16, capacity)];
+    }
+
+    /**
+     * Encodes a frame with a per-thread encoder
+     * @param event 'event' field, or null
+     * @param data 'data' field, or null
+     * @param retry 'retry' field, or null
+     * @param id 'id' field, or null
+     * @return encoded frame
+     */
+    public static byte[] encode(String event, String data, Integer retry, String id)
+    {
+        EventEncoder encoder = encoders.get();
+        byte[] frame = encoder.reset().append(event, data, retry, id).toByteArray();
+        if (encoder.buffer.length > MAX_RETAINED_CAPACITY) encoders.remove();
+        return frame;
+    }
+
+    /**
+     * Encodes a frame with a per-thread encoder, serializing the JSON data straight into the frame
+     * @param event 'event' field, or null
+     * @param data 'data' field, or null
+     * @param retry 'retry' field, or null
+     * @param id 'id' field, or null
+     * @return encoded frame
+     */
+    public static byte[] encode(String event, Json data, Integer retry, String id)
+    {
+        EventEncoder encoder = encoders.get();
+        byte[] frame = encoder.reset().append(event, data, retry, id).toByteArray();
+        if (encoder.buffer.length > MAX_RETAINED_CAPACITY) encoders.remove();
+        return frame;
+    }
+
+    /**
+     * Clears the buffer
+     * @return this encoder
+     */
+    public EventEncoder reset()
+    {
+        length = 0;
+        return this;
+    }
+
+    /**
+     * Appends a frame to the buffer
+     * @param event 'event' field, or null
+     * @param data 'data' field, or null
+     * @param retry 'retry' field, or null
+     * @param id 'id' field, or null
+     * @return this encoder
+     */
+    public EventEncoder append(String event, String data, Integer retry, String id)
+    {
+        appendEvent(event);
+        if (data != null)
+        {
+            int start = 0, len = data.length();
+            for (int i = 0; i < len; ++i)
+            {
+                char c = data.charAt(i);
+                if (c != '\n' && c != '\r') continue;
+                put(DATA);
+                putUtf8(data, start, i);
+                put('\n');
+                if (c == '\r' && i + 1 < len && data.charAt(i + 1) == '\n') ++i;
+                start = i + 1;
+            }
+            put(DATA);
+            putUtf8(data, start, len);
+            put('\n');
+        }
+        appendTrailer(retry, id);
+        return this;
+    }
+
+    /**
+     * Appends a frame to the buffer, serializing the JSON data straight into it
+     * @param event 'event' field, or null
+     * @param data 'data' field, or null
+     * @param retry 'retry' field, or null
+     * @param id 'id' field, or null
+     * @return this encoder
+     */
+    public EventEncoder append(String event, Json data, Integer retry, String id)
+    {
+        appendEvent(event);
+        if (data != null)
+        {
+            if (dataWriter == null) dataWriter = new DataWriter();
+            put(DATA);
+            try
+            {
+                data.toString(dataWriter);
+            }
+            catch (IOException ioe)
+            {
+                // the writer itself never fails
+                throw new IllegalStateException("could not serialize json data", ioe);
+            }
+            dataWriter.end();
+            put('\n');
+        }
+        appendTrailer(retry, id);
+        return this;
+    }
+
+    private void appendEvent(String event)
+    {
+        if (event != null)
+        {
+            put(EVENT);
+            putLine(event);
+            put('\n');
+        }
+    }
+
+    private void appendTrailer(Integer retry, String id)
+    {
+        if (retry != null)
+        {
+            put(RETRY);
+            putAscii(retry.toString());
+            put('\n');
+        }
+        if (id != null)
+        {
+            put(ID);
+            putLine(id);
+            put('\n');
+        }
+        // an empty line dispatches the event
+        put('\n');
+    }
+
+    /**
+     * Appends a comment line, ignored by clients
+     * @param comment comment text, line breaks are removed
+     * @return this encoder
+     */
+    public EventEncoder appendComment(String comment)
+    {
+        put(':');
+        if (comment != null && !comment.isEmpty())
+        {
+            put(' ');
+            putLine(comment);
+        }
+        put('\n');
+        return this;
+    }
+
+    public int length()
+    {
+        return length;
+    }
+
+    /**
+     * Internal buffer, whose first {@link #length()} bytes hold the encoded frames. It is only valid until the
+     * next call to the encoder.
+     * @return internal buffer
+     */
+    public byte[] array()
+    {
+        return buffer;
+    }
+
+    /**
+     * @return a copy of the encoded frames
+     */
+    public byte[] toByteArray()
+    {
+        return Arrays.copyOf(buffer, length);
+    }
+
+    /**
+     * @return a view of the encoded frames, only valid until the next call to the encoder
+     */
+    public ByteBuffer asByteBuffer()
+    {
+        return ByteBuffer.wrap(buffer, 0, length);
+    }
+
+    /**
+     * Writes the encoded frames to the given stream
+     * @param out target output stream
+     * @throws IOException if the write failed
+     */
+    public void writeTo(OutputStream out) throws IOException
+    {
+        out.write(buffer, 0, length);
+    }
+
+    /* field value without its line breaks */
+    private void putLine(String value)
+    {
+        int start = 0, len = value.length();
+        for (int i = 0; i < len; ++i)
+        {
+            char c = value.charAt(i);
+            if (c != '\n' && c != '\r') continue;
+            putUtf8(value, start, i);
+            start = i + 1;
+        }
+        putUtf8(value, start, len);
+    }
+
+    private void putUtf8(String value, int from, int to)
+    {
+        // at most three bytes per char (surrogate pairs take four bytes for two chars)
+        ensure(3 * (to - from));
+        byte[] buf = buffer;
+        int pos = length;
+        for (int i = from; i < to; ++i)
+        {
+            char c = value.charAt(i);
+            if (c < 0x80)
+            {
+                buf[pos++] = (byte)c;
+            }
+            else if (c < 0x800)
+            {
+                buf[pos++] = (byte)(0xC0 | (c >> 6));
+                buf[pos++] = (byte)(0x80 | (c & 0x3F));
+            }
+            else if (Character.isSurrogate(c))
+            {
+                int codePoint = -1;
+                if (Character.isHighSurrogate(c) && i + 1 < to && Character.isLowSurrogate(value.charAt(i + 1)))
+                {
+                    codePoint = Character.toCodePoint(c, value.charAt(++i));
+                }
+                if (codePoint < 0)
+                {
+                    // unpaired surrogate, replaced as String.getBytes() does
+                    buf[pos++] = '?';
+                }
+                else
+                {
+                    buf[pos++] = (byte)(0xF0 | (codePoint >> 18));
+                    buf[pos++] = (byte)(0x80 | ((codePoint >> 12) & 0x3F));
+                    buf[pos++] = (byte)(0x80 | ((codePoint >> 6) & 0x3F));
+                    buf[pos++] = (byte)(0x80 | (codePoint & 0x3F));
+                }
+            }
+            else
+            {
+                buf[pos++] = (byte)(0xE0 | (c >> 12));
+                buf[pos++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+                buf[pos++] = (byte)(0x80 | (c & 0x3F));
+            }
+        }
+        length = pos;
+    }
+
+    /* encodes a char which is not a surrogate */
+    private void putChar(char c)
+    {
+        ensure(3);
+        if (c < 0x80)
+        {
+            buffer[length++] = (byte)c;
+        }
+        else if (c < 0x800)
+        {
+            buffer[length++] = (byte)(0xC0 | (c >> 6));
+            buffer[length++] = (byte)(0x80 | (c & 0x3F));
+        }
+        else
+        {
+            buffer[length++] = (byte)(0xE0 | (c >> 12));
+            buffer[length++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+            buffer[length++] = (byte)(0x80 | (c & 0x3F));
+        }
+    }
+
+    private void putCodePoint(int codePoint)
+    {
+        ensure(4);
+        buffer[length++] = (byte)(0xF0 | (codePoint >> 18));
+        buffer[length++] = (byte)(0x80 | ((codePoint >> 12) & 0x3F));
+        buffer[length++] = (byte)(0x80 | ((codePoint >> 6) & 0x3F));
+        buffer[length++] = (byte)(0x80 | (codePoint & 0x3F));
+    }
+
+    /**
+     * Writer of the 'data' field value, encoding chars as they come and starting a new field on each line break
+     */
+    private class DataWriter extends Writer
+    {
+        private char highSurrogate = 0;
+        private boolean afterCR = false;
+
+        @Override
+        public void write(int c)
+        {
+            put((char)c);
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int len)
+        {
+            for (int i = offset; i < offset + len; ++i) put(chars[i]);
+        }
+
+        @Override
+        public void write(String str, int offset, int len)
+        {
+            for (int i = offset; i < offset + len; ++i) put(str.charAt(i));
+        }
+
+        private void put(char c)
+        {
+            if (afterCR)
+            {
+                afterCR = false;
+                if (c == '\n') return;
+            }
+            if (highSurrogate != 0)
+            {
+                char high = highSurrogate;
+                highSurrogate = 0;
+                if (Character.isLowSurrogate(c))
+                {
+                    putCodePoint(Character.toCodePoint(high, c));
+                    return;
+                }
+                EventEncoder.this.put('?');
+            }
+            if (c == '\n' || c == '\r')
+            {
+                EventEncoder.this.put('\n');
+                EventEncoder.this.put(DATA);
+                afterCR = c == '\r';
+            }
+            else if (Character.isHighSurrogate(c)) highSurrogate = c;
+            else if (Character.isLowSurrogate(c)) EventEncoder.this.put('?');
+            else putChar(c);
+        }
+
+        void end()
+        {
+            if (highSurrogate != 0) EventEncoder.this.put('?');
+            highSurrogate = 0;
+            afterCR = false;
+        }
+
+        @Override
+        public void flush() {}
+
+        @Override
+        public void close() {}
+    }
+
+    private void putAscii(String value)
+    {
+        int len = value.length();
+        ensure(len);
+        for (int i = 0; i < len; ++i) buffer[length++] = (byte)value.charAt(i);
+    }
+
+    private void put(byte[] bytes)
+    {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+    }
+
+    private void put(char c)
+    {
+        ensure(1);
+        buffer[length++] = (byte)c;
+    }
+
+    private void ensure(int more)
+    {
+        if (length + more > buffer.length)
+        {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + more));
+        }
+    }
+}
@@ -16,7 +16,15 @@ limitations under the License.
 
 package info.macias.sse.events;
 
+import com.republicate.json.Json;
+
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * This class encapsulates a SSE Message Event. It may specify the next optional fields:
@@ -34,22 +42,50 @@ public class MessageEvent implements Serializable
 {
     private static final long serialVersionUID = 6523317842188487107L;
 
-    private final String data;
+    private String data;
+    private final Json json;
     private final String event;
     private final Integer retry;
     private final String id;
 
-    private final String toStringCache;
+    private String toStringCache;
+    private transient volatile byte[] bytesCache = null;
+    private transient volatile ByteBuffer directCache = null;
     private boolean volatileEvent;
+    private boolean frame = false;
+    private final String conflationKey;
+
 
+    private MessageEvent(String event, String data, Integer retry, String id, boolean volatileEvent, String conflationKey) {
+        this(event, data, null, retry, id, volatileEvent, conflationKey);
+    }
 
-    private MessageEvent(String event, String data, Integer retry, String id, String toStringCache, boolean volatileEvent) {
+    private MessageEvent(String event, String data, Json json, Integer retry, String id, boolean volatileEvent, String conflationKey) {
         this.data = data;
+        this.json = json;
         this.event = event;
-        this.toStringCache = toStringCache;
         this.retry = retry;
         this.id = id;
+        this.volatileEvent = volatileEvent;
+        this.conflationKey = conflationKey;
+    }
 
+    private MessageEvent(byte[] frame) {
+        this(null, null, null, null, true, null);
+        this.toStringCache = new String(frame, StandardCharsets.UTF_8);
+        this.bytesCache = frame;
+        this.frame = true;
+    }
+
+    /**
+     * Wraps an already encoded frame (for instance a comment, or a frame read back from some storage) inside a
+     * MessageEvent, so that it can travel along regular events. Such events have no fields, are volatile, and are
+     * sent as is.
+     * @param frame UTF-8 encoded frame, terminated by an empty line. It must not be modified afterwards.
+     * @return the wrapping MessageEvent
+     */
+    public static MessageEvent fromFrame(byte[] frame) {
+        return new MessageEvent(frame);
     }
 
     /**
@@ -57,7 +93,20 @@ public class MessageEvent implements Serializable
      * @return the value of the 'data' field
      */
     public final String getData() {
-        return data;
+        String string = data;
+        if (string == null && json != null) {
+            // JSON data is only converted to a string if asked for, from the frame encoded when built
+            data = string = parse(getBytes()).get(0).getData();
+        }
+        return string;
+    }
+
+    /**
+     * Returns the 'data' field, when it was given as a JSON value
+     * @return the JSON value of the 'data' field, or null
+     */
+    public final Json getJson() {
+        return json;
     }
 
     /**
@@ -87,6 +136,19 @@ public class MessageEvent implements Serializable
 
     public final boolean isVolatile() { return volatileEvent; }
 
+    /**
+     * Returns the conflation key: when set, an event still waiting in a conflating subscriber queue is replaced
+     * by a newer event having the same key. It is not transmitted.
+     * @return the conflation key, or null
+     */
+    public final String getConflationKey() { return conflationKey; }
+
+    /**
+     * Returns whether this event only wraps a pre-encoded frame, see {@link #fromFrame(byte[])}
+     * @return whether this event was built from a frame
+     */
+    public final boolean isFrame() { return frame; }
+
     /**
      * Converts the MessageEvent to a String in the format to be transmitted to the listener clients. E.g.:
      * <pre>
@@ -99,7 +161,116 @@ public class MessageEvent implements Serializable
      * @return the string representation of the MessageEvent. Ready to be transmitted.
      */
     public final String toString() {
-        return toStringCache;
+        String string = toStringCache;
+        if (string == null) {
+            // only used for debugging and logging: the wire format is produced by getBytes()
+            toStringCache = string = new String(getBytes(), StandardCharsets.UTF_8);
+        }
+        return string;
+    }
+
+    /**
+     * Returns the UTF-8 encoded form of {@link #toString()}, ready to be written on the wire. The encoding is done
+     * lazily, only once per MessageEvent, so that the same bytes are shared by all the subscribers of a broadcast
+     * and by the history replays. The returned array <b>must not</b> be modified.
+     * @return the encoded frame
+     */
+    public final byte[] getBytes() {
+        byte[] bytes = bytesCache;
+        if (bytes == null) {
+            // benign race: concurrent callers may encode twice, but always produce the same content
+            bytesCache = bytes = frame ? toStringCache.getBytes(StandardCharsets.UTF_8)
+                : json != null ? EventEncoder.encode(event, json, retry, id)
+                : EventEncoder.encode(event, data, retry, id);
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns a read-only view of the encoded frame
+     * @return read-only {@link ByteBuffer} wrapping the shared encoded frame
+     */
+    public final ByteBuffer asByteBuffer() {
+        return ByteBuffer.wrap(getBytes()).asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns a read-only view of the encoded frame, copied once in a direct buffer shared by all callers, so that
+     * channel writes to many connections do not copy the frame to a temporary direct buffer each time
+     * @return read-only {@link ByteBuffer} view of the shared direct buffer
+     */
+    public final ByteBuffer asDirectByteBuffer() {
+        ByteBuffer direct = directCache;
+        if (direct == null) {
+            // benign race, as for the bytes cache
+            byte[] bytes = getBytes();
+            direct = ByteBuffer.allocateDirect(bytes.length);
+            direct.put(bytes).flip();
+            directCache = direct = direct.asReadOnlyBuffer();
+        }
+        return direct.duplicate();
+    }
+
+    /**
+     * Writes the encoded frame to the given stream
+     * @param out target output stream
+     * @throws IOException if the write failed
+     */
+    public final void writeTo(OutputStream out) throws IOException {
+        out.write(getBytes());
+    }
+
+    /**
+     * Parses encoded frames back into events, following the SSE stream interpretation rules: lines may end with
+     * <code>\r\n</code>, <code>\n</code> or <code>\r</code>, comments are ignored, and an empty line dispatches
+     * the event being built.
+     * @param frames UTF-8 encoded frames
+     * @return parsed events
+     */
+    public static List<MessageEvent> parse(byte[] frames) {
+        String text = new String(frames, StandardCharsets.UTF_8);
+        List<MessageEvent> events = new ArrayList<>();
+        Builder builder = null;
+        StringBuilder data = null;
+        int len = text.length(), start = 0;
+        while (start < len) {
+            int end = start;
+            while (end < len && text.charAt(end) != '\n' && text.charAt(end) != '\r') ++end;
+            if (end == start) {
+                // empty line: dispatch
+                if (builder != null) {
+                    if (data != null) builder.setData(data.toString());
+                    events.add(builder.build());
+                }
+                builder = null;
+                data = null;
+            } else if (text.charAt(start) != ':') {
+                int colon = text.indexOf(':', start);
+                if (colon < 0 || colon > end) colon = end;
+                String field = text.substring(start, colon);
+                int valueStart = Math.min(colon + 1, end);
+                if (valueStart < end && text.charAt(valueStart) == ' ') ++valueStart;
+                String value = text.substring(valueStart, end);
+                if (builder == null) builder = new Builder();
+                switch (field) {
+                    case "event": builder.setEvent(value); break;
+                    case "id": builder.setId(value); break;
+                    case "data":
+                        if (data == null) data = new StringBuilder(value);
+                        else data.append('\n').append(value);
+                        break;
+                    case "retry":
+                        try {
+                            builder.setRetry(Integer.parseInt(value));
+                        } catch (NumberFormatException nfe) {}
+                        break;
+                    default: break;
+                }
+            }
+            if (end < len && text.charAt(end) == '\r' && end + 1 < len && text.charAt(end + 1) == '\n') ++end;
+            start = end + 1;
+        }
+        return events;
     }
 
     /**
@@ -107,10 +278,12 @@ public class MessageEvent implements Serializable
      */
     public static class Builder {
         private String data = null;
+        private Json json = null;
         private String event = null;
         private Integer retry = null;
         private String id = null;
         private boolean volatileEvent = false;
+        private String conflationKey = null;
 
         /**
          * Sets the information of the 'data' field: string data to be transmitted with the event
@@ -119,6 +292,19 @@ public class MessageEvent implements Serializable
          */
         public Builder setData(String data) {
             this.data = data;
+            this.json = null;
+            return this;
+        }
+
+        /**
+         * Sets the information of the 'data' field as a JSON value, which is serialized only once, straight into
+         * the encoded frame, when the event is built
+         * @param json JSON data to be transmitted with the event
+         * @return The same target instance where the method has been invoked on.
+         */
+        public Builder setData(Json json) {
+            this.json = json;
+            this.data = null;
             return this;
         }
 
@@ -164,30 +350,30 @@ public class MessageEvent implements Serializable
             return this;
         }
 
+        /**
+         * Sets the conflation key, for state updates where only the newest value per key matters (prices, presence,
+         * progress...). A pending event with the same key in a conflating subscriber queue will be replaced in place.
+         * @param conflationKey conflation key
+         * @return The same target instance where the method has been invoked on.
+         */
+        public Builder setConflationKey(String conflationKey) {
+            this.conflationKey = conflationKey;
+            return this;
+        }
+
         /**
          * Instantiates a {@link MessageEvent} object with the same attributes as the Builder object.
          * @return the {@link MessageEvent} instance
          */
         public MessageEvent build() {
-            StringBuilder sb = new StringBuilder();
-            if(event != null) {
-                sb.append("event: ").append(event.replace("\n", "")).append('\n');
-            }
-            if(data != null) {
-                for(String s : data.split("\n")) {
-                    sb.append("data: ").append(s).append('\n');
-                }
+            if (json != null) {
+                // encoded right away, so that later changes of the JSON value do not alter the event
+                MessageEvent messageEvent = new MessageEvent(event, null, json, retry, id, volatileEvent, conflationKey);
+                messageEvent.bytesCache = EventEncoder.encode(event, json, retry, id);
+                return messageEvent;
             }
-            if(retry != null) {
-                sb.append("retry: ").append(retry).append('\n');
-            }
-            if(id != null) {
-                sb.append("id: ").append(id.replace("\n","")).append('\n');
-            }
-
-            // an empty line dispatches the event
-            sb.append('\n');
-            return new MessageEvent(event,data,retry,id,sb.toString(), volatileEvent);
+            // the frame is encoded on first use, see EventEncoder
+            return new MessageEvent(event,data,retry,id, volatileEvent, conflationKey);
         }
     }
 }
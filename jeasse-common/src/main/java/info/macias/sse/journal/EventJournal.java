@@ -0,0 +1,301 @@
+package info.macias.sse.journal;
+
+import info.macias.sse.EventTarget;
+import info.macias.sse.events.MessageEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Durable, append-only journal of broadcasted events, so that subscribers can resume from their
+ * <code>Last-Event-ID</code> across server restarts.</p>
+ *
+ * <p>Events are stored in their encoded form in memory-mapped segment files, which keeps large backlogs out of
+ * the Java heap, and are replayed straight from the mapped segments. A new segment is started when the current
+ * one is full, and old segments are deleted according to the size and age retention settings.</p>
+ *
+ * <p>Journals are built using {@link EventJournal.Builder}, and attached to a broadcaster with
+ * {@link info.macias.sse.EventBroadcast#setJournal(EventJournal)}.</p>
+ */
+public class EventJournal implements Closeable
+{
+    protected static Logger logger = LoggerFactory.getLogger("sse");
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final int REPLAY_CHUNK_SIZE = 64 * 1024;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long maxBytes;
+    private final long maxAge;
+    private final List<Segment> segments = new ArrayList<>(); // oldest first
+    private long sequence = 0;
+    private boolean closed = false;
+
+    private EventJournal(Path directory, int segmentSize, long maxBytes, long maxAge) throws IOException
+    {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxBytes = maxBytes;
+        this.maxAge = maxAge;
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + Segment.SUFFIX))
+        {
+            for (Path file : files) segments.add(Segment.open(file));
+        }
+        segments.sort((left, right) -> Long.compare(left.baseSequence, right.baseSequence));
+        if (segments.isEmpty()) segments.add(Segment.create(directory, 0, segmentSize));
+        Segment last = current();
+        sequence = last.baseSequence + last.getCount();
+        logger.debug("journal {}: {} segments, {} events", directory, segments.size(), sequence);
+    }
+
+    private Segment current()
+    {
+        return segments.get(segments.size() - 1);
+    }
+
+    /**
+     * Appends an event to the journal. Events without id and volatile events are ignored.
+     * @param messageEvent broadcasted event
+     * @return whether the event was appended
+     * @throws IOException if the journal is closed, if the event id is longer than 32767 bytes, if the event is too
+     * big for a segment or if a new segment could not be created
+     */
+    public synchronized boolean append(MessageEvent messageEvent) throws IOException
+    {
+        if (closed) throw new IOException("journal is closed");
+        String id = messageEvent.getId();
+        if (id == null || messageEvent.isVolatile()) return false;
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        if (idBytes.length > Segment.MAX_ID_LENGTH)
+        {
+            throw new IOException("event id is too long: " + idBytes.length + " bytes");
+        }
+        byte[] frame = messageEvent.getBytes();
+        long now = System.currentTimeMillis();
+        if (!current().append(idBytes, id, frame, now))
+        {
+            if (Segment.RECORD_HEADER + idBytes.length + frame.length > segmentSize)
+            {
+                throw new IOException("event " + id + " does not fit in a journal segment");
+            }
+            current().force();
+            segments.add(Segment.create(directory, sequence, segmentSize));
+            current().append(idBytes, id, frame, now);
+        }
+        ++sequence;
+        applyRetention(now);
+        return true;
+    }
+
+    private void applyRetention(long now) throws IOException
+    {
+        while (segments.size() > 1)
+        {
+            Segment oldest = segments.get(0);
+            boolean tooBig = maxBytes > 0 && (long)segments.size() * segmentSize > maxBytes;
+            boolean tooOld = maxAge > 0 && oldest.getLastTimestamp() < now - maxAge;
+            if (!tooBig && !tooOld) break;
+            segments.remove(0);
+            oldest.delete();
+        }
+    }
+
+    /**
+     * Sends to the target the events which follow the given one, read straight from the mapped segments and
+     * grouped in chunks to limit the number of writes.
+     * @param lastEventId last event id received by the client
+     * @param target event target
+     * @return false if the event id is not present in the journal (and nothing was sent)
+     * @throws IOException if the target failed
+     */
+    public boolean replay(String lastEventId, EventTarget target) throws IOException
+    {
+        List<Segment> tail;
+        int[] limits;
+        int offset = -1;
+        synchronized (this)
+        {
+            if (closed) return false;
+            int first = segments.size() - 1;
+            for (; first >= 0; --first)
+            {
+                offset = segments.get(first).find(lastEventId);
+                if (offset >= 0) break;
+            }
+            if (first < 0) return false;
+            // snapshot of the segments and of their current ends, appends may go on concurrently, and the
+            // segments are pinned until the replay is done, retention may go on as well
+            tail = new ArrayList<>(segments.subList(first, segments.size()));
+            limits = new int[tail.size()];
+            for (int i = 0; i < limits.length; ++i)
+            {
+                tail.get(i).retain();
+                limits[i] = tail.get(i).getPosition();
+            }
+            offset = tail.get(0).next(offset);
+        }
+        try
+        {
+            ByteBuffer chunk = ByteBuffer.allocate(REPLAY_CHUNK_SIZE);
+            for (int i = 0; i < tail.size(); ++i)
+            {
+                Segment segment = tail.get(i);
+                for (int pos = i == 0 ? offset : 0; pos < limits[i]; pos = segment.next(pos))
+                {
+                    if (!segment.readFrame(pos, chunk))
+                    {
+                        flush(chunk, target);
+                        if (!segment.readFrame(pos, chunk))
+                        {
+                            // frame bigger than a chunk
+                            ByteBuffer big = ByteBuffer.allocate(segment.frameLength(pos));
+                            segment.readFrame(pos, big);
+                            target.sendFrame(big.array());
+                        }
+                    }
+                }
+            }
+            flush(chunk, target);
+        }
+        finally
+        {
+            for (Segment segment : tail) segment.release();
+        }
+        return true;
+    }
+
+    private static void flush(ByteBuffer chunk, EventTarget target) throws IOException
+    {
+        if (chunk.position() > 0)
+        {
+            target.sendFrame(Arrays.copyOf(chunk.array(), chunk.position()));
+            chunk.clear();
+        }
+    }
+
+    /**
+     * Greatest numeric event id found in the journal, so that generated ids go on increasing after a restart
+     * @return greatest numeric id, or -1
+     */
+    public synchronized long getLastNumericId()
+    {
+        long lastNumericId = -1;
+        for (Segment segment : segments) lastNumericId = Math.max(lastNumericId, segment.getLastNumericId());
+        return lastNumericId;
+    }
+
+    /**
+     * Number of events kept in the journal
+     * @return events count, zero once closed
+     */
+    public synchronized long getEventCount()
+    {
+        if (segments.isEmpty()) return 0;
+        return sequence - segments.get(0).baseSequence;
+    }
+
+    public synchronized int getSegmentCount()
+    {
+        return segments.size();
+    }
+
+    public Path getDirectory()
+    {
+        return directory;
+    }
+
+    /**
+     * Flushes the mapped segments to the storage device
+     */
+    public synchronized void force()
+    {
+        for (Segment segment : segments) segment.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        if (closed) return;
+        closed = true;
+        force();
+        for (Segment segment : segments) segment.close();
+        segments.clear();
+    }
+
+    /**
+     * Helper class used to build an {@link EventJournal} instance.
+     */
+    public static class Builder
+    {
+        private final Path directory;
+        private int segmentSize = DEFAULT_SEGMENT_SIZE;
+        private long maxBytes = 0;
+        private long maxAge = 0;
+
+        /**
+         * @param directory directory holding the journal segments
+         */
+        public Builder(Path directory)
+        {
+            this.directory = directory;
+        }
+
+        /**
+         * Sets the size of the segment files
+         * @param segmentSize segment size in bytes
+         * @return The same target instance where the method has been invoked on.
+         */
+        public Builder setSegmentSize(int segmentSize)
+        {
+            this.segmentSize = segmentSize;
+            return this;
+        }
+
+        /**
+         * Sets the maximum total size of the segments; oldest segments are deleted when it is exceeded
+         * @param maxBytes maximum size in bytes, or zero for no limit
+         * @return The same target instance where the method has been invoked on.
+         */
+        public Builder setMaxBytes(long maxBytes)
+        {
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        /**
+         * Sets the retention time; segments whose events are all older are deleted
+         * @param maxAge maximum age, or zero for no limit
+         * @param unit time unit of the maxAge argument
+         * @return The same target instance where the method has been invoked on.
+         */
+        public Builder setMaxAge(long maxAge, TimeUnit unit)
+        {
+            this.maxAge = unit.toMillis(maxAge);
+            return this;
+        }
+
+        /**
+         * Opens the journal, recovering the existing segments
+         * @return the {@link EventJournal} instance
+         * @throws IOException if the segments could not be created or read
+         */
+        public EventJournal build() throws IOException
+        {
+            if (segmentSize <= Segment.RECORD_HEADER) throw new IllegalArgumentException("segment size is too small");
+            return new EventJournal(directory, segmentSize, maxBytes, maxAge);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package info.macias.sse.journal;
+
+import info.macias.sse.EventHistory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>Journal segment: a fixed-size, memory-mapped file holding a sequence of records.</p>
+ *
+ * <p>Record layout:</p>
+ * <pre>
+ *     int   record length (bytes following this field), written last so that a torn write reads as end of data
+ *     long  timestamp (milliseconds)
+ *     short id length
+ *     byte[] id, UTF-8
+ *     byte[] encoded frame
+ * </pre>
+ *
+ * <p>Segments are reference counted: the journal holds one reference, and each ongoing replay another one, so that
+ * a segment dropped by the retention policy is only closed and deleted once the replays reading it are done.</p>
+ */
+class Segment implements Closeable
+{
+    static final String SUFFIX = ".seg";
+    static final int RECORD_HEADER = 4 + 8 + 2;
+    /* the id length is stored as a short */
+    static final int MAX_ID_LENGTH = Short.MAX_VALUE;
+
+    final Path path;
+    final long baseSequence;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final Map<String, Integer> index = new HashMap<>();
+    private volatile int position = 0;
+    private long lastTimestamp = 0;
+    private int count = 0;
+    private long lastNumericId = -1;
+    private int references = 1;
+    private boolean deleted = false;
+
+    private Segment(Path path, long baseSequence, int size) throws IOException
+    {
+        this.path = path;
+        this.baseSequence = baseSequence;
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    static Segment create(Path directory, long baseSequence, int size) throws IOException
+    {
+        return new Segment(directory.resolve(String.format("%020d", baseSequence) + SUFFIX), baseSequence, size);
+    }
+
+    /**
+     * Opens an existing segment, scanning its records to rebuild the index
+     */
+    static Segment open(Path path) throws IOException
+    {
+        String name = path.getFileName().toString();
+        long baseSequence = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+        Segment segment = new Segment(path, baseSequence, (int)Files.size(path));
+        segment.recover();
+        return segment;
+    }
+
+    private void recover()
+    {
+        ByteBuffer view = buffer.duplicate();
+        int pos = 0;
+        while (pos + RECORD_HEADER <= view.capacity())
+        {
+            int length = view.getInt(pos);
+            if (length <= 0 || pos + 4 + length > view.capacity()) break;
+            long timestamp = view.getLong(pos + 4);
+            int idLength = view.getShort(pos + 12);
+            byte[] id = new byte[idLength];
+            view.position(pos + RECORD_HEADER);
+            view.get(id);
+            indexRecord(new String(id, StandardCharsets.UTF_8), pos, timestamp);
+            pos += 4 + length;
+        }
+        position = pos;
+    }
+
+    private void indexRecord(String id, int offset, long timestamp)
+    {
+        index.put(id, offset);
+        lastTimestamp = timestamp;
+        ++count;
+        lastNumericId = Math.max(lastNumericId, EventHistory.parseId(id));
+    }
+
+    /**
+     * Appends a record
+     * @return false if there is not enough room left
+     */
+    boolean append(byte[] id, String idString, byte[] frame, long timestamp)
+    {
+        int length = RECORD_HEADER - 4 + id.length + frame.length;
+        int offset = position;
+        if (offset + 4 + length > buffer.capacity()) return false;
+        ByteBuffer view = buffer.duplicate();
+        view.putLong(offset + 4, timestamp);
+        view.putShort(offset + 12, (short)id.length);
+        view.position(offset + RECORD_HEADER);
+        view.put(id);
+        view.put(frame);
+        // length last: the record becomes visible
+        view.putInt(offset, length);
+        indexRecord(idString, offset, timestamp);
+        position = offset + 4 + length;
+        return true;
+    }
+
+    /**
+     * Looks up a record
+     * @return offset of the record with the given id, or -1
+     */
+    int find(String id)
+    {
+        Integer offset = index.get(id);
+        return offset == null ? -1 : offset;
+    }
+
+    /**
+     * Returns the offset of the record following the one at the given offset
+     */
+    int next(int offset)
+    {
+        return offset + 4 + buffer.getInt(offset);
+    }
+
+    /**
+     * Copies the frame of the record at the given offset into the destination buffer
+     * @return false if there was not enough room in the destination buffer
+     */
+    boolean readFrame(int offset, ByteBuffer destination)
+    {
+        int length = buffer.getInt(offset);
+        int idLength = buffer.getShort(offset + 12);
+        int frameLength = length - (RECORD_HEADER - 4) - idLength;
+        if (frameLength > destination.remaining()) return false;
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset + RECORD_HEADER + idLength);
+        view.limit(offset + RECORD_HEADER + idLength + frameLength);
+        destination.put(view);
+        return true;
+    }
+
+    int frameLength(int offset)
+    {
+        return buffer.getInt(offset) - (RECORD_HEADER - 4) - buffer.getShort(offset + 12);
+    }
+
+    int getPosition()
+    {
+        return position;
+    }
+
+    int getCount()
+    {
+        return count;
+    }
+
+    long getLastTimestamp()
+    {
+        return lastTimestamp;
+    }
+
+    long getLastNumericId()
+    {
+        return lastNumericId;
+    }
+
+    long getSize()
+    {
+        return buffer.capacity();
+    }
+
+    void force()
+    {
+        buffer.force();
+    }
+
+    /**
+     * Takes a reference, for a replay
+     */
+    synchronized void retain()
+    {
+        ++references;
+    }
+
+    /**
+     * Releases a reference, closing (and deleting, if asked for) the segment when it was the last one
+     */
+    synchronized void release() throws IOException
+    {
+        if (--references > 0) return;
+        channel.close();
+        if (deleted) Files.deleteIfExists(path);
+    }
+
+    /**
+     * Releases the reference of the journal
+     */
+    @Override
+    public void close() throws IOException
+    {
+        release();
+    }
+
+    /**
+     * Releases the reference of the journal, the file being deleted once the ongoing replays are done
+     */
+    synchronized void delete() throws IOException
+    {
+        deleted = true;
+        release();
+    }
+}
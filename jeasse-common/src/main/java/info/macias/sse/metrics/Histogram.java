@@ -0,0 +1,118 @@
+package info.macias.sse.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Lock-free histogram of non-negative values, with power of two buckets.</p>
+ *
+ * <p>Percentiles are thus approximated by the upper bound of their bucket, that is within a factor of two,
+ * which is enough to spot latency outliers without allocating on the recording path.</p>
+ */
+public class Histogram
+{
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Records a value, negative values being counted as zero
+     * @param value value
+     */
+    public void record(long value)
+    {
+        if (value < 0) value = 0;
+        // bucket i holds values lower than 2^i
+        buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    public Snapshot snapshot()
+    {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; ++i) counts[i] = buckets.get(i);
+        return new Snapshot(counts, count.sum(), sum.sum(), max.get());
+    }
+
+    public void reset()
+    {
+        for (int i = 0; i < BUCKETS; ++i) buckets.set(i, 0);
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    /**
+     * Immutable histogram state
+     */
+    public static class Snapshot
+    {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private Snapshot(long[] counts, long count, long sum, long max)
+        {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCount()
+        {
+            return count;
+        }
+
+        public long getSum()
+        {
+            return sum;
+        }
+
+        public long getMax()
+        {
+            return max;
+        }
+
+        public double getMean()
+        {
+            return count == 0 ? 0.0 : (double)sum / count;
+        }
+
+        /**
+         * Approximated percentile
+         * @param percentile percentile, between 0 and 100
+         * @return upper bound of the bucket holding the percentile, capped by the maximum value
+         */
+        public long getPercentile(double percentile)
+        {
+            long total = 0;
+            for (long c : counts) total += c;
+            if (total == 0) return 0;
+            long rank = (long)Math.ceil(total * percentile / 100.0);
+            long seen = 0;
+            for (int i = 0; i < counts.length; ++i)
+            {
+                seen += counts[i];
+                if (seen >= rank && seen > 0)
+                {
+                    return Math.min(max, (1L << i) - 1);
+                }
+            }
+            return max;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "count=" + count + ", mean=" + String.format("%.1f", getMean()) + ", p50=" + getPercentile(50) + ", p99=" + getPercentile(99) + ", max=" + max;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package info.macias.sse.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Metrics kept in memory, using contention-free counters and histograms, which can be snapshotted
+ * at any time, for instance to be exported to some monitoring system.</p>
+ */
+public class InMemoryMetrics implements Metrics
+{
+    private final LongAdder eventsPublished = new LongAdder();
+    private final LongAdder framesWritten = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder subscribersJoined = new LongAdder();
+    private final LongAdder subscribersLeft = new LongAdder();
+    private final LongAdder subscribersEvicted = new LongAdder();
+    private final LongAdder eventsDropped = new LongAdder();
+    private final Histogram fanOut = new Histogram();
+    private final Histogram fanOutNanos = new Histogram();
+    private final Histogram writeNanos = new Histogram();
+    private final Histogram replayedEvents = new Histogram();
+    private final Histogram queueDepth = new Histogram();
+
+    @Override
+    public void eventPublished()
+    {
+        eventsPublished.increment();
+    }
+
+    @Override
+    public void broadcastDelivered(int fanOut, long nanos)
+    {
+        this.fanOut.record(fanOut);
+        fanOutNanos.record(nanos);
+    }
+
+    @Override
+    public void frameWritten(int bytes, long nanos)
+    {
+        framesWritten.increment();
+        bytesWritten.add(bytes);
+        writeNanos.record(nanos);
+    }
+
+    @Override
+    public void subscriberJoined()
+    {
+        subscribersJoined.increment();
+    }
+
+    @Override
+    public void subscriberLeft()
+    {
+        subscribersLeft.increment();
+    }
+
+    @Override
+    public void subscriberEvicted()
+    {
+        subscribersEvicted.increment();
+    }
+
+    @Override
+    public void historyReplayed(int events)
+    {
+        replayedEvents.record(events);
+    }
+
+    @Override
+    public void queueDepth(int depth)
+    {
+        queueDepth.record(depth);
+    }
+
+    @Override
+    public void eventDropped()
+    {
+        eventsDropped.increment();
+    }
+
+    public Snapshot snapshot()
+    {
+        return new Snapshot(this);
+    }
+
+    /**
+     * Resets all counters and histograms
+     */
+    public void reset()
+    {
+        for (LongAdder counter : new LongAdder[] { eventsPublished, framesWritten, bytesWritten, subscribersJoined, subscribersLeft, subscribersEvicted, eventsDropped })
+        {
+            counter.reset();
+        }
+        for (Histogram histogram : new Histogram[] { fanOut, fanOutNanos, writeNanos, replayedEvents, queueDepth })
+        {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * Immutable metrics state. Values are read one after the other, so a snapshot taken under load
+     * is not strictly consistent across counters.
+     */
+    public static class Snapshot
+    {
+        private final long timestamp = System.currentTimeMillis();
+        private final long eventsPublished;
+        private final long framesWritten;
+        private final long bytesWritten;
+        private final long subscribersJoined;
+        private final long subscribersLeft;
+        private final long subscribersEvicted;
+        private final long eventsDropped;
+        private final Histogram.Snapshot fanOut;
+        private final Histogram.Snapshot fanOutNanos;
+        private final Histogram.Snapshot writeNanos;
+        private final Histogram.Snapshot replayedEvents;
+        private final Histogram.Snapshot queueDepth;
+
+        private Snapshot(InMemoryMetrics metrics)
+        {
+            eventsPublished = metrics.eventsPublished.sum();
+            framesWritten = metrics.framesWritten.sum();
+            bytesWritten = metrics.bytesWritten.sum();
+            subscribersJoined = metrics.subscribersJoined.sum();
+            subscribersLeft = metrics.subscribersLeft.sum();
+            subscribersEvicted = metrics.subscribersEvicted.sum();
+            eventsDropped = metrics.eventsDropped.sum();
+            fanOut = metrics.fanOut.snapshot();
+            fanOutNanos = metrics.fanOutNanos.snapshot();
+            writeNanos = metrics.writeNanos.snapshot();
+            replayedEvents = metrics.replayedEvents.snapshot();
+            queueDepth = metrics.queueDepth.snapshot();
+        }
+
+        public long getTimestamp()
+        {
+            return timestamp;
+        }
+
+        public long getEventsPublished()
+        {
+            return eventsPublished;
+        }
+
+        public long getFramesWritten()
+        {
+            return framesWritten;
+        }
+
+        public long getBytesWritten()
+        {
+            return bytesWritten;
+        }
+
+        public long getSubscribersJoined()
+        {
+            return subscribersJoined;
+        }
+
+        public long getSubscribersLeft()
+        {
+            return subscribersLeft;
+        }
+
+        public long getSubscribersEvicted()
+        {
+            return subscribersEvicted;
+        }
+
+        public long getEventsDropped()
+        {
+            return eventsDropped;
+        }
+
+        /**
+         * Number of subscribers reached by each broadcast
+         * @return fan-out histogram
+         */
+        public Histogram.Snapshot getFanOut()
+        {
+            return fanOut;
+        }
+
+        /**
+         * Duration of each broadcast, in nanoseconds
+         * @return fan-out duration histogram
+         */
+        public Histogram.Snapshot getFanOutNanos()
+        {
+            return fanOutNanos;
+        }
+
+        /**
+         * Latency of each frame write, in nanoseconds
+         * @return write latency histogram
+         */
+        public Histogram.Snapshot getWriteNanos()
+        {
+            return writeNanos;
+        }
+
+        /**
+         * Number of events replayed to each resuming subscriber
+         * @return replay size histogram
+         */
+        public Histogram.Snapshot getReplayedEvents()
+        {
+            return replayedEvents;
+        }
+
+        /**
+         * Outbound queues depth, sampled when enqueuing
+         * @return queue depth histogram
+         */
+        public Histogram.Snapshot getQueueDepth()
+        {
+            return queueDepth;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "published=" + eventsPublished + ", frames=" + framesWritten + ", bytes=" + bytesWritten +
+                ", joined=" + subscribersJoined + ", left=" + subscribersLeft + ", evicted=" + subscribersEvicted +
+                ", dropped=" + eventsDropped + ", fanOut=[" + fanOut + "], fanOutNanos=[" + fanOutNanos +
+                "], writeNanos=[" + writeNanos + "], replayed=[" + replayedEvents + "], queueDepth=[" + queueDepth + "]";
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package info.macias.sse.metrics;
+
+/**
+ * <p>Metrics SPI, fed by broadcasters (see {@link info.macias.sse.EventBroadcast#setMetrics(Metrics)}) and by
+ * event targets implementations which support it.</p>
+ *
+ * <p>All methods do nothing by default, and {@link #NOOP} is used unless another implementation is set,
+ * in which case timings are not even measured. Implementations must be thread-safe and must not block.</p>
+ */
+public interface Metrics
+{
+    /**
+     * Default implementation, ignoring everything
+     */
+    Metrics NOOP = new Metrics() {};
+
+    /**
+     * An event has been published
+     */
+    default void eventPublished() {}
+
+    /**
+     * A broadcast has been delivered to its subscribers
+     * @param fanOut number of subscribers the event was delivered to
+     * @param nanos fan-out duration, in nanoseconds
+     */
+    default void broadcastDelivered(int fanOut, long nanos) {}
+
+    /**
+     * A frame has been written to a subscriber
+     * @param bytes frame size
+     * @param nanos write latency, in nanoseconds
+     */
+    default void frameWritten(int bytes, long nanos) {}
+
+    default void subscriberJoined() {}
+
+    default void subscriberLeft() {}
+
+    /**
+     * A subscriber has been evicted after an I/O error, or because it could not keep up
+     */
+    default void subscriberEvicted() {}
+
+    /**
+     * Missed events have been replayed to a resuming subscriber
+     * @param events number of replayed events
+     */
+    default void historyReplayed(int events) {}
+
+    /**
+     * Outbound queue depth of a subscriber, sampled when enqueuing
+     * @param depth number of pending events
+     */
+    default void queueDepth(int depth) {}
+
+    /**
+     * An event has been dropped by the overflow policy of an outbound queue
+     */
+    default void eventDropped() {}
+}
@@ -0,0 +1,222 @@
+package info.macias.sse.reactive;
+
+import info.macias.sse.EventBroadcast;
+import info.macias.sse.events.MessageEvent;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Reactive Streams subscriber feeding a broadcaster, so that the producer is slowed down by the subscribers
+ * instead of being buffered without limit. On JDK 9+, <code>org.reactivestreams.FlowAdapters</code> turns it into
+ * a <code>java.util.concurrent.Flow.Subscriber</code>.</p>
+ *
+ * <p>Events are published with {@link EventBroadcast#broadcastAsync(MessageEvent)}, and the demand signaled upstream
+ * is bounded by:</p>
+ * <ul>
+ *     <li>the window, that is the maximum number of events requested or being broadcast;</li>
+ *     <li>the headroom of the subscribers outbound queues at the configured percentile (see
+ *     {@link EventBroadcast#getQueueHeadroom(double)}), so that the slowest subscribers (or all but the
+ *     slowest ones) are not overflowed.</li>
+ * </ul>
+ *
+ * <p>Demand is replenished by batches, once half of the window has been consumed. When the queues are full, their
+ * headroom is polled until events can be requested again.</p>
+ *
+ * <p>The broadcaster is left open when the upstream publisher completes or fails.</p>
+ */
+public class BroadcastSubscriber implements Subscriber<MessageEvent>
+{
+    protected static Logger logger = LoggerFactory.getLogger("sse");
+
+    public static final int DEFAULT_WINDOW = 64;
+    public static final long DEFAULT_POLL_INTERVAL = 50;
+
+    private static ScheduledExecutorService poller = null;
+
+    private final EventBroadcast broadcast;
+    private int window = DEFAULT_WINDOW;
+    private double percentile = 1;
+    private long pollInterval = DEFAULT_POLL_INTERVAL;
+
+    private Subscription subscription = null;
+    private boolean done = false;
+    private boolean polling = false;
+    /* requested events not received yet */
+    private long pending = 0;
+    /* received events not delivered yet */
+    private long inFlight = 0;
+
+    /**
+     * @param broadcast broadcaster fed by this subscriber
+     */
+    public BroadcastSubscriber(EventBroadcast broadcast)
+    {
+        this.broadcast = broadcast;
+    }
+
+    /**
+     * Sets the maximum number of events requested or being broadcast
+     * @param window window size
+     * @return this subscriber
+     */
+    public BroadcastSubscriber setWindow(int window)
+    {
+        if (window <= 0) throw new IllegalArgumentException("window must be strictly positive");
+        this.window = window;
+        return this;
+    }
+
+    /**
+     * Sets the share of the subscribers whose outbound queues must be able to absorb the requested events
+     * @param percentile between 0 and 1, 1 (the default) meaning the slowest subscriber
+     * @return this subscriber
+     */
+    public BroadcastSubscriber setPercentile(double percentile)
+    {
+        if (percentile < 0 || percentile > 1) throw new IllegalArgumentException("percentile must be between 0 and 1");
+        this.percentile = percentile;
+        return this;
+    }
+
+    /**
+     * Sets the interval at which full queues are checked again
+     * @param pollInterval interval in milliseconds
+     * @return this subscriber
+     */
+    public BroadcastSubscriber setPollInterval(long pollInterval)
+    {
+        this.pollInterval = pollInterval;
+        return this;
+    }
+
+    public EventBroadcast getBroadcast()
+    {
+        return broadcast;
+    }
+
+    @Override
+    public void onSubscribe(Subscription subscription)
+    {
+        synchronized (this)
+        {
+            if (this.subscription == null && !done)
+            {
+                this.subscription = subscription;
+                subscription = null;
+            }
+        }
+        // only one upstream publisher is allowed
+        if (subscription != null) subscription.cancel();
+        else replenish();
+    }
+
+    @Override
+    public void onNext(MessageEvent messageEvent)
+    {
+        synchronized (this)
+        {
+            --pending;
+            ++inFlight;
+        }
+        broadcast.broadcastAsync(messageEvent).whenComplete((report, error) ->
+        {
+            if (error != null) logger.error("could not broadcast event {}", messageEvent.getId(), error);
+            synchronized (this)
+            {
+                --inFlight;
+            }
+            replenish();
+        });
+    }
+
+    @Override
+    public void onError(Throwable throwable)
+    {
+        logger.error("event publisher failed", throwable);
+        terminate();
+    }
+
+    @Override
+    public void onComplete()
+    {
+        terminate();
+    }
+
+    /**
+     * Cancels the subscription to the upstream publisher
+     */
+    public void cancel()
+    {
+        Subscription subscription;
+        synchronized (this)
+        {
+            subscription = this.subscription;
+            terminate();
+        }
+        if (subscription != null) subscription.cancel();
+    }
+
+    private synchronized void terminate()
+    {
+        done = true;
+        subscription = null;
+    }
+
+    /**
+     * Requests as many events as the window and the subscribers queues allow
+     */
+    protected void replenish()
+    {
+        Subscription subscription;
+        long demand;
+        synchronized (this)
+        {
+            subscription = this.subscription;
+            long outstanding = pending + inFlight;
+            if (subscription == null || polling || outstanding > window / 2) return;
+            // events already requested will take up room as well
+            demand = Math.min(window, broadcast.getQueueHeadroom(percentile)) - outstanding;
+            if (demand <= 0)
+            {
+                // the queues will drain, but nothing would wake us up
+                if (outstanding == 0) poll();
+                return;
+            }
+            pending += demand;
+        }
+        subscription.request(demand);
+    }
+
+    private void poll()
+    {
+        polling = true;
+        poller().schedule(() ->
+        {
+            synchronized (this)
+            {
+                polling = false;
+            }
+            replenish();
+        }, pollInterval, TimeUnit.MILLISECONDS);
+    }
+
+    private static synchronized ScheduledExecutorService poller()
+    {
+        if (poller == null)
+        {
+            poller = Executors.newSingleThreadScheduledExecutor(runnable ->
+            {
+                Thread thread = new Thread(runnable, "sse-demand");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return poller;
+    }
+}
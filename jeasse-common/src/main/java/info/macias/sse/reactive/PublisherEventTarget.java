@@ -0,0 +1,236 @@
+package info.macias.sse.reactive;
+
+import info.macias.sse.EventTarget;
+import info.macias.sse.OutboundQueue;
+import info.macias.sse.OverflowPolicy;
+import info.macias.sse.SlowConsumerException;
+import info.macias.sse.events.MessageEvent;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Event target exposing the events it receives as a Reactive Streams publisher, for server-side consumers. On
+ * JDK 9+, <code>org.reactivestreams.FlowAdapters</code> turns it into a <code>java.util.concurrent.Flow.Publisher</code>.</p>
+ *
+ * <p>Events are kept in an {@link OutboundQueue} until the subscriber requests them, the queue
+ * {@link OverflowPolicy} applying when the subscriber does not keep up. Its capacity is reported by
+ * {@link #getQueueCapacity()}, so that a {@link BroadcastSubscriber} slows down the producer accordingly.</p>
+ *
+ * <p>A single subscriber is accepted. Cancelling the subscription makes the next {@link #send(MessageEvent)} fail,
+ * so that the broadcaster evicts the event target; closing the event target completes the subscription once the
+ * pending events have been consumed.</p>
+ */
+public class PublisherEventTarget implements EventTarget, Publisher<MessageEvent>
+{
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final OutboundQueue queue;
+    private final String id;
+    private final AtomicInteger wip = new AtomicInteger();
+
+    private volatile Subscriber<? super MessageEvent> subscriber = null;
+    private volatile boolean cancelled = false;
+    private volatile boolean closed = false;
+    private volatile Throwable error = null;
+    /* accessed under the queue lock */
+    private long demand = 0;
+    private boolean subscribed = false;
+    private boolean terminated = false;
+
+    /**
+     * Builds a publisher disconnecting its subscriber when more than {@link #DEFAULT_CAPACITY} events are pending
+     * @param id event target id, see {@link EventTarget#getID()}
+     */
+    public PublisherEventTarget(String id)
+    {
+        this(id, new OutboundQueue(DEFAULT_CAPACITY, OverflowPolicy.DISCONNECT));
+    }
+
+    /**
+     * @param id event target id, see {@link EventTarget#getID()}
+     * @param queue queue of the events not yet requested by the subscriber
+     */
+    public PublisherEventTarget(String id, OutboundQueue queue)
+    {
+        this.id = id;
+        this.queue = queue;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super MessageEvent> subscriber)
+    {
+        if (subscriber == null) throw new NullPointerException("null subscriber");
+        boolean accepted;
+        synchronized (queue)
+        {
+            accepted = !subscribed;
+            subscribed = true;
+        }
+        if (!accepted)
+        {
+            subscriber.onSubscribe(new Subscription()
+            {
+                @Override
+                public void request(long n) {}
+
+                @Override
+                public void cancel() {}
+            });
+            subscriber.onError(new IllegalStateException("event target already has a subscriber"));
+            return;
+        }
+        this.subscriber = subscriber;
+        subscriber.onSubscribe(new Subscription()
+        {
+            @Override
+            public void request(long n)
+            {
+                if (n <= 0)
+                {
+                    fail(new IllegalArgumentException("requested events must be strictly positive"));
+                    return;
+                }
+                synchronized (queue)
+                {
+                    demand += n;
+                    // unbounded demand
+                    if (demand < 0) demand = Long.MAX_VALUE;
+                }
+                drain();
+            }
+
+            @Override
+            public void cancel()
+            {
+                cancelled = true;
+                queue.terminate();
+                PublisherEventTarget.this.subscriber = null;
+            }
+        });
+        // events received before the subscription
+        drain();
+    }
+
+    @Override
+    public PublisherEventTarget ok()
+    {
+        return this;
+    }
+
+    @Override
+    public PublisherEventTarget open() throws IOException
+    {
+        return this;
+    }
+
+    @Override
+    public PublisherEventTarget send(String event, String data) throws IOException
+    {
+        return send(new MessageEvent.Builder().setEvent(event).setData(data).build());
+    }
+
+    @Override
+    public PublisherEventTarget send(MessageEvent messageEvent) throws IOException
+    {
+        if (cancelled) throw new IOException("subscription cancelled");
+        if (closed) throw new IllegalStateException("event target is closed");
+        try
+        {
+            queue.offer(messageEvent);
+        }
+        catch (SlowConsumerException sce)
+        {
+            fail(sce);
+            throw sce;
+        }
+        drain();
+        return this;
+    }
+
+    /**
+     * Completes the subscription once the pending events have been consumed
+     */
+    @Override
+    public void close()
+    {
+        closed = true;
+        drain();
+    }
+
+    private void fail(Throwable throwable)
+    {
+        error = throwable;
+        cancelled = true;
+        queue.terminate();
+        drain();
+    }
+
+    /* emits the requested events and the terminal signal; only one thread at a time emits, the others leave it work */
+    private void drain()
+    {
+        if (wip.getAndIncrement() != 0) return;
+        int missed = 1;
+        do
+        {
+            Subscriber<? super MessageEvent> subscriber = this.subscriber;
+            if (subscriber != null)
+            {
+                while (true)
+                {
+                    MessageEvent next;
+                    Throwable failure = error;
+                    boolean complete;
+                    synchronized (queue)
+                    {
+                        if (terminated) break;
+                        next = failure == null && demand > 0 ? queue.poll() : null;
+                        if (next != null && demand != Long.MAX_VALUE) --demand;
+                        complete = failure != null || (closed && next == null && queue.isEmpty());
+                        if (complete) terminated = true;
+                    }
+                    if (next != null) subscriber.onNext(next);
+                    else
+                    {
+                        if (complete)
+                        {
+                            this.subscriber = null;
+                            if (failure != null) subscriber.onError(failure);
+                            else subscriber.onComplete();
+                        }
+                        break;
+                    }
+                }
+            }
+            missed = wip.addAndGet(-missed);
+        }
+        while (missed != 0);
+    }
+
+    @Override
+    public String getID()
+    {
+        return id;
+    }
+
+    @Override
+    public int getQueueDepth()
+    {
+        return queue.size();
+    }
+
+    @Override
+    public int getQueueCapacity()
+    {
+        return queue.getCapacity();
+    }
+
+    @Override
+    public int getLag()
+    {
+        return queue.getLag();
+    }
+}
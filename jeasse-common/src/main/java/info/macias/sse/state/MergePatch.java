@@ -0,0 +1,104 @@
+package info.macias.sse.state;
+
+import com.republicate.json.Json;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * <p>JSON merge patches (RFC 7396): a patch is an object holding the changed members, with a null value for
+ * removed members, nested objects being themselves patched recursively; any other value replaces the target.</p>
+ *
+ * <p>Since null means removal, null object members cannot be transmitted, and are dropped from copied values.</p>
+ */
+public final class MergePatch
+{
+    private MergePatch() {}
+
+    /**
+     * Computes the merge patch turning a JSON object into another one
+     * @param before previous object
+     * @param after new object
+     * @return patch, or null if both objects are equal
+     */
+    public static Json.Object diff(Map<String, ? extends Serializable> before, Map<String, ? extends Serializable> after)
+    {
+        Json.Object patch = null;
+        for (String key : before.keySet())
+        {
+            if (after.get(key) == null && before.get(key) != null)
+            {
+                if (patch == null) patch = new Json.Object();
+                patch.put(key, null);
+            }
+        }
+        for (Map.Entry<String, ? extends Serializable> entry : after.entrySet())
+        {
+            Serializable previous = before.get(entry.getKey()), value = entry.getValue();
+            if (value == null) continue;
+            Serializable change;
+            if (previous instanceof Map && value instanceof Map)
+            {
+                change = diff(asObject(previous), asObject(value));
+                if (change == null) continue;
+            }
+            else if (Objects.equals(previous, value)) continue;
+            else change = copy(value);
+            if (patch == null) patch = new Json.Object();
+            patch.put(entry.getKey(), change);
+        }
+        return patch;
+    }
+
+    /**
+     * Applies a merge patch
+     * @param target value to patch, left unchanged
+     * @param patch merge patch
+     * @return patched value
+     */
+    public static Serializable apply(Serializable target, Serializable patch)
+    {
+        if (!(patch instanceof Map)) return copy(patch);
+        Json.Object result = target instanceof Map ? (Json.Object)copy(target) : new Json.Object();
+        for (Map.Entry<String, ? extends Serializable> entry : asObject(patch).entrySet())
+        {
+            if (entry.getValue() == null) result.remove(entry.getKey());
+            else result.put(entry.getKey(), apply(result.get(entry.getKey()), entry.getValue()));
+        }
+        return result;
+    }
+
+    /**
+     * Deep copy of a JSON value, without null object members
+     * @param value JSON value
+     * @return copy
+     */
+    public static Serializable copy(Serializable value)
+    {
+        if (value instanceof Map)
+        {
+            Json.Object copy = new Json.Object();
+            for (Map.Entry<String, ? extends Serializable> entry : asObject(value).entrySet())
+            {
+                if (entry.getValue() != null) copy.put(entry.getKey(), copy(entry.getValue()));
+            }
+            return copy;
+        }
+        if (value instanceof List)
+        {
+            Json.Array copy = new Json.Array();
+            for (Object item : (List<?>)value) copy.add(copy((Serializable)item));
+            return copy;
+        }
+        // strings, numbers, booleans
+        return value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, ? extends Serializable> asObject(Serializable value)
+    {
+        return (Map<String, ? extends Serializable>)value;
+    }
+}
@@ -0,0 +1,240 @@
+package info.macias.sse.state;
+
+import com.republicate.json.Json;
+import info.macias.sse.EventBroadcast;
+import info.macias.sse.EventSelector;
+import info.macias.sse.EventTarget;
+import info.macias.sse.events.MessageEvent;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>Broadcaster synchronizing a set of JSON documents, identified by keys, with its subscribers.</p>
+ *
+ * <p>The documents form a single JSON object, the channel state, mapping keys to documents. Subscribers first
+ * receive the whole state in a <code>snapshot</code> event, and then <code>patch</code> events holding JSON merge
+ * patches (see {@link MergePatch}) of the state, computed by diffing each updated document against its previous
+ * version. Clients apply them with the RFC 7396 algorithm: unchanged members are not transmitted, nested objects
+ * are patched recursively, and removed members or documents have a null value.</p>
+ *
+ * <p>Subscribers resuming with a <code>Last-Event-ID</code> get a snapshot as well, rather than the missed
+ * patches, unless they missed nothing.</p>
+ *
+ * <p>Nothing is written to subscribers while holding the state lock: patches are queued in order and sent by one
+ * publisher at a time, and joining subscribers get the patches following their snapshot from a pending queue of
+ * their own, until they are registered.</p>
+ */
+public class StateBroadcast extends EventBroadcast
+{
+    public static final String SNAPSHOT_EVENT = "snapshot";
+    public static final String PATCH_EVENT = "patch";
+
+    /**
+     * Subscriber being sent its snapshot, with the patches broadcasted meanwhile
+     */
+    private static class Joiner
+    {
+        /* patches queued before the snapshot, which it already holds */
+        int skipped;
+        List<MessageEvent> pending = new ArrayList<>();
+
+        Joiner(int skipped)
+        {
+            this.skipped = skipped;
+        }
+    }
+
+    /* guards the state, the patches queue and the joiners, never held while writing */
+    private final Object stateLock = new Object();
+    private final Json.Object state = new Json.Object();
+    private String lastEventId = null;
+    private final Queue<MessageEvent> patches = new ArrayDeque<>();
+    private final Map<EventTarget, Joiner> joiners = new HashMap<>();
+
+    /* held while sending patches, so that they are sent in order */
+    private final ReentrantLock publishLock = new ReentrantLock();
+
+    /**
+     * Updates a document, and broadcasts the changes, if any
+     * @param key document key
+     * @param document new version of the document, copied, so that it can be modified afterwards
+     * @return whether the document changed
+     */
+    public boolean update(String key, Json document)
+    {
+        if (key == null || document == null) throw new IllegalArgumentException("null key or document");
+        return change(key, MergePatch.copy(document));
+    }
+
+    /**
+     * Removes a document, and broadcasts the removal
+     * @param key document key
+     * @return whether the document existed
+     */
+    public boolean removeState(String key)
+    {
+        return change(key, null);
+    }
+
+    private boolean change(String key, Serializable document)
+    {
+        synchronized (stateLock)
+        {
+            Serializable previous = state.get(key);
+            Json.Object patch = MergePatch.diff(Collections.singletonMap(key, previous), Collections.singletonMap(key, document));
+            if (patch == null) return false;
+            if (document == null) state.remove(key);
+            else state.put(key, document);
+            lastEventId = nextEventId();
+            // patches only make sense in sequence: they are not kept for replays
+            patches.add(new MessageEvent.Builder()
+                .setEvent(PATCH_EVENT)
+                .setData(patch)
+                .setId(lastEventId)
+                .setVolatile()
+                .build());
+        }
+        publishLock.lock();
+        try
+        {
+            publishPatches();
+        }
+        finally
+        {
+            publishLock.unlock();
+        }
+        return true;
+    }
+
+    /* broadcasts the queued patches, in order, also queueing them for the joiners; the publish lock must be held */
+    private void publishPatches()
+    {
+        while (true)
+        {
+            MessageEvent patch;
+            synchronized (stateLock)
+            {
+                patch = patches.poll();
+                if (patch == null) return;
+                for (Joiner joiner : joiners.values())
+                {
+                    if (joiner.skipped > 0) --joiner.skipped;
+                    else joiner.pending.add(patch);
+                }
+            }
+            broadcast(patch);
+        }
+    }
+
+    /**
+     * Current version of a document
+     * @param key document key
+     * @return copy of the document, or null
+     */
+    public Json getState(String key)
+    {
+        synchronized (stateLock)
+        {
+            return (Json)MergePatch.copy(state.get(key));
+        }
+    }
+
+    /**
+     * Keys of the current documents
+     * @return document keys
+     */
+    public List<String> getKeys()
+    {
+        synchronized (stateLock)
+        {
+            return new ArrayList<>(state.keySet());
+        }
+    }
+
+    /**
+     * Builds the snapshot event of the whole state
+     * @return snapshot event
+     */
+    protected MessageEvent snapshot()
+    {
+        synchronized (stateLock)
+        {
+            return new MessageEvent.Builder()
+                .setEvent(SNAPSHOT_EVENT)
+                .setData((Json)MergePatch.copy(state))
+                .setId(lastEventId)
+                .setVolatile()
+                .build();
+        }
+    }
+
+    /**
+     * Adds a subscriber, which receives the state snapshot, unless it is resuming and missed nothing
+     */
+    @Override
+    public void addSubscriber(EventTarget eventTarget, MessageEvent welcomeMessage, String lastEventId, EventSelector selector) throws IOException
+    {
+        MessageEvent snapshot = null;
+        Joiner joiner;
+        synchronized (stateLock)
+        {
+            if (lastEventId == null || !lastEventId.equals(this.lastEventId)) snapshot = snapshot();
+            joiner = new Joiner(patches.size());
+            joiners.put(eventTarget, joiner);
+        }
+        try
+        {
+            eventTarget.ok().open();
+            if (welcomeMessage != null) eventTarget.send(welcomeMessage);
+            if (snapshot != null && (selector == null || selector.matches(snapshot))) eventTarget.send(snapshot);
+            // no patch can be broadcasted to the subscriber before the ones following its snapshot are sent
+            while (true)
+            {
+                List<MessageEvent> missed;
+                publishLock.lock();
+                try
+                {
+                    publishPatches();
+                    synchronized (stateLock)
+                    {
+                        missed = joiner.pending;
+                        if (missed.isEmpty())
+                        {
+                            joiners.remove(eventTarget);
+                            register(eventTarget, selector);
+                            break;
+                        }
+                        joiner.pending = new ArrayList<>();
+                    }
+                }
+                finally
+                {
+                    publishLock.unlock();
+                }
+                for (MessageEvent patch : missed)
+                {
+                    if (selector == null || selector.matches(patch)) eventTarget.send(patch);
+                }
+            }
+        }
+        catch (IOException | RuntimeException e)
+        {
+            synchronized (stateLock)
+            {
+                joiners.remove(eventTarget);
+            }
+            throw e;
+        }
+        metrics.subscriberJoined();
+        subscriberJoined(eventTarget);
+    }
+}
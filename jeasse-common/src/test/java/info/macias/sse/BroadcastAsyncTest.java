@@ -0,0 +1,127 @@
+package info.macias.sse;
+
+import info.macias.sse.events.MessageEvent;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class BroadcastAsyncTest {
+
+    private static final int EVENTS = 100;
+
+    private void checkReports(EventBroadcast broadcast) throws Exception {
+        RecordingEventTarget healthy = new RecordingEventTarget(Integer.MAX_VALUE);
+        RecordingEventTarget failing = new RecordingEventTarget(EVENTS / 2);
+        broadcast.addSubscriber(healthy);
+        broadcast.addSubscriber(failing);
+
+        List<CompletableFuture<DeliveryReport>> reports = new ArrayList<>();
+        for (int i = 0; i < EVENTS; ++i) {
+            reports.add(broadcast.broadcastAsync(new MessageEvent.Builder().setData("data").setId(String.valueOf(i)).build()));
+        }
+        int failed = 0;
+        for (int i = 0; i < EVENTS; ++i) {
+            DeliveryReport report = reports.get(i).get(10, TimeUnit.SECONDS);
+            assertEquals(i < EVENTS / 2 ? 2 : 1, report.getDelivered());
+            failed += report.getFailed();
+            assertTrue(report.getNanos() >= 0);
+        }
+        assertEquals(1, failed);
+        assertEquals(EVENTS, healthy.ids.size());
+        for (int i = 0; i < EVENTS; ++i) {
+            assertEquals(String.valueOf(i), healthy.ids.get(i));
+        }
+        assertEquals(1, broadcast.getSubscriberCount());
+    }
+
+    @Test
+    public void testBroadcastAsync() throws Exception {
+        checkReports(new EventBroadcast());
+    }
+
+    @Test
+    public void testShardedBroadcastAsync() throws Exception {
+        ShardedEventBroadcast broadcast = new ShardedEventBroadcast(2);
+        checkReports(broadcast);
+        assertTrue(broadcast.shutdown(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testPublisherReturnsImmediately() throws Exception {
+        EventBroadcast broadcast = new EventBroadcast();
+        CountDownLatch release = new CountDownLatch(1);
+        broadcast.setPublishExecutor(runnable -> new Thread(() -> {
+            try {
+                release.await();
+            }
+            catch (InterruptedException ie) {
+                return;
+            }
+            runnable.run();
+        }).start());
+        CompletableFuture<DeliveryReport> report = broadcast.broadcastAsync(new MessageEvent.Builder().setData("data").build());
+        assertFalse(report.isDone());
+        release.countDown();
+        assertEquals(0, report.get(10, TimeUnit.SECONDS).getDelivered());
+    }
+
+    @Test
+    public void testBoundedPublishQueue() throws Exception {
+        EventBroadcast broadcast = new EventBroadcast();
+        CountDownLatch release = new CountDownLatch(1);
+        broadcast.addSubscriber(new RecordingEventTarget(Integer.MAX_VALUE) {
+            @Override
+            public EventTarget send(MessageEvent messageEvent) throws IOException {
+                try {
+                    release.await();
+                } catch (InterruptedException ie) {
+                    throw new IOException("interrupted");
+                }
+                return super.send(messageEvent);
+            }
+        });
+        List<CompletableFuture<DeliveryReport>> reports = new ArrayList<>();
+        for (int i = 0; i < EventBroadcast.DEFAULT_PUBLISH_QUEUE_CAPACITY + 2; ++i) {
+            reports.add(broadcast.broadcastAsync(new MessageEvent.Builder().setData("data").build()));
+        }
+        // one event being published, and a full queue
+        CompletableFuture<DeliveryReport> rejected = reports.get(reports.size() - 1);
+        assertTrue(rejected.isCompletedExceptionally());
+        try {
+            rejected.get();
+            fail("event accepted by a full queue");
+        } catch (ExecutionException ee) {
+            assertTrue(ee.getCause() instanceof RejectedExecutionException);
+        }
+        release.countDown();
+        assertEquals(1, reports.get(reports.size() - 2).get(10, TimeUnit.SECONDS).getDelivered());
+        broadcast.close();
+    }
+
+    @Test
+    public void testPublishError() throws Exception {
+        EventBroadcast broadcast = new EventBroadcast();
+        broadcast.addSubscriber(new RecordingEventTarget(Integer.MAX_VALUE) {
+            @Override
+            public EventTarget send(MessageEvent messageEvent) throws IOException {
+                throw new LinkageError("broken subscriber");
+            }
+        });
+        try {
+            broadcast.broadcastAsync(new MessageEvent.Builder().setData("data").build()).get(10, TimeUnit.SECONDS);
+            fail("error not reported");
+        } catch (ExecutionException ee) {
+            assertTrue(ee.getCause() instanceof LinkageError);
+        }
+        broadcast.close();
+    }
+}
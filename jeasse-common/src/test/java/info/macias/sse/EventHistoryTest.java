@@ -0,0 +1,83 @@
+package info.macias.sse;
+
+import info.macias.sse.events.MessageEvent;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class EventHistoryTest {
+
+    private static MessageEvent event(String id) {
+        return new MessageEvent.Builder().setData("data").setId(id).build();
+    }
+
+    private static String ids(List<MessageEvent> events) {
+        return events.stream().map(MessageEvent::getId).collect(Collectors.joining(","));
+    }
+
+    @Test
+    public void testNumericIds() {
+        EventHistory history = new EventHistory(5);
+        for (int i = 1; i <= 8; ++i) {
+            assertTrue(history.append(event(String.valueOf(i))));
+        }
+        assertEquals(5, history.size());
+        assertEquals(8, history.getHeadSequence());
+        assertEquals("7,8", ids(history.since("6")));
+        // zero-padded ids are equivalent
+        assertEquals("7,8", ids(history.since("0000000006")));
+        // evicted id: everything newer is sent
+        assertEquals("4,5,6,7,8", ids(history.since("1")));
+        assertEquals("", ids(history.since("8")));
+        // duplicates are ignored
+        assertFalse(history.append(event("8")));
+        assertFalse(history.append(event("5")));
+        assertEquals(5, history.size());
+    }
+
+    @Test
+    public void testStringIds() {
+        EventHistory history = new EventHistory(3);
+        for (String id : new String[] { "a", "c", "b", "d" }) {
+            history.append(event(id));
+        }
+        assertEquals("b,d", ids(history.since("c")));
+        assertEquals("", ids(history.since("a")));
+        assertEquals("", ids(history.since("unknown")));
+    }
+
+    @Test
+    public void testIgnoredEvents() {
+        EventHistory history = new EventHistory();
+        assertFalse(history.append(new MessageEvent.Builder().setData("no id").build()));
+        assertFalse(history.append(new MessageEvent.Builder().setData("volatile").setId("1").setVolatile().build()));
+        assertEquals(0, history.size());
+    }
+
+    @Test
+    public void testGeneratedIds() {
+        EventHistory history = new EventHistory();
+        history.append(event("41"));
+        String id = history.nextId();
+        assertEquals("42", id);
+        history.append(event(id));
+        assertEquals("43", history.nextId());
+        assertEquals("42", ids(history.since("41")));
+    }
+
+    @Test
+    public void testIdStride() {
+        EventHistory history = new EventHistory();
+        history.setIdStride(3, 1);
+        assertEquals("1", history.nextId());
+        assertEquals("4", history.nextId());
+        // ids received from other nodes
+        history.append(event("9"));
+        assertEquals("10", history.nextId());
+        history.append(event("11"));
+        assertEquals("13", history.nextId());
+    }
+}
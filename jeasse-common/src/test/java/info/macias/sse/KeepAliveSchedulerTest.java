@@ -0,0 +1,159 @@
+package info.macias.sse;
+
+import info.macias.sse.events.MessageEvent;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class KeepAliveSchedulerTest {
+
+    /**
+     * Event target counting heartbeats, with a settable last write time
+     */
+    private static class HeartbeatEventTarget implements EventTarget {
+        final AtomicInteger heartbeats = new AtomicInteger();
+        volatile long lastWriteTime = 0L;
+        volatile boolean broken = false;
+        volatile CountDownLatch gate = null;
+
+        @Override
+        public EventTarget ok() {
+            return this;
+        }
+
+        @Override
+        public EventTarget open() throws IOException {
+            return this;
+        }
+
+        @Override
+        public EventTarget send(String event, String data) throws IOException {
+            return this;
+        }
+
+        @Override
+        public EventTarget send(MessageEvent messageEvent) throws IOException {
+            return this;
+        }
+
+        @Override
+        public void keepAlive() throws IOException {
+            if (broken) throw new IOException("broken pipe");
+            heartbeats.incrementAndGet();
+            if (gate != null) {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    throw new IOException("interrupted");
+                }
+            }
+        }
+
+        @Override
+        public long getLastWriteTime() {
+            return lastWriteTime;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void testIdleOnly() throws Exception {
+        try (KeepAliveScheduler scheduler = new KeepAliveScheduler(50, TimeUnit.MILLISECONDS, 8)) {
+            EventBroadcast broadcast = new EventBroadcast();
+            broadcast.setKeepAliveScheduler(scheduler);
+            HeartbeatEventTarget idle = new HeartbeatEventTarget();
+            HeartbeatEventTarget active = new HeartbeatEventTarget();
+            broadcast.addSubscriber(idle);
+            broadcast.addSubscriber(active);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (idle.heartbeats.get() < 3 && System.currentTimeMillis() < deadline) {
+                active.lastWriteTime = System.currentTimeMillis();
+                Thread.sleep(5);
+            }
+            assertTrue(idle.heartbeats.get() >= 3);
+            assertEquals(0, active.heartbeats.get());
+        }
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        try (KeepAliveScheduler scheduler = new KeepAliveScheduler(20, TimeUnit.MILLISECONDS, 4)) {
+            AtomicInteger left = new AtomicInteger();
+            EventBroadcast broadcast = new EventBroadcast() {
+                @Override
+                public void subscriberLeft(EventTarget target) {
+                    left.incrementAndGet();
+                }
+            };
+            broadcast.setKeepAliveScheduler(scheduler);
+            HeartbeatEventTarget target = new HeartbeatEventTarget();
+            broadcast.addSubscriber(target);
+            assertEquals(1, broadcast.getSubscriberCount());
+            target.broken = true;
+            long deadline = System.currentTimeMillis() + 5000;
+            while (broadcast.getSubscriberCount() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(0, broadcast.getSubscriberCount());
+            assertEquals(1, left.get());
+        }
+    }
+
+    @Test
+    public void testStalledHeartbeat() throws Exception {
+        try (KeepAliveScheduler scheduler = new KeepAliveScheduler(20, TimeUnit.MILLISECONDS, 1)) {
+            EventBroadcast broadcast = new EventBroadcast();
+            broadcast.setKeepAliveScheduler(scheduler);
+            HeartbeatEventTarget stalled = new HeartbeatEventTarget();
+            stalled.gate = new CountDownLatch(1);
+            HeartbeatEventTarget idle = new HeartbeatEventTarget();
+            broadcast.addSubscriber(stalled);
+            broadcast.addSubscriber(idle);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (idle.heartbeats.get() < 5 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            // the stalled write neither holds up the other subscribers, nor gets more heartbeats piled up
+            assertTrue(idle.heartbeats.get() >= 5);
+            assertEquals(1, stalled.heartbeats.get());
+            stalled.gate.countDown();
+        }
+    }
+
+    @Test
+    public void testBoundedHeartbeatThreads() throws Exception {
+        try (KeepAliveScheduler scheduler = new KeepAliveScheduler(20, TimeUnit.MILLISECONDS, 1, 2)) {
+            EventBroadcast broadcast = new EventBroadcast();
+            broadcast.setKeepAliveScheduler(scheduler);
+            CountDownLatch gate = new CountDownLatch(1);
+            List<HeartbeatEventTarget> stalled = new ArrayList<>();
+            for (int i = 0; i < 10; ++i) {
+                HeartbeatEventTarget target = new HeartbeatEventTarget();
+                target.gate = gate;
+                stalled.add(target);
+                broadcast.addSubscriber(target);
+            }
+            Thread.sleep(200);
+            // the stalled writes hold the two heartbeat threads, no more are started for the other heartbeats
+            int heartbeats = 0;
+            for (HeartbeatEventTarget target : stalled) heartbeats += target.heartbeats.get();
+            assertEquals(2, heartbeats);
+            gate.countDown();
+            long deadline = System.currentTimeMillis() + 5000;
+            for (HeartbeatEventTarget target : stalled) {
+                while (target.heartbeats.get() == 0 && System.currentTimeMillis() < deadline) Thread.sleep(5);
+                assertTrue(target.heartbeats.get() > 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package info.macias.sse;
+
+import info.macias.sse.events.MessageEvent;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class OutboundQueueTest {
+
+    private static MessageEvent event(String id) {
+        return new MessageEvent.Builder().setData("data").setId(id).build();
+    }
+
+    @Test
+    public void testDropOldest() throws Exception {
+        OutboundQueue queue = new OutboundQueue(2, OverflowPolicy.DROP_OLDEST);
+        assertTrue(queue.offer(event("1")));
+        assertTrue(queue.offer(event("2")));
+        assertFalse(queue.offer(event("3")));
+        assertEquals(2, queue.size());
+        assertEquals(1, queue.getDropped());
+        assertEquals("2", queue.poll().getId());
+        assertEquals("3", queue.poll().getId());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void testDropNewest() throws Exception {
+        OutboundQueue queue = new OutboundQueue(2, OverflowPolicy.DROP_NEWEST);
+        queue.offer(event("1"));
+        queue.offer(event("2"));
+        assertFalse(queue.offer(event("3")));
+        assertEquals(1, queue.getDropped());
+        assertEquals("1", queue.poll().getId());
+        assertEquals("2", queue.poll().getId());
+    }
+
+    @Test
+    public void testLag() throws Exception {
+        OutboundQueue oldest = new OutboundQueue(2, OverflowPolicy.DROP_OLDEST);
+        for (int i = 1; i <= 5; ++i) oldest.offer(event(String.valueOf(i)));
+        assertEquals(2, oldest.size());
+        // the dropped events count in the lag
+        assertEquals(5, oldest.getLag());
+        oldest.poll();
+        assertEquals(1, oldest.getLag());
+        oldest.poll();
+        assertEquals(0, oldest.getLag());
+
+        OutboundQueue newest = new OutboundQueue(2, OverflowPolicy.DROP_NEWEST);
+        for (int i = 1; i <= 5; ++i) newest.offer(event(String.valueOf(i)));
+        assertEquals(5, newest.getLag());
+        newest.poll();
+        newest.poll();
+        // the dropped events are never written, the lag only catches up with the next written one
+        assertEquals(3, newest.getLag());
+        newest.offer(event("6"));
+        newest.poll();
+        assertEquals(0, newest.getLag());
+
+        newest.offer(event("7"));
+        newest.clear();
+        assertEquals(0, newest.getLag());
+    }
+
+    @Test(expected = SlowConsumerException.class)
+    public void testDisconnect() throws Exception {
+        OutboundQueue queue = new OutboundQueue(1, OverflowPolicy.DISCONNECT);
+        queue.offer(event("1"));
+        queue.offer(event("2"));
+    }
+
+    @Test
+    public void testBlock() throws Exception {
+        OutboundQueue queue = new OutboundQueue(1, OverflowPolicy.BLOCK).setBlockTimeout(5000);
+        queue.offer(event("1"));
+        Thread consumer = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {}
+            queue.poll();
+        });
+        consumer.start();
+        // blocks until the consumer makes room
+        assertTrue(queue.offer(event("2")));
+        consumer.join();
+        assertEquals("2", queue.poll().getId());
+    }
+
+    @Test(expected = SlowConsumerException.class)
+    public void testBlockTimeout() throws Exception {
+        OutboundQueue queue = new OutboundQueue(1, OverflowPolicy.BLOCK).setBlockTimeout(20);
+        queue.offer(event("1"));
+        queue.offer(event("2"));
+    }
+
+    private static MessageEvent update(String key, String value) {
+        return new MessageEvent.Builder().setData(value).setConflationKey(key).build();
+    }
+
+    @Test
+    public void testConflation() throws Exception {
+        OutboundQueue queue = new OutboundQueue(3, OverflowPolicy.DISCONNECT).setConflation(true);
+        queue.offer(update("EUR", "1.10"));
+        queue.offer(update("USD", "1.00"));
+        queue.offer(event("1"));
+        // replaced in place, without consuming capacity
+        queue.offer(update("EUR", "1.11"));
+        queue.offer(update("EUR", "1.12"));
+        assertEquals(3, queue.size());
+        assertEquals(2, queue.getConflated());
+        assertEquals("1.12", queue.poll().getData());
+        // once sent, a new value is queued again
+        queue.offer(update("EUR", "1.13"));
+        assertEquals("1.00", queue.poll().getData());
+        assertEquals("1", queue.poll().getId());
+        assertEquals("1.13", queue.poll().getData());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void testBlockedConflation() throws Exception {
+        OutboundQueue queue = new OutboundQueue(1, OverflowPolicy.BLOCK).setBlockTimeout(5000).setConflation(true);
+        queue.offer(event("1"));
+        List<Thread> publishers = new ArrayList<>();
+        for (String value : new String[] { "1.10", "1.11" }) {
+            Thread publisher = new Thread(() -> {
+                try {
+                    queue.offer(update("EUR", value));
+                } catch (SlowConsumerException e) {}
+            });
+            publisher.start();
+            publishers.add(publisher);
+        }
+        for (Thread publisher : publishers) {
+            while (publisher.getState() != Thread.State.TIMED_WAITING) Thread.yield();
+        }
+        assertEquals("1", queue.poll().getId());
+        for (Thread publisher : publishers) publisher.join(5000);
+        // both publishers waited for room, the second one conflates with the first one
+        assertEquals(1, queue.size());
+        assertEquals("EUR", queue.poll().getConflationKey());
+        assertNull(queue.poll());
+        assertEquals(0, queue.getLag());
+    }
+
+    @Test
+    public void testPendingBytesAndStall() throws Exception {
+        OutboundQueue queue = new OutboundQueue(3, OverflowPolicy.DROP_OLDEST);
+        assertEquals(0, queue.getPendingBytes());
+        assertEquals(0, queue.getStallTime());
+        int size = event("1").getBytes().length;
+        queue.offer(event("1"));
+        queue.offer(event("2"));
+        queue.offer(event("3"));
+        queue.offer(event("4"));
+        assertEquals(3 * size, queue.getPendingBytes());
+        Thread.sleep(30);
+        assertTrue(queue.getStallTime() >= 20);
+        queue.poll();
+        assertTrue(queue.getStallTime() < 20);
+        assertEquals(2 * size, queue.getPendingBytes());
+        queue.clear();
+        assertEquals(0, queue.getPendingBytes());
+        assertEquals(0, queue.getStallTime());
+    }
+}
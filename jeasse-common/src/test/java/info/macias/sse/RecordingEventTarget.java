@@ -0,0 +1,113 @@
+package info.macias.sse;
+
+import info.macias.sse.events.MessageEvent;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Event target recording the events it receives, shared by the tests. It can stall its next write, fail on
+ * demand, and report the given statistics.
+ */
+public class RecordingEventTarget implements EventTarget {
+    /** received event ids, or <code>retry:</code> followed by the hint for reconnection hints */
+    public final List<String> ids = Collections.synchronizedList(new ArrayList<>());
+    public final List<MessageEvent> received = new CopyOnWriteArrayList<>();
+    public final CountDownLatch closed = new CountDownLatch(1);
+    /** counted down when a write starts waiting for the gate */
+    public final CountDownLatch stalled = new CountDownLatch(1);
+    /** the next write waits until this gate opens */
+    public volatile CountDownLatch gate = null;
+    public volatile IOException failure = null;
+    public volatile int failAfter = Integer.MAX_VALUE;
+    public volatile Thread writer = null;
+    public volatile int frames = 0;
+    public volatile long writeLatency = 0;
+    public volatile int retryHint = -1;
+    public String id = "";
+
+    public RecordingEventTarget() {
+    }
+
+    /**
+     * @param failAfter number of events received before the next writes fail
+     */
+    public RecordingEventTarget(int failAfter) {
+        this.failAfter = failAfter;
+    }
+
+    @Override
+    public EventTarget ok() {
+        return this;
+    }
+
+    @Override
+    public EventTarget open() throws IOException {
+        return this;
+    }
+
+    @Override
+    public EventTarget send(String event, String data) throws IOException {
+        return this;
+    }
+
+    @Override
+    public EventTarget send(MessageEvent messageEvent) throws IOException {
+        writer = Thread.currentThread();
+        CountDownLatch gate = this.gate;
+        if (gate != null) {
+            this.gate = null;
+            stalled.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                throw new IOException("interrupted");
+            }
+        }
+        if (failure != null) throw failure;
+        if (ids.size() >= failAfter) throw new IOException("broken pipe");
+        ids.add(messageEvent.getId() == null ? "retry:" + messageEvent.getRetry() : messageEvent.getId());
+        received.add(messageEvent);
+        return this;
+    }
+
+    @Override
+    public EventTarget sendFrame(byte[] frame) throws IOException {
+        ++frames;
+        return EventTarget.super.sendFrame(frame);
+    }
+
+    /**
+     * @return types of the received events
+     */
+    public List<String> types() {
+        List<String> types = new ArrayList<>();
+        for (MessageEvent event : received) types.add(EventSelector.typeOf(event));
+        return types;
+    }
+
+    @Override
+    public String getID() {
+        return id;
+    }
+
+    @Override
+    public long getWriteLatency() {
+        return writeLatency;
+    }
+
+    @Override
+    public void disconnect(int retryHint) {
+        this.retryHint = retryHint;
+        EventTarget.super.disconnect(retryHint);
+    }
+
+    @Override
+    public void close() {
+        closed.countDown();
+    }
+}
@@ -0,0 +1,89 @@
+package info.macias.sse;
+
+import info.macias.sse.events.MessageEvent;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ShardedEventBroadcastTest {
+
+    private static final int TARGETS = 100;
+    private static final int EVENTS = 200;
+
+    @Test
+    public void testOrderedDelivery() throws Exception {
+        ShardedEventBroadcast broadcast = new ShardedEventBroadcast(4);
+        assertEquals(4, broadcast.getShardCount());
+        List<RecordingEventTarget> targets = new ArrayList<>();
+        for (int i = 0; i < TARGETS; ++i) {
+            // one target out of ten disconnects midway
+            RecordingEventTarget target = new RecordingEventTarget(i % 10 == 0 ? EVENTS / 2 : Integer.MAX_VALUE);
+            targets.add(target);
+            broadcast.addSubscriber(target);
+        }
+        for (int i = 0; i < EVENTS; ++i) {
+            broadcast.broadcast(new MessageEvent.Builder().setData("data").setId(String.valueOf(i)).build());
+        }
+        assertTrue(broadcast.shutdown(10, TimeUnit.SECONDS));
+
+        for (RecordingEventTarget target : targets) {
+            assertEquals(Math.min(EVENTS, target.failAfter), target.ids.size());
+            for (int i = 0; i < target.ids.size(); ++i) {
+                assertEquals(String.valueOf(i), target.ids.get(i));
+            }
+        }
+        assertEquals(TARGETS - TARGETS / 10, broadcast.getSubscriberCount());
+    }
+
+    @Test
+    public void testJoinDuringBroadcast() throws Exception {
+        ShardedEventBroadcast broadcast = new ShardedEventBroadcast(1);
+        RecordingEventTarget busy = new RecordingEventTarget(Integer.MAX_VALUE);
+        CountDownLatch gate = new CountDownLatch(1);
+        busy.gate = gate;
+        broadcast.addSubscriber(busy);
+        // the event is in the history, but still being delivered by the shard
+        broadcast.broadcast(new MessageEvent.Builder().setData("data").setId("1").build());
+        RecordingEventTarget joiner = new RecordingEventTarget(Integer.MAX_VALUE);
+        broadcast.addSubscriber(joiner, "0");
+        gate.countDown();
+        broadcast.broadcast(new MessageEvent.Builder().setData("data").setId("2").build());
+        assertTrue(broadcast.shutdown(10, TimeUnit.SECONDS));
+
+        assertEquals(2, busy.ids.size());
+        // replayed from the history, then delivered by the shard, once each
+        assertEquals(2, joiner.ids.size());
+        assertEquals("1", joiner.ids.get(0));
+        assertEquals("2", joiner.ids.get(1));
+    }
+
+    @Test
+    public void testCloseStopsWriters() throws Exception {
+        List<Thread> threads = new ArrayList<>();
+        ShardedEventBroadcast broadcast = new ShardedEventBroadcast(2, runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setDaemon(true);
+            synchronized (threads) {
+                threads.add(thread);
+            }
+            return thread;
+        });
+        RecordingEventTarget target = new RecordingEventTarget(Integer.MAX_VALUE);
+        broadcast.addSubscriber(target);
+        broadcast.broadcast(new MessageEvent.Builder().setData("data").setId("1").build());
+        broadcast.close();
+        synchronized (threads) {
+            assertFalse(threads.isEmpty());
+            for (Thread thread : threads) {
+                thread.join(5000);
+                assertFalse(thread.isAlive());
+            }
+        }
+        assertEquals(0, broadcast.getSubscriberCount());
+    }
+}
@@ -0,0 +1,95 @@
+package info.macias.sse;
+
+import info.macias.sse.events.MessageEvent;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SlowConsumerPolicyTest {
+
+    /**
+     * Broadcaster recording why subscribers left
+     */
+    private static class RecordingBroadcast extends EventBroadcast {
+        final Map<EventTarget, LeaveReason> left = new ConcurrentHashMap<>();
+
+        @Override
+        public void subscriberLeft(EventTarget target, LeaveReason reason) {
+            left.put(target, reason);
+        }
+    }
+
+    private static MessageEvent event(int id) {
+        return new MessageEvent.Builder().setData("data").setId(String.valueOf(id)).build();
+    }
+
+    @Test
+    public void testLag() throws Exception {
+        RecordingBroadcast broadcast = new RecordingBroadcast();
+        broadcast.setSlowConsumerPolicy(new SlowConsumerPolicy().setMaxLag(5).setRetryHint(1000));
+        RecordingEventTarget stuck = new RecordingEventTarget();
+        CountDownLatch gate = new CountDownLatch(1);
+        stuck.gate = gate;
+        ThreadedEventTarget threaded = new ThreadedEventTarget(stuck);
+        RecordingEventTarget healthy = new RecordingEventTarget();
+        broadcast.addSubscriber(threaded);
+        broadcast.addSubscriber(healthy);
+
+        for (int i = 0; i < 10; ++i) {
+            broadcast.broadcast(event(i));
+        }
+        assertEquals(LeaveReason.SLOW_CONSUMER, broadcast.left.get(threaded));
+        assertEquals(1, broadcast.getSubscriberCount());
+        assertEquals(10, healthy.ids.size());
+
+        // pending events are dropped, the client gets a reconnection hint before the connection is closed
+        gate.countDown();
+        assertTrue(stuck.closed.await(5, TimeUnit.SECONDS));
+        assertEquals("retry:1000", stuck.ids.get(stuck.ids.size() - 1));
+        assertTrue(stuck.ids.size() < 10);
+    }
+
+    @Test
+    public void testWriteLatency() throws Exception {
+        RecordingBroadcast broadcast = new RecordingBroadcast();
+        broadcast.setSlowConsumerPolicy(new SlowConsumerPolicy().setMaxWriteLatency(1, TimeUnit.SECONDS).setRetryHint(2000));
+        RecordingEventTarget slow = new RecordingEventTarget();
+        broadcast.addSubscriber(slow);
+        broadcast.broadcast(event(0));
+        assertEquals(1, broadcast.getSubscriberCount());
+
+        slow.writeLatency = 1500;
+        assertFalse(broadcast.broadcast(event(1)));
+        assertEquals(LeaveReason.SLOW_CONSUMER, broadcast.left.get(slow));
+        assertEquals(2000, slow.retryHint);
+        assertEquals(0, slow.closed.getCount());
+        assertEquals(0, broadcast.getSubscriberCount());
+    }
+
+    @Test
+    public void testLeaveReasons() throws Exception {
+        RecordingBroadcast broadcast = new RecordingBroadcast();
+        RecordingEventTarget gone = new RecordingEventTarget();
+        RecordingEventTarget overflowed = new RecordingEventTarget();
+        RecordingEventTarget removed = new RecordingEventTarget();
+        removed.id = "user";
+        broadcast.addSubscriber(gone);
+        broadcast.addSubscriber(overflowed);
+        broadcast.addSubscriber(removed);
+        gone.failure = new IOException("broken pipe");
+        overflowed.failure = new SlowConsumerException("outbound queue is full");
+        broadcast.broadcast(event(0));
+        broadcast.remove("user");
+
+        assertEquals(LeaveReason.DISCONNECTED, broadcast.left.get(gone));
+        assertEquals(LeaveReason.SLOW_CONSUMER, broadcast.left.get(overflowed));
+        assertEquals(LeaveReason.REMOVED, broadcast.left.get(removed));
+        assertEquals(0, broadcast.getSubscriberCount());
+    }
+}
@@ -0,0 +1,93 @@
+package info.macias.sse;
+
+import info.macias.sse.events.MessageEvent;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+import static org.junit.Assert.*;
+
+public class StreamCompressorTest {
+
+    private static byte[] frame(int i) {
+        StringBuilder data = new StringBuilder("{\"sequence\":").append(i);
+        // alternate frames below and above the threshold
+        if (i % 2 == 0) for (int j = 0; j < 20; ++j) data.append(",\"key").append(j).append("\":\"some verbose value\"");
+        return new MessageEvent.Builder().setId(String.valueOf(i)).setData(data.append('}').toString()).build().getBytes();
+    }
+
+    @Test
+    public void testNegotiation() {
+        assertEquals(Compression.GZIP, Compression.negotiate("gzip, deflate, br"));
+        assertEquals(Compression.DEFLATE, Compression.negotiate("deflate;q=0.5, gzip;q=0"));
+        assertEquals(Compression.GZIP, Compression.negotiate("br, GZIP;q=0.8"));
+        assertNull(Compression.negotiate("identity"));
+        assertNull(Compression.negotiate(null));
+    }
+
+    @Test
+    public void testEventsFlushed() throws Exception {
+        Compression compression = new Compression.Builder().setThreshold(128).setBufferSize(64).build();
+        try (StreamCompressor compressor = compression.open(Compression.DEFLATE)) {
+            Inflater inflater = new Inflater();
+            byte[] output = new byte[4096];
+            long raw = 0, compressed = 0;
+            for (int i = 0; i < 50; ++i) {
+                byte[] frame = frame(i);
+                byte[] bytes = compressor.compress(frame);
+                raw += frame.length;
+                compressed += bytes.length;
+                // each event can be decoded as soon as it is received
+                inflater.setInput(bytes);
+                int length = inflater.inflate(output);
+                assertEquals(new String(frame, StandardCharsets.UTF_8), new String(output, 0, length, StandardCharsets.UTF_8));
+            }
+            assertTrue("compressed " + compressed + " of " + raw, compressed * 2 < raw);
+            inflater.end();
+        }
+    }
+
+    @Test
+    public void testGzipStream() throws Exception {
+        Compression compression = new Compression.Builder().build();
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        StreamCompressor compressor = compression.open(Compression.GZIP);
+        for (int i = 0; i < 10; ++i) {
+            byte[] frame = frame(i);
+            expected.write(frame);
+            stream.write(compressor.compress(frame));
+        }
+        stream.write(compressor.finish());
+        compressor.close();
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(stream.toByteArray()))) {
+            ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            for (int count; (count = in.read(buffer)) > 0; ) decoded.write(buffer, 0, count);
+            assertArrayEquals(expected.toByteArray(), decoded.toByteArray());
+        }
+    }
+
+    @Test
+    public void testStreamsCap() {
+        Compression compression = new Compression.Builder().setMaxStreams(2).build();
+        StreamCompressor first = compression.open(Compression.GZIP);
+        StreamCompressor second = compression.open(Compression.DEFLATE);
+        assertNotNull(first);
+        assertNotNull(second);
+        assertNull(compression.open(Compression.GZIP));
+        first.close();
+        first.close();
+        assertEquals(1, compression.getOpenStreams());
+        StreamCompressor third = compression.open(Compression.GZIP);
+        assertNotNull(third);
+        second.close();
+        third.close();
+        assertEquals(0, compression.getOpenStreams());
+    }
+}
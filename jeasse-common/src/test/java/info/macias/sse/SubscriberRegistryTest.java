@@ -0,0 +1,139 @@
+package info.macias.sse;
+
+import info.macias.sse.events.MessageEvent;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SubscriberRegistryTest {
+
+    private static class NamedEventTarget implements EventTarget {
+        final String id;
+        final List<String> received = new ArrayList<>();
+        boolean failing = false;
+
+        NamedEventTarget(String id) {
+            this.id = id;
+        }
+
+        @Override
+        public EventTarget ok() {
+            return this;
+        }
+
+        @Override
+        public EventTarget open() throws IOException {
+            return this;
+        }
+
+        @Override
+        public EventTarget send(String event, String data) throws IOException {
+            return this;
+        }
+
+        @Override
+        public synchronized EventTarget send(MessageEvent messageEvent) throws IOException {
+            if (failing) throw new IOException();
+            received.add(messageEvent.getData());
+            return this;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public String getID() {
+            return id;
+        }
+    }
+
+    @Test
+    public void testRegistry() {
+        SubscriberRegistry registry = new SubscriberRegistry();
+        NamedEventTarget alice1 = new NamedEventTarget("alice"), alice2 = new NamedEventTarget("alice");
+        NamedEventTarget bob = new NamedEventTarget("bob"), anonymous = new NamedEventTarget("");
+        assertTrue(registry.add(alice1));
+        assertFalse(registry.add(alice1));
+        registry.add(alice2);
+        registry.add(bob);
+        registry.add(anonymous);
+        assertEquals(4, registry.size());
+        assertEquals(2, registry.get("alice").size());
+        assertTrue(registry.get("").isEmpty());
+        assertTrue(registry.get("carol").isEmpty());
+
+        assertTrue(registry.remove(alice1));
+        assertFalse(registry.remove(alice1));
+        assertEquals(3, registry.size());
+        assertEquals(1, registry.get("alice").size());
+
+        for (Iterator<EventTarget> it = registry.iterator(); it.hasNext(); ) {
+            if (it.next() == bob) it.remove();
+        }
+        assertEquals(2, registry.size());
+        assertTrue(registry.get("bob").isEmpty());
+        assertFalse(registry.contains(bob));
+
+        registry.clear();
+        assertTrue(registry.isEmpty());
+        assertTrue(registry.get("alice").isEmpty());
+    }
+
+    @Test
+    public void testUnicastAndRemove() throws Exception {
+        List<EventTarget> left = new ArrayList<>();
+        EventBroadcast broadcast = new EventBroadcast() {
+            @Override
+            public void subscriberLeft(EventTarget target) {
+                left.add(target);
+            }
+        };
+        NamedEventTarget alice1 = new NamedEventTarget("alice"), alice2 = new NamedEventTarget("alice");
+        NamedEventTarget bob = new NamedEventTarget("bob");
+        broadcast.addSubscriber(alice1);
+        broadcast.addSubscriber(alice2, EventSelector.events("chat"));
+        broadcast.addSubscriber(bob);
+        assertEquals(3, broadcast.getSubscriberCount());
+
+        assertTrue(broadcast.send("alice", new MessageEvent.Builder().setData("hi alice").build()));
+        assertFalse(broadcast.send("carol", new MessageEvent.Builder().setData("hi carol").build()));
+        assertEquals(1, alice1.received.size());
+        assertEquals(1, alice2.received.size());
+        assertTrue(bob.received.isEmpty());
+
+        bob.failing = true;
+        assertFalse(broadcast.send("bob", new MessageEvent.Builder().setData("hi bob").build()));
+        assertEquals(2, broadcast.getSubscriberCount());
+        assertEquals(1, left.size());
+
+        broadcast.remove("alice");
+        assertEquals(0, broadcast.getSubscriberCount());
+        assertEquals(3, left.size());
+    }
+
+    @Test
+    public void testShardedUnicast() throws Exception {
+        ShardedEventBroadcast broadcast = new ShardedEventBroadcast(4);
+        List<NamedEventTarget> targets = new ArrayList<>();
+        for (int i = 0; i < 8; ++i) {
+            NamedEventTarget target = new NamedEventTarget("user" + (i % 2));
+            targets.add(target);
+            broadcast.addSubscriber(target);
+        }
+        assertTrue(broadcast.send("user1", new MessageEvent.Builder().setData("hi").build()));
+        broadcast.remove("user0");
+        assertEquals(4, broadcast.getSubscriberCount());
+        broadcast.broadcast(new MessageEvent.Builder().setData("all").build());
+        assertTrue(broadcast.shutdown(10, TimeUnit.SECONDS));
+        for (int i = 0; i < targets.size(); ++i) {
+            assertEquals(i % 2 == 0 ? 0 : 2, targets.get(i).received.size());
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package info.macias.sse;
+
+import info.macias.sse.events.MessageEvent;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SubscriptionIndexTest {
+
+    @Test
+    public void testSelector() {
+        EventSelector selector = new EventSelector(Arrays.asList("chat.message", "presence"), Arrays.asList("chat.", "chat.room."));
+        assertEquals(Collections.singleton("presence"), selector.getNames());
+        assertEquals(Collections.singleton("chat."), selector.getPrefixes());
+        assertTrue(selector.matches("chat.room.join"));
+        assertTrue(selector.matches("presence"));
+        assertFalse(selector.matches("presence.away"));
+        assertTrue(EventSelector.events("message").matches(new MessageEvent.Builder().setData("untyped").build()));
+    }
+
+    private void broadcastAll(EventBroadcast broadcast) {
+        for (String event : new String[] { "presence", "chat.message", "chat.typing", "stock" }) {
+            broadcast.broadcast(event, "data");
+        }
+        broadcast.broadcast(new MessageEvent.Builder().setData("untyped").build());
+    }
+
+    @Test
+    public void testSelectiveDelivery() throws Exception {
+        EventBroadcast broadcast = new EventBroadcast();
+        RecordingEventTarget all = new RecordingEventTarget();
+        RecordingEventTarget presence = new RecordingEventTarget();
+        RecordingEventTarget chat = new RecordingEventTarget();
+        broadcast.addSubscriber(all);
+        broadcast.addSubscriber(presence, EventSelector.events("presence", "message"));
+        broadcast.addSubscriber(chat, EventSelector.prefixes("chat."));
+        assertEquals(3, broadcast.getSubscriberCount());
+        broadcastAll(broadcast);
+        assertEquals(5, all.types().size());
+        assertEquals(Arrays.asList("presence", "message"), presence.types());
+        assertEquals(Arrays.asList("chat.message", "chat.typing"), chat.types());
+
+        chat.failure = new IOException("broken pipe");
+        broadcast.broadcast("chat.message", "data");
+        assertEquals(2, broadcast.getSubscriberCount());
+        assertNull(broadcast.interests.getSelector(chat));
+        assertTrue(broadcast.interests.getByPrefix().isEmpty());
+    }
+
+    @Test
+    public void testShardedSelectiveDelivery() throws Exception {
+        ShardedEventBroadcast broadcast = new ShardedEventBroadcast(2);
+        RecordingEventTarget presence = new RecordingEventTarget();
+        RecordingEventTarget chat = new RecordingEventTarget();
+        broadcast.addSubscriber(presence, EventSelector.events("presence"));
+        broadcast.addSubscriber(chat, EventSelector.prefixes("chat."));
+        broadcastAll(broadcast);
+        assertTrue(broadcast.shutdown(5, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList("presence"), presence.types());
+        assertEquals(Arrays.asList("chat.message", "chat.typing"), chat.types());
+    }
+
+    @Test
+    public void testSelectiveResume() throws Exception {
+        EventBroadcast broadcast = new EventBroadcast();
+        for (String event : new String[] { "presence", "chat.message", "presence" }) {
+            broadcast.broadcast(new MessageEvent.Builder().setId(broadcast.nextEventId()).setEvent(event).setData("data").build());
+        }
+        RecordingEventTarget presence = new RecordingEventTarget();
+        broadcast.addSubscriber(presence, null, "1", EventSelector.events("presence"));
+        assertEquals(Collections.singletonList("presence"), presence.types());
+    }
+}
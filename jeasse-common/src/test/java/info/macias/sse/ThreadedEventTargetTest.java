@@ -0,0 +1,140 @@
+package info.macias.sse;
+
+import info.macias.sse.events.MessageEvent;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ThreadedEventTargetTest {
+
+    private static MessageEvent event(int id) {
+        return new MessageEvent.Builder().setData("data").setId(String.valueOf(id)).build();
+    }
+
+    @Test
+    public void testWriterThread() throws Exception {
+        RecordingEventTarget target = new RecordingEventTarget();
+        ThreadedEventTarget threaded = new ThreadedEventTarget(target);
+        EventBroadcast broadcast = new EventBroadcast();
+        broadcast.addSubscriber(threaded);
+        for (int i = 0; i < 100; ++i) {
+            broadcast.broadcast(event(i));
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (threaded.getQueueDepth() > 0 && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        threaded.close();
+        assertTrue(target.closed.await(5, TimeUnit.SECONDS));
+        assertNotSame(Thread.currentThread(), target.writer);
+        assertEquals(100, target.ids.size());
+        for (int i = 0; i < 100; ++i) {
+            assertEquals(String.valueOf(i), target.ids.get(i));
+        }
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        RecordingEventTarget target = new RecordingEventTarget();
+        ThreadedEventTarget threaded = new ThreadedEventTarget(target);
+        EventBroadcast broadcast = new EventBroadcast();
+        broadcast.addSubscriber(threaded);
+        target.failure = new IOException();
+        broadcast.broadcast(event(1));
+        assertTrue(target.closed.await(5, TimeUnit.SECONDS));
+        // the failure is reported to the next broadcast
+        broadcast.broadcast(event(2));
+        assertFalse(broadcast.hasSubscribers());
+    }
+
+    @Test
+    public void testRuntimeException() throws Exception {
+        RecordingEventTarget target = new RecordingEventTarget() {
+            @Override
+            public EventTarget send(MessageEvent messageEvent) throws IOException {
+                throw new NullPointerException("bug in the target");
+            }
+        };
+        ThreadedEventTarget threaded = new ThreadedEventTarget(target);
+        EventBroadcast broadcast = new EventBroadcast();
+        broadcast.addSubscriber(threaded);
+        broadcast.broadcast(event(1));
+        assertTrue(target.closed.await(5, TimeUnit.SECONDS));
+        // the dead writer does not keep accepting events
+        broadcast.broadcast(event(2));
+        assertFalse(broadcast.hasSubscribers());
+    }
+
+    @Test
+    public void testSlowConsumer() throws Exception {
+        RecordingEventTarget target = new RecordingEventTarget();
+        CountDownLatch gate = new CountDownLatch(1);
+        target.gate = gate;
+        ThreadedEventTarget threaded = new ThreadedEventTarget(target, new OutboundQueue(2, OverflowPolicy.DISCONNECT).setRetryHint(1234));
+        EventBroadcast broadcast = new EventBroadcast();
+        broadcast.addSubscriber(threaded);
+        // the first event blocks the writer, the two next ones fill the queue
+        for (int i = 0; i < 4; ++i) {
+            broadcast.broadcast(event(i));
+            if (i == 0) {
+                while (target.writer == null) Thread.yield();
+            }
+        }
+        assertFalse(broadcast.hasSubscribers());
+        gate.countDown();
+        assertTrue(target.closed.await(5, TimeUnit.SECONDS));
+        assertEquals("0", target.ids.get(0));
+        assertEquals("retry:1234", target.ids.get(target.ids.size() - 1));
+    }
+
+    @Test
+    public void testBatching() throws Exception {
+        RecordingEventTarget target = new RecordingEventTarget();
+        ThreadedEventTarget threaded = new ThreadedEventTarget(target).setBatching(20, TimeUnit.MILLISECONDS, 64 * 1024);
+        threaded.ok().open();
+        for (int i = 0; i < 100; ++i) {
+            threaded.send(event(i));
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (target.ids.size() < 100 && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        threaded.close();
+        assertTrue(target.closed.await(5, TimeUnit.SECONDS));
+        assertEquals(100, target.ids.size());
+        for (int i = 0; i < 100; ++i) {
+            assertEquals(String.valueOf(i), target.ids.get(i));
+        }
+        assertTrue(target.frames < 100);
+    }
+
+    @Test
+    public void testClosedIsNotSlow() throws Exception {
+        RecordingEventTarget target = new RecordingEventTarget();
+        ThreadedEventTarget threaded = new ThreadedEventTarget(target);
+        threaded.ok().open();
+        threaded.close();
+        assertTrue(target.closed.await(5, TimeUnit.SECONDS));
+        try {
+            threaded.send(event(1));
+            fail("closed target accepted an event");
+        } catch (SlowConsumerException sce) {
+            fail("closed target reported as a slow consumer");
+        } catch (IOException ioe) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testRemoval() throws Exception {
+        RecordingEventTarget target = new RecordingEventTarget();
+        target.id = "user";
+        ThreadedEventTarget threaded = new ThreadedEventTarget(target);
+        EventBroadcast broadcast = new EventBroadcast();
+        broadcast.addSubscriber(threaded);
+        broadcast.remove("user");
+        // the writer thread is not left waiting for events which will never come
+        assertTrue(target.closed.await(5, TimeUnit.SECONDS));
+        assertFalse(broadcast.hasSubscribers());
+    }
+}
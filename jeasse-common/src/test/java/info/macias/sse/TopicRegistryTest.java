@@ -0,0 +1,73 @@
+package info.macias.sse;
+
+import info.macias.sse.events.MessageEvent;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TopicRegistryTest {
+
+    private static class DummyEventTarget implements EventTarget {
+        @Override
+        public EventTarget ok() {
+            return this;
+        }
+
+        @Override
+        public EventTarget open() throws IOException {
+            return this;
+        }
+
+        @Override
+        public EventTarget send(String event, String data) throws IOException {
+            return this;
+        }
+
+        @Override
+        public EventTarget send(MessageEvent messageEvent) throws IOException {
+            return this;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void testLazyCreation() throws Exception {
+        try (TopicRegistry<EventBroadcast> registry = new TopicRegistry<>(name -> new EventBroadcast())) {
+            assertNull(registry.find("room"));
+            EventBroadcast room = registry.get("room");
+            assertNotNull(room);
+            assertSame(room, registry.get("room"));
+            assertSame(room, registry.find("room"));
+            assertEquals(1, registry.size());
+            assertTrue(registry.remove("room"));
+            assertFalse(registry.contains("room"));
+        }
+    }
+
+    @Test
+    public void testSweep() throws Exception {
+        // no background sweep
+        try (TopicRegistry<EventBroadcast> registry = new TopicRegistry<>(name -> new EventBroadcast(), 0, TimeUnit.MILLISECONDS)) {
+            registry.get("idle");
+            registry.get("subscribed").addSubscriber(new DummyEventTarget());
+            EventBroadcast active = registry.get("active");
+            Thread.sleep(5);
+            active.broadcast(new MessageEvent.Builder().setId(active.nextEventId()).setData("hello").build());
+            assertEquals(1, registry.sweep());
+            assertFalse(registry.contains("idle"));
+            assertTrue(registry.contains("subscribed"));
+            assertTrue(registry.contains("active"));
+            Thread.sleep(5);
+            // no more activity on the topic without subscribers
+            assertEquals(1, registry.sweep());
+            assertFalse(registry.contains("active"));
+            assertTrue(registry.contains("subscribed"));
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package info.macias.sse.bridge;
+
+import info.macias.sse.EventBroadcast;
+import info.macias.sse.EventTarget;
+import info.macias.sse.events.MessageEvent;
+import info.macias.sse.metrics.Metrics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.*;
+
+public class EventBridgeTest {
+
+    private static final int NODES = 3;
+
+    private static class CollectingEventTarget implements EventTarget {
+        final List<MessageEvent> received = new CopyOnWriteArrayList<>();
+
+        @Override
+        public EventTarget ok() {
+            return this;
+        }
+
+        @Override
+        public EventTarget open() throws IOException {
+            return this;
+        }
+
+        @Override
+        public EventTarget send(String event, String data) throws IOException {
+            return send(new MessageEvent.Builder().setEvent(event).setData(data).build());
+        }
+
+        @Override
+        public EventTarget send(MessageEvent messageEvent) throws IOException {
+            received.add(messageEvent);
+            return this;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        Set<String> ids() {
+            Set<String> ids = new HashSet<>();
+            for (MessageEvent event : received) ids.add(event.getId());
+            return ids;
+        }
+    }
+
+    /**
+     * Transport whose sends block until released, as with a dead peer
+     */
+    private static class StalledTransport implements BridgeTransport {
+        final CountDownLatch gate = new CountDownLatch(1);
+        final List<byte[]> sent = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void open(Consumer<byte[]> receiver) {
+        }
+
+        @Override
+        public void send(byte[] packet) throws IOException {
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                throw new IOException("interrupted");
+            }
+            sent.add(packet);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private final List<EventBridge> bridges = new ArrayList<>();
+    private final List<EventBroadcast> broadcasts = new ArrayList<>();
+    private final List<CollectingEventTarget> targets = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        List<TcpLoopbackTransport> transports = new ArrayList<>();
+        for (int i = 0; i < NODES; ++i) {
+            transports.add(new TcpLoopbackTransport());
+        }
+        for (int i = 0; i < NODES; ++i) {
+            EventBridge bridge = new EventBridge.Builder()
+                .setTransport(transports.get(i))
+                .setNode(i, NODES)
+                .setBatchSize(16)
+                .setLinger(2, TimeUnit.MILLISECONDS)
+                .build();
+            EventBroadcast broadcast = new EventBroadcast(1000);
+            CollectingEventTarget target = new CollectingEventTarget();
+            broadcast.addSubscriber(target);
+            bridge.attach("news", broadcast);
+            bridges.add(bridge);
+            broadcasts.add(broadcast);
+            targets.add(target);
+        }
+        // full mesh
+        for (int i = 0; i < NODES; ++i) {
+            for (int j = 0; j < NODES; ++j) {
+                if (i != j) transports.get(i).addPeer(transports.get(j).getPort());
+            }
+        }
+    }
+
+    @After
+    public void tearDown() {
+        for (EventBridge bridge : bridges) bridge.close();
+        for (EventBroadcast broadcast : broadcasts) broadcast.close();
+    }
+
+    private static MessageEvent tick(String data, String id) {
+        return new MessageEvent.Builder().setEvent("tick").setData(data).setId(id).build();
+    }
+
+    private void awaitReceived(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        for (CollectingEventTarget target : targets) {
+            while (target.received.size() < count && System.currentTimeMillis() < deadline) Thread.sleep(5);
+        }
+        Thread.sleep(50); // let any spurious duplicate arrive
+    }
+
+    @Test
+    public void testForwarding() throws Exception {
+        String first = broadcasts.get(0).nextEventId();
+        broadcasts.get(0).broadcast(tick("first", first));
+        awaitReceived(1);
+        int perNode = 50;
+        Thread[] publishers = new Thread[NODES];
+        for (int i = 0; i < NODES; ++i) {
+            EventBroadcast broadcast = broadcasts.get(i);
+            publishers[i] = new Thread(() -> {
+                for (int n = 0; n < perNode; ++n) {
+                    broadcast.broadcast(tick(String.valueOf(n), broadcast.nextEventId()));
+                }
+            });
+            publishers[i].start();
+        }
+        for (Thread publisher : publishers) publisher.join();
+        int total = 1 + NODES * perNode;
+        awaitReceived(total);
+
+        Set<String> expected = targets.get(0).ids();
+        assertEquals("distinct ids across nodes", total, expected.size());
+        for (int i = 0; i < NODES; ++i) {
+            CollectingEventTarget target = targets.get(i);
+            assertEquals("no duplicates nor loops on node " + i, total, target.received.size());
+            assertEquals(expected, target.ids());
+
+            // the events of each node are received in their publication order
+            long[] lastIds = new long[NODES];
+            for (MessageEvent event : target.received) {
+                long id = Long.parseLong(event.getId());
+                int origin = (int)(id % NODES);
+                assertTrue("events from node " + origin + " reordered on node " + i, id > lastIds[origin]);
+                lastIds[origin] = id;
+            }
+
+            // every node has the same events in its history
+            CollectingEventTarget late = new CollectingEventTarget();
+            broadcasts.get(i).addSubscriber(late, first);
+            assertEquals(total - 1, late.received.size());
+            Set<String> replayed = late.ids();
+            replayed.add(first);
+            assertEquals(expected, replayed);
+        }
+    }
+
+    @Test
+    public void testDeduplication() throws Exception {
+        MessageEvent event = new MessageEvent.Builder().setId("42").setData("once").build();
+        broadcasts.get(1).broadcast(event);
+        // same event published again on another node, as after a retry
+        broadcasts.get(2).broadcast(event);
+        awaitReceived(1);
+        assertEquals(1, targets.get(0).received.size());
+        assertEquals("once", targets.get(0).received.get(0).getData());
+    }
+
+    @Test
+    public void testVolatileAndFrames() throws Exception {
+        broadcasts.get(0).broadcast(new MessageEvent.Builder().setData("transient").setVolatile().build());
+        broadcasts.get(0).broadcast(MessageEvent.fromFrame(": ping\n\n".getBytes("UTF-8")));
+        awaitReceived(2);
+        CollectingEventTarget target = targets.get(1);
+        assertEquals(2, target.received.size());
+        assertTrue(target.received.get(0).isVolatile());
+        assertEquals("transient", target.received.get(0).getData());
+        assertTrue(target.received.get(1).isFrame());
+        assertEquals(": ping\n\n", new String(target.received.get(1).getBytes(), "UTF-8"));
+    }
+
+    @Test
+    public void testResumeOnAnotherNode() throws Exception {
+        EventBroadcast publisher = broadcasts.get(0);
+        List<String> ids = new ArrayList<>();
+        for (int n = 0; n < 40; ++n) {
+            ids.add(publisher.nextEventId());
+            publisher.broadcast(tick(String.valueOf(n), ids.get(n)));
+        }
+        awaitReceived(40);
+        // a channel published from a single node has the same history on every node
+        for (int i = 1; i < NODES; ++i) {
+            CollectingEventTarget resumed = new CollectingEventTarget();
+            broadcasts.get(i).addSubscriber(resumed, ids.get(19));
+            assertEquals(20, resumed.received.size());
+            for (int n = 0; n < 20; ++n) {
+                assertEquals(ids.get(20 + n), resumed.received.get(n).getId());
+            }
+        }
+    }
+
+    @Test
+    public void testStalledTransport() throws Exception {
+        StalledTransport transport = new StalledTransport();
+        EventBridge bridge = new EventBridge.Builder()
+            .setTransport(transport)
+            .setBatchSize(1)
+            .setLinger(1, TimeUnit.MILLISECONDS)
+            .build();
+        EventBroadcast broadcast = new EventBroadcast();
+        bridge.attach("stalled", broadcast);
+        Thread publisher = new Thread(() -> {
+            for (int n = 0; n < 10; ++n) broadcast.broadcast(tick(String.valueOf(n), broadcast.nextEventId()));
+        });
+        publisher.start();
+        publisher.join(5000);
+        // publishers do not wait for the transport
+        assertFalse(publisher.isAlive());
+        assertTrue(transport.sent.isEmpty());
+
+        transport.gate.countDown();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (transport.sent.isEmpty() && System.currentTimeMillis() < deadline) Thread.sleep(5);
+        bridge.close();
+        StringBuilder packets = new StringBuilder();
+        for (byte[] packet : transport.sent) packets.append(new String(packet, "UTF-8"));
+        int last = -1;
+        for (int n = 0; n < 10; ++n) {
+            int position = packets.indexOf("data: " + n + "\n");
+            assertTrue("event " + n + " not sent in order", position > last);
+            last = position;
+        }
+        broadcast.close();
+    }
+
+    @Test
+    public void testPendingBytesCap() throws Exception {
+        StalledTransport transport = new StalledTransport();
+        EventBridge bridge = new EventBridge.Builder()
+            .setTransport(transport)
+            .setBatchSize(1)
+            .setLinger(1, TimeUnit.MILLISECONDS)
+            .setMaxPendingBytes(1024)
+            .build();
+        EventBroadcast broadcast = new EventBroadcast();
+        AtomicInteger dropped = new AtomicInteger();
+        broadcast.setMetrics(new Metrics() {
+            @Override
+            public void eventDropped() {
+                dropped.incrementAndGet();
+            }
+        });
+        bridge.attach("stalled", broadcast);
+        for (int n = 0; n < 100; ++n) broadcast.broadcast(tick(String.valueOf(n), broadcast.nextEventId()));
+        // the pending batch does not grow while the transport is stalled
+        assertTrue(bridge.getDroppedEvents() > 50);
+        assertEquals(bridge.getDroppedEvents(), dropped.get());
+
+        transport.gate.countDown();
+        bridge.close();
+        for (byte[] packet : transport.sent) assertTrue(packet.length <= 1024 + 17);
+        broadcast.close();
+    }
+
+    @Test
+    public void testUnencodableEvent() throws Exception {
+        char[] key = new char[70000];
+        Arrays.fill(key, 'k');
+        broadcasts.get(0).broadcast(new MessageEvent.Builder().setData("too long").setConflationKey(new String(key)).build());
+        broadcasts.get(0).broadcast(tick("next", "1"));
+        awaitReceived(1);
+        // the other events of the batch are still forwarded
+        assertEquals(1, bridges.get(0).getDroppedEvents());
+        for (int i = 1; i < NODES; ++i) {
+            assertEquals(1, targets.get(i).received.size());
+            assertEquals("next", targets.get(i).received.get(0).getData());
+        }
+    }
+
+    @Test
+    public void testOpenFailure() throws Exception {
+        BridgeTransport transport = new BridgeTransport() {
+            @Override
+            public void open(Consumer<byte[]> receiver) throws IOException {
+                throw new IOException("address already in use");
+            }
+
+            @Override
+            public void send(byte[] packet) {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        int flushers = flusherThreads();
+        try {
+            new EventBridge.Builder().setTransport(transport).setLinger(1, TimeUnit.MILLISECONDS).build();
+            fail("transport failure not reported");
+        } catch (IOException ioe) {
+            // expected
+        }
+        // no flusher thread is left behind
+        Thread.sleep(20);
+        assertTrue(flusherThreads() <= flushers);
+    }
+
+    private static int flusherThreads() {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("sse-bridge-flusher-") && thread.isAlive()) ++count;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,76 @@
+package info.macias.sse.events;
+
+import static org.junit.Assert.*;
+
+import com.republicate.json.Json;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+public class EventEncoderTest {
+
+    private static String encode(String event, String data, Integer retry, String id) {
+        return new String(EventEncoder.encode(event, data, retry, id), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testLineEndings() {
+        assertEquals("data: a\ndata: b\ndata: c\ndata: d\n\n", encode(null, "a\nb\r\nc\rd", null, null));
+        assertEquals("data: a\ndata: \ndata: b\n\n", encode(null, "a\r\n\r\nb", null, null));
+        // a trailing line break is kept
+        assertEquals("data: a\ndata: \n\n", encode(null, "a\n", null, null));
+        assertEquals("data: \n\n", encode(null, "", null, null));
+        assertEquals("event: ab\nid: 12\n\n", encode("a\r\nb", null, null, "1\r2"));
+    }
+
+    @Test
+    public void testAllFields() {
+        assertEquals("event: e\ndata: d\nretry: 500\nid: 7\n\n", encode("e", "d", 500, "7"));
+    }
+
+    @Test
+    public void testUtf8() {
+        String data = "café € 😀 \ud800 end";
+        String expected = "data: " + data + "\n\n";
+        assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), EventEncoder.encode(null, data, null, null));
+    }
+
+    @Test
+    public void testRoundTrip() {
+        String data = "first\r\nsecond\rthird\n\nfifth\n";
+        MessageEvent event = new MessageEvent.Builder().setEvent("update").setData(data).setId("3").build();
+        List<MessageEvent> parsed = MessageEvent.parse(event.getBytes());
+        assertEquals(1, parsed.size());
+        assertEquals("first\nsecond\nthird\n\nfifth\n", parsed.get(0).getData());
+        assertEquals("update", parsed.get(0).getEvent());
+        assertEquals("3", parsed.get(0).getId());
+    }
+
+    @Test
+    public void testReusableBuffer() throws Exception {
+        EventEncoder encoder = new EventEncoder(16);
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 1000; ++i) large.append("line ").append(i).append('\n');
+        encoder.append(null, large.toString(), null, null).appendComment("ping");
+        assertTrue(encoder.array().length >= encoder.length());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.writeTo(out);
+        String text = out.toString("UTF-8");
+        assertTrue(text.startsWith("data: line 0\ndata: line 1\n"));
+        assertTrue(text.endsWith("data: line 999\ndata: \n\n: ping\n"));
+
+        assertEquals("data: x\n\n", new String(encoder.reset().append(null, "x", null, null).toByteArray(), StandardCharsets.UTF_8));
+        assertEquals(9, encoder.asByteBuffer().remaining());
+    }
+
+    @Test
+    public void testJson() {
+        Json.Array json = new Json.Array();
+        json.add("caf\u00e9");
+        json.add(42);
+        String expected = "event: list\ndata: " + json.toString() + "\nid: 1\n\n";
+        assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), EventEncoder.encode("list", json, null, "1"));
+    }
+}
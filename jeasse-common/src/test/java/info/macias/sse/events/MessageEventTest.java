@@ -2,8 +2,13 @@ package info.macias.sse.events;
 
 import static org.junit.Assert.*;
 
+import com.republicate.json.Json;
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
 public class MessageEventTest {
 
     @Test
@@ -76,4 +81,61 @@ public class MessageEventTest {
         assertEquals("retry: 1234\n\n", ev.toString());
     }
 
+    @Test
+    public void testEncodedBytes() {
+        MessageEvent ev = new MessageEvent.Builder()
+            .setEvent("caf\u00e9")
+            .setData("\u00e0 la carte")
+            .build();
+
+        byte[] bytes = ev.getBytes();
+        assertArrayEquals(ev.toString().getBytes(StandardCharsets.UTF_8), bytes);
+        // encoded only once
+        assertSame(bytes, ev.getBytes());
+
+        ByteBuffer buffer = ev.asByteBuffer();
+        assertTrue(buffer.isReadOnly());
+        assertEquals(bytes.length, buffer.remaining());
+    }
+
+    @Test
+    public void testParse() {
+        MessageEvent ev = new MessageEvent.Builder()
+            .setEvent("test")
+            .setData("1 2\n3 4")
+            .setId("42")
+            .setRetry(1000)
+            .build();
+        List<MessageEvent> parsed = MessageEvent.parse(ev.getBytes());
+        assertEquals(1, parsed.size());
+        assertEquals(ev.toString(), parsed.get(0).toString());
+
+        // CR and CRLF line endings, comments, several events
+        parsed = MessageEvent.parse(":\r\rdata:a\r\ndata: b\r\n\r\nid: 2\rdata\r\r".getBytes(StandardCharsets.UTF_8));
+        assertEquals(2, parsed.size());
+        assertEquals("a\nb", parsed.get(0).getData());
+        assertEquals("2", parsed.get(1).getId());
+        assertEquals("", parsed.get(1).getData());
+    }
+
+    @Test
+    public void testJsonData() {
+        Json.Object json = new Json.Object();
+        json.put("user", "joe");
+        json.put("status", "online");
+        String serialized = json.toString();
+        MessageEvent ev = new MessageEvent.Builder()
+            .setEvent("presence")
+            .setData(json)
+            .setId("7")
+            .build();
+
+        assertSame(json, ev.getJson());
+        assertEquals("event: presence\ndata: " + serialized + "\nid: 7\n\n", ev.toString());
+        // serialized when built
+        byte[] bytes = ev.getBytes();
+        json.put("status", "away");
+        assertSame(bytes, ev.getBytes());
+        assertEquals(serialized, ev.getData());
+    }
 }
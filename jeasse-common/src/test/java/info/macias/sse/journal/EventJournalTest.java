@@ -0,0 +1,142 @@
+package info.macias.sse.journal;
+
+import info.macias.sse.EventBroadcast;
+import info.macias.sse.EventTarget;
+import info.macias.sse.RecordingEventTarget;
+import info.macias.sse.events.MessageEvent;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class EventJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static MessageEvent event(String id) {
+        return new MessageEvent.Builder().setEvent("test").setData("some\ndata").setId(id).build();
+    }
+
+    @Test
+    public void testReplayAcrossRestarts() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        EventJournal journal = new EventJournal.Builder(directory).setSegmentSize(4096).build();
+        EventBroadcast broadcast = new EventBroadcast(5);
+        broadcast.setJournal(journal);
+        for (int i = 0; i < 100; ++i) {
+            broadcast.broadcast(event(broadcast.nextEventId()));
+        }
+        assertTrue(journal.getSegmentCount() > 1);
+        assertEquals(100, journal.getEventCount());
+        journal.close();
+
+        // restart
+        journal = new EventJournal.Builder(directory).setSegmentSize(4096).build();
+        assertEquals(100, journal.getEventCount());
+        broadcast = new EventBroadcast(5);
+        broadcast.setJournal(journal);
+        assertEquals("101", broadcast.nextEventId());
+
+        // far behind the in-memory history
+        RecordingEventTarget target = new RecordingEventTarget();
+        broadcast.addSubscriber(target, "10");
+        assertEquals(90, target.ids.size());
+        assertEquals("11", target.ids.get(0));
+        assertEquals("100", target.ids.get(89));
+        // chunked replay
+        assertTrue(target.frames < 90);
+
+        // unknown ids fall back on the in-memory history
+        target = new RecordingEventTarget();
+        broadcast.addSubscriber(target, "unknown");
+        assertTrue(target.ids.isEmpty());
+        journal.close();
+    }
+
+    @Test
+    public void testRetention() throws Exception {
+        EventJournal journal = new EventJournal.Builder(folder.getRoot().toPath())
+            .setSegmentSize(1024)
+            .setMaxBytes(3 * 1024)
+            .build();
+        for (int i = 1; i <= 200; ++i) {
+            journal.append(event(String.valueOf(i)));
+        }
+        assertEquals(3, journal.getSegmentCount());
+        assertTrue(journal.getEventCount() < 200);
+        assertFalse(journal.replay("1", new RecordingEventTarget()));
+        RecordingEventTarget target = new RecordingEventTarget();
+        assertTrue(journal.replay("199", target));
+        assertEquals("200", target.ids.get(0));
+        journal.close();
+    }
+
+    @Test
+    public void testRetentionDuringReplay() throws Exception {
+        EventJournal journal = new EventJournal.Builder(folder.getRoot().toPath())
+            .setSegmentSize(1024)
+            .setMaxBytes(2 * 1024)
+            .build();
+        for (int i = 1; i <= 10; ++i) {
+            journal.append(event(String.valueOf(i)));
+        }
+        Path first = folder.getRoot().toPath().resolve(String.format("%020d", 0) + Segment.SUFFIX);
+        boolean[] pinned = new boolean[1];
+        RecordingEventTarget target = new RecordingEventTarget() {
+            @Override
+            public EventTarget sendFrame(byte[] frame) throws IOException {
+                if (frames == 0) {
+                    // the replayed segment is dropped by the retention meanwhile
+                    for (int i = 11; i <= 200; ++i) {
+                        journal.append(event(String.valueOf(i)));
+                    }
+                    pinned[0] = Files.exists(first);
+                }
+                return super.sendFrame(frame);
+            }
+        };
+        assertTrue(journal.replay("1", target));
+        assertTrue(pinned[0]);
+        assertEquals(9, target.ids.size());
+        assertEquals("2", target.ids.get(0));
+        assertEquals("10", target.ids.get(8));
+        // deleted once the replay is done
+        assertFalse(Files.exists(first));
+        assertFalse(journal.replay("1", new RecordingEventTarget()));
+
+        journal.close();
+        assertEquals(0, journal.getEventCount());
+    }
+
+    @Test
+    public void testTooLongId() throws Exception {
+        EventJournal journal = new EventJournal.Builder(folder.getRoot().toPath()).setSegmentSize(128 * 1024).build();
+        journal.append(event("1"));
+        char[] id = new char[40000];
+        Arrays.fill(id, 'x');
+        try {
+            journal.append(event(new String(id)));
+            fail("too long id accepted");
+        } catch (IOException ioe) {
+            // expected
+        }
+        journal.append(event("2"));
+        journal.close();
+
+        // the segment is left intact
+        journal = new EventJournal.Builder(folder.getRoot().toPath()).setSegmentSize(128 * 1024).build();
+        assertEquals(2, journal.getEventCount());
+        RecordingEventTarget target = new RecordingEventTarget();
+        assertTrue(journal.replay("1", target));
+        assertEquals(Collections.singletonList("2"), target.ids);
+        journal.close();
+    }
+}
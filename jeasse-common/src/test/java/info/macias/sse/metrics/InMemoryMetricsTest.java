@@ -0,0 +1,91 @@
+package info.macias.sse.metrics;
+
+import info.macias.sse.EventBroadcast;
+import info.macias.sse.EventTarget;
+import info.macias.sse.events.MessageEvent;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class InMemoryMetricsTest {
+
+    /**
+     * Event target failing after a given number of events
+     */
+    private static class FailingEventTarget implements EventTarget {
+        int received = 0;
+        final int failAfter;
+
+        FailingEventTarget(int failAfter) {
+            this.failAfter = failAfter;
+        }
+
+        @Override
+        public EventTarget ok() {
+            return this;
+        }
+
+        @Override
+        public EventTarget open() throws IOException {
+            return this;
+        }
+
+        @Override
+        public EventTarget send(String event, String data) throws IOException {
+            return this;
+        }
+
+        @Override
+        public EventTarget send(MessageEvent messageEvent) throws IOException {
+            if (received >= failAfter) throw new IOException("broken pipe");
+            ++received;
+            return this;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void testHistogram() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 100; ++i) histogram.record(i);
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(100, snapshot.getCount());
+        assertEquals(5050, snapshot.getSum());
+        assertEquals(100, snapshot.getMax());
+        // power of two buckets: within a factor of two
+        assertEquals(63, snapshot.getPercentile(50));
+        assertEquals(100, snapshot.getPercentile(99));
+        histogram.reset();
+        assertEquals(0, histogram.snapshot().getCount());
+    }
+
+    @Test
+    public void testBroadcastMetrics() throws Exception {
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        EventBroadcast broadcast = new EventBroadcast();
+        broadcast.setMetrics(metrics);
+        for (int i = 0; i < 3; ++i) {
+            broadcast.broadcast(new MessageEvent.Builder().setId(broadcast.nextEventId()).setData("before").build());
+        }
+        broadcast.addSubscriber(new FailingEventTarget(10), "1");
+        broadcast.addSubscriber(new FailingEventTarget(1));
+        for (int i = 0; i < 2; ++i) {
+            broadcast.broadcast("update", "data");
+        }
+        InMemoryMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(5, snapshot.getEventsPublished());
+        assertEquals(2, snapshot.getSubscribersJoined());
+        assertEquals(1, snapshot.getSubscribersEvicted());
+        assertEquals(1, snapshot.getSubscribersLeft());
+        assertEquals(1, snapshot.getReplayedEvents().getCount());
+        assertEquals(2, snapshot.getReplayedEvents().getMax());
+        // 0, 0, 0 then 2 and 1 subscribers reached
+        assertEquals(5, snapshot.getFanOut().getCount());
+        assertEquals(3, snapshot.getFanOut().getSum());
+    }
+}
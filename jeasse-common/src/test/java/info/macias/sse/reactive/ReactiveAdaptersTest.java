@@ -0,0 +1,238 @@
+package info.macias.sse.reactive;
+
+import info.macias.sse.EventBroadcast;
+import info.macias.sse.ShardedEventBroadcast;
+import info.macias.sse.EventTarget;
+import info.macias.sse.OutboundQueue;
+import info.macias.sse.OverflowPolicy;
+import info.macias.sse.events.MessageEvent;
+import org.junit.Test;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.*;
+
+public class ReactiveAdaptersTest {
+
+    private static final int EVENTS = 100;
+    private static final int CAPACITY = 8;
+
+    /**
+     * Publisher of numbered events, honoring the demand and recording its maximum
+     */
+    private static class RangePublisher implements Publisher<MessageEvent> {
+        private int next = 0;
+        private long demand = 0;
+        private boolean emitting = false;
+        volatile long maxDemand = 0;
+
+        @Override
+        public void subscribe(Subscriber<? super MessageEvent> subscriber) {
+            subscriber.onSubscribe(new Subscription() {
+                @Override
+                public void request(long n) {
+                    synchronized (RangePublisher.this) {
+                        demand += n;
+                        maxDemand = Math.max(maxDemand, demand);
+                        if (emitting) return;
+                        emitting = true;
+                    }
+                    while (true) {
+                        int id;
+                        synchronized (RangePublisher.this) {
+                            if (demand == 0 || next == EVENTS) {
+                                emitting = false;
+                                break;
+                            }
+                            --demand;
+                            id = next++;
+                        }
+                        subscriber.onNext(new MessageEvent.Builder().setData("data").setId(String.valueOf(id)).build());
+                        if (id == EVENTS - 1) subscriber.onComplete();
+                    }
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+        }
+    }
+
+    /**
+     * Event target with a given queue depth
+     */
+    private static class QueuedEventTarget implements EventTarget {
+        final int capacity;
+        volatile int depth = 0;
+
+        QueuedEventTarget(int capacity) {
+            this.capacity = capacity;
+        }
+
+        @Override
+        public EventTarget ok() {
+            return this;
+        }
+
+        @Override
+        public EventTarget open() throws IOException {
+            return this;
+        }
+
+        @Override
+        public EventTarget send(String event, String data) throws IOException {
+            return this;
+        }
+
+        @Override
+        public EventTarget send(MessageEvent messageEvent) throws IOException {
+            return this;
+        }
+
+        @Override
+        public int getQueueDepth() {
+            return depth;
+        }
+
+        @Override
+        public int getQueueCapacity() {
+            return capacity;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Subscriber recording received ids, requesting events on demand only
+     */
+    private static class RecordingSubscriber implements Subscriber<MessageEvent> {
+        final List<String> ids = new CopyOnWriteArrayList<>();
+        volatile Subscription subscription = null;
+        volatile boolean completed = false;
+        volatile Throwable error = null;
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(MessageEvent messageEvent) {
+            ids.add(messageEvent.getId());
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+    }
+
+    @Test
+    public void testBackpressure() throws Exception {
+        EventBroadcast broadcast = new EventBroadcast();
+        PublisherEventTarget target = new PublisherEventTarget("consumer", new OutboundQueue(CAPACITY, OverflowPolicy.DISCONNECT));
+        broadcast.addSubscriber(target);
+        RecordingSubscriber downstream = new RecordingSubscriber();
+        target.subscribe(downstream);
+
+        RangePublisher upstream = new RangePublisher();
+        upstream.subscribe(new BroadcastSubscriber(broadcast).setPollInterval(5));
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (downstream.ids.size() < EVENTS) {
+            assertTrue("timeout", System.currentTimeMillis() < deadline);
+            downstream.subscription.request(3);
+            Thread.sleep(5);
+        }
+        // the full queue of the consumer throttled the producer, instead of disconnecting the consumer
+        assertNull(downstream.error);
+        assertEquals(1, broadcast.getSubscriberCount());
+        assertTrue(upstream.maxDemand <= CAPACITY);
+        for (int i = 0; i < EVENTS; ++i) {
+            assertEquals(String.valueOf(i), downstream.ids.get(i));
+        }
+
+        assertFalse(downstream.completed);
+        broadcast.close();
+        assertTrue(downstream.completed);
+    }
+
+    @Test
+    public void testOverflow() throws Exception {
+        PublisherEventTarget target = new PublisherEventTarget("consumer", new OutboundQueue(2, OverflowPolicy.DISCONNECT));
+        target.send("e", "1");
+        target.send("e", "2");
+        try {
+            target.send("e", "3");
+            fail("slow consumer not detected");
+        }
+        catch (IOException ioe) {
+            // expected
+        }
+        RecordingSubscriber downstream = new RecordingSubscriber();
+        target.subscribe(downstream);
+        assertNotNull(downstream.error);
+
+        RecordingSubscriber second = new RecordingSubscriber();
+        target.subscribe(second);
+        assertTrue(second.error instanceof IllegalStateException);
+    }
+
+    @Test
+    public void testQueueHeadroom() throws Exception {
+        EventBroadcast broadcast = new EventBroadcast();
+        assertEquals(Integer.MAX_VALUE, broadcast.getQueueHeadroom(1));
+        List<QueuedEventTarget> targets = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < 100; ++i) {
+            QueuedEventTarget target = new QueuedEventTarget(100);
+            target.depth = i;
+            broadcast.addSubscriber(target);
+            targets.add(target);
+        }
+        // rounded down by at most an eighth
+        int median = broadcast.getQueueHeadroom(0.5);
+        assertTrue(median <= 51 && median >= 51 * 7 / 8);
+        assertEquals(1, broadcast.getQueueHeadroom(1));
+
+        // not computed again right away, but never overestimated
+        for (QueuedEventTarget target : targets) target.depth = 0;
+        assertEquals(1, broadcast.getQueueHeadroom(1));
+        broadcast.broadcast(new MessageEvent.Builder().setData("data").build());
+        assertEquals(0, broadcast.getQueueHeadroom(1));
+        Thread.sleep(20);
+        int empty = broadcast.getQueueHeadroom(1);
+        assertTrue(empty <= 100 && empty >= 100 * 7 / 8);
+        // lowered once per event, whatever the number of collections it is delivered through
+        broadcast.broadcast(new MessageEvent.Builder().setData("data").build());
+        assertTrue(broadcast.getQueueHeadroom(1) >= empty - 1);
+
+        // joining subscribers are taken into account straight away
+        broadcast.addSubscriber(new QueuedEventTarget(3));
+        assertEquals(3, broadcast.getQueueHeadroom(1));
+    }
+
+    @Test
+    public void testShardedQueueHeadroom() throws Exception {
+        ShardedEventBroadcast broadcast = new ShardedEventBroadcast(4);
+        for (int i = 0; i < 8; ++i) broadcast.addSubscriber(new QueuedEventTarget(100));
+        int headroom = broadcast.getQueueHeadroom(1);
+        assertTrue(headroom <= 100 && headroom >= 100 * 7 / 8);
+        // lowered once per event, not once per shard
+        broadcast.broadcast(new MessageEvent.Builder().setData("data").build());
+        assertTrue(broadcast.getQueueHeadroom(1) >= headroom - 1);
+        broadcast.close();
+    }
+}
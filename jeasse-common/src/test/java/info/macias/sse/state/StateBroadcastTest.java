@@ -0,0 +1,137 @@
+package info.macias.sse.state;
+
+import com.republicate.json.Json;
+import info.macias.sse.RecordingEventTarget;
+import info.macias.sse.events.MessageEvent;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class StateBroadcastTest {
+
+    /* client side state, rebuilt from the snapshot and patches */
+    private static Serializable state(RecordingEventTarget target) {
+        Serializable state = new Json.Object();
+        for (MessageEvent event : target.received) {
+            if (StateBroadcast.SNAPSHOT_EVENT.equals(event.getEvent())) state = MergePatch.copy(event.getJson());
+            else state = MergePatch.apply(state, event.getJson());
+        }
+        return state;
+    }
+
+    private static Json.Object document(String name, int score, String city) {
+        Json.Object address = new Json.Object();
+        address.put("city", city);
+        address.put("country", "FR");
+        Json.Object document = new Json.Object();
+        document.put("name", name);
+        document.put("score", score);
+        document.put("address", address);
+        return document;
+    }
+
+    @Test
+    public void testDiff() {
+        Json.Object before = document("joe", 1, "Paris");
+        Json.Object after = document("joe", 2, "Lyon");
+        after.remove("name");
+        Json.Object patch = MergePatch.diff(before, after);
+        assertEquals(3, patch.size());
+        assertTrue(patch.containsKey("name"));
+        assertNull(patch.get("name"));
+        assertEquals(2, patch.get("score"));
+        Json.Object address = (Json.Object)patch.get("address");
+        assertEquals(1, address.size());
+        assertEquals("Lyon", address.get("city"));
+        assertEquals(after, MergePatch.apply(before, patch));
+        assertNull(MergePatch.diff(after, after));
+    }
+
+    @Test
+    public void testSnapshotAndPatches() throws Exception {
+        StateBroadcast broadcast = new StateBroadcast();
+        Json.Object joe = document("joe", 1, "Paris");
+        assertTrue(broadcast.update("joe", joe));
+        broadcast.update("ann", document("ann", 5, "Nice"));
+
+        RecordingEventTarget early = new RecordingEventTarget();
+        broadcast.addSubscriber(early);
+        assertEquals(1, early.received.size());
+        assertEquals(StateBroadcast.SNAPSHOT_EVENT, early.received.get(0).getEvent());
+
+        // documents are copied: updating in place and again is diffed against the previous version
+        joe.put("score", 2);
+        assertTrue(broadcast.update("joe", joe));
+        assertFalse(broadcast.update("joe", joe));
+        MessageEvent patch = early.received.get(1);
+        assertEquals(StateBroadcast.PATCH_EVENT, patch.getEvent());
+        Json.Object joePatch = (Json.Object)((Json.Object)patch.getJson()).get("joe");
+        assertEquals(1, joePatch.size());
+        assertEquals(2, joePatch.get("score"));
+
+        assertTrue(broadcast.removeState("ann"));
+        assertFalse(broadcast.removeState("ann"));
+        assertEquals(3, early.received.size());
+
+        RecordingEventTarget late = new RecordingEventTarget();
+        broadcast.addSubscriber(late);
+        assertEquals(1, late.received.size());
+        assertEquals(state(early), state(late));
+        assertEquals(1, ((Json.Object)state(late)).size());
+        assertEquals(joe, broadcast.getState("joe"));
+
+        // resuming subscribers which missed nothing get no snapshot
+        RecordingEventTarget resuming = new RecordingEventTarget();
+        broadcast.addSubscriber(resuming, early.received.get(2).getId());
+        assertTrue(resuming.received.isEmpty());
+        RecordingEventTarget behind = new RecordingEventTarget();
+        broadcast.addSubscriber(behind, early.received.get(1).getId());
+        assertEquals(1, behind.received.size());
+        assertEquals(StateBroadcast.SNAPSHOT_EVENT, behind.received.get(0).getEvent());
+    }
+
+    @Test
+    public void testStalledWrites() throws Exception {
+        StateBroadcast broadcast = new StateBroadcast();
+        broadcast.update("joe", document("joe", 1, "Paris"));
+        RecordingEventTarget early = new RecordingEventTarget();
+        broadcast.addSubscriber(early);
+
+        // a subscriber stalled while writing a patch
+        CountDownLatch patchGate = new CountDownLatch(1);
+        early.gate = patchGate;
+        Thread updater = new Thread(() -> broadcast.update("joe", document("joe", 2, "Paris")));
+        updater.start();
+        assertTrue(early.stalled.await(5, TimeUnit.SECONDS));
+        // does not hold up state reads, nor joining subscribers while writing their snapshot
+        assertEquals(2, ((Json.Object)broadcast.getState("joe")).get("score"));
+        assertEquals(1, broadcast.getKeys().size());
+        RecordingEventTarget joining = new RecordingEventTarget();
+        CountDownLatch snapshotGate = new CountDownLatch(1);
+        joining.gate = snapshotGate;
+        Thread joiner = new Thread(() -> {
+            try {
+                broadcast.addSubscriber(joining);
+            } catch (IOException e) {}
+        });
+        joiner.start();
+        assertTrue(joining.stalled.await(5, TimeUnit.SECONDS));
+
+        patchGate.countDown();
+        updater.join(5000);
+        // patches broadcasted while the joining subscriber is written its snapshot are sent after it
+        broadcast.update("ann", document("ann", 5, "Nice"));
+        snapshotGate.countDown();
+        joiner.join(5000);
+        assertEquals(StateBroadcast.SNAPSHOT_EVENT, joining.received.get(0).getEvent());
+        broadcast.update("joe", document("joe", 3, "Lyon"));
+        assertEquals(state(early), state(joining));
+        assertEquals(2, ((Json.Object)state(joining)).size());
+        assertEquals(2, broadcast.getSubscriberCount());
+    }
+}
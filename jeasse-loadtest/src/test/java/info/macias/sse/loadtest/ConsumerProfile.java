@@ -0,0 +1,129 @@
+package info.macias.sse.loadtest;
+
+/**
+ * Behaviour of simulated clients: bandwidth, periodic stalls, and disconnection
+ */
+public class ConsumerProfile
+{
+    public static final ConsumerProfile FAST = new Builder().build();
+
+    private final long bandwidth;
+    private final int socketBufferSize;
+    private final long stallPeriodMillis;
+    private final long stallMillis;
+    private final int disconnectAfter;
+
+    private ConsumerProfile(long bandwidth, int socketBufferSize, long stallPeriodMillis, long stallMillis, int disconnectAfter)
+    {
+        this.bandwidth = bandwidth;
+        this.socketBufferSize = socketBufferSize;
+        this.stallPeriodMillis = stallPeriodMillis;
+        this.stallMillis = stallMillis;
+        this.disconnectAfter = disconnectAfter;
+    }
+
+    /**
+     * @return bytes per second, or zero for unlimited bandwidth
+     */
+    public long getBandwidth()
+    {
+        return bandwidth;
+    }
+
+    public int getSocketBufferSize()
+    {
+        return socketBufferSize;
+    }
+
+    /**
+     * Whether the client is stalled at the given time since the connection start
+     * @param elapsedMillis time since the connection start
+     * @return whether the client stopped reading
+     */
+    public boolean isStalled(long elapsedMillis)
+    {
+        return stallMillis > 0 && elapsedMillis % stallPeriodMillis < stallMillis;
+    }
+
+    /**
+     * @return number of events after which the client disconnects, or zero
+     */
+    public int getDisconnectAfter()
+    {
+        return disconnectAfter;
+    }
+
+    /**
+     * Whether reads have to be simulated by the network thread
+     * @return false if written bytes are consumed immediately
+     */
+    public boolean isThrottled()
+    {
+        return bandwidth > 0 || stallMillis > 0;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "bandwidth=" + (bandwidth == 0 ? "unlimited" : bandwidth + "B/s") +
+            (stallMillis > 0 ? ", stalls=" + stallMillis + "ms/" + stallPeriodMillis + "ms" : "") +
+            (disconnectAfter > 0 ? ", disconnect after " + disconnectAfter + " events" : "");
+    }
+
+    public static class Builder
+    {
+        private long bandwidth = 0;
+        private int socketBufferSize = 64 * 1024;
+        private long stallPeriodMillis = 0;
+        private long stallMillis = 0;
+        private int disconnectAfter = 0;
+
+        /**
+         * @param bandwidth bytes per second, or zero for unlimited bandwidth
+         * @return this builder
+         */
+        public Builder setBandwidth(long bandwidth)
+        {
+            this.bandwidth = bandwidth;
+            return this;
+        }
+
+        /**
+         * @param socketBufferSize bytes the container accepts before the client reads them
+         * @return this builder
+         */
+        public Builder setSocketBufferSize(int socketBufferSize)
+        {
+            this.socketBufferSize = socketBufferSize;
+            return this;
+        }
+
+        /**
+         * @param stallMillis duration of the periods during which the client stops reading
+         * @param periodMillis period of the stalls
+         * @return this builder
+         */
+        public Builder setStalls(long stallMillis, long periodMillis)
+        {
+            if (stallMillis > 0 && periodMillis <= stallMillis) throw new IllegalArgumentException("stall period must be longer than stalls");
+            this.stallMillis = stallMillis;
+            this.stallPeriodMillis = periodMillis;
+            return this;
+        }
+
+        /**
+         * @param events number of events after which the client disconnects, or zero
+         * @return this builder
+         */
+        public Builder setDisconnectAfter(int events)
+        {
+            this.disconnectAfter = events;
+            return this;
+        }
+
+        public ConsumerProfile build()
+        {
+            return new ConsumerProfile(bandwidth, socketBufferSize, stallPeriodMillis, stallMillis, disconnectAfter);
+        }
+    }
+}
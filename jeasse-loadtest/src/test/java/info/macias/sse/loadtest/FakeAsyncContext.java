@@ -0,0 +1,137 @@
+package info.macias.sse.loadtest;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Asynchronous context of a simulated connection. Dispatching is not supported.
+ */
+public class FakeAsyncContext implements AsyncContext
+{
+    private final FakeConnection connection;
+    private final List<AsyncListener> listeners = new ArrayList<>(1);
+    private long timeout = 30000;
+    private boolean completed = false;
+
+    FakeAsyncContext(FakeConnection connection)
+    {
+        this.connection = connection;
+    }
+
+    @Override
+    public ServletRequest getRequest()
+    {
+        return connection.getRequest();
+    }
+
+    @Override
+    public ServletResponse getResponse()
+    {
+        return connection.getResponse();
+    }
+
+    @Override
+    public boolean hasOriginalRequestAndResponse()
+    {
+        return true;
+    }
+
+    @Override
+    public void dispatch()
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void dispatch(String path)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void dispatch(ServletContext context, String path)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void complete()
+    {
+        List<AsyncListener> toNotify;
+        synchronized (this)
+        {
+            if (completed) return;
+            completed = true;
+            toNotify = new ArrayList<>(listeners);
+        }
+        connection.getOutputStream().close();
+        AsyncEvent event = new AsyncEvent(this);
+        for (AsyncListener listener : toNotify)
+        {
+            try
+            {
+                listener.onComplete(event);
+            }
+            catch (IOException ioe)
+            {
+                // ignore, as a container would
+            }
+        }
+    }
+
+    public synchronized boolean isCompleted()
+    {
+        return completed;
+    }
+
+    @Override
+    public void start(Runnable run)
+    {
+        new Thread(run, "fake-container").start();
+    }
+
+    @Override
+    public synchronized void addListener(AsyncListener listener)
+    {
+        listeners.add(listener);
+    }
+
+    @Override
+    public synchronized void addListener(AsyncListener listener, ServletRequest servletRequest, ServletResponse servletResponse)
+    {
+        listeners.add(listener);
+    }
+
+    @Override
+    public <T extends AsyncListener> T createListener(Class<T> clazz) throws ServletException
+    {
+        try
+        {
+            return clazz.getDeclaredConstructor().newInstance();
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new ServletException(e);
+        }
+    }
+
+    @Override
+    public void setTimeout(long timeout)
+    {
+        this.timeout = timeout;
+    }
+
+    @Override
+    public long getTimeout()
+    {
+        return timeout;
+    }
+}
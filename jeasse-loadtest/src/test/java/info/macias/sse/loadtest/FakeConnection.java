@@ -0,0 +1,137 @@
+package info.macias.sse.loadtest;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletRequest;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.LongConsumer;
+
+/**
+ * <p>Simulated client connection: request, asynchronous context, response and output stream, along with
+ * the client side state (received events count, last received event id).</p>
+ *
+ * <p>The request is a dynamic proxy only implementing what an SSE connector needs: asynchronous mode,
+ * protocol and headers.</p>
+ */
+public class FakeConnection
+{
+    private final ConsumerProfile profile;
+    private final Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private final LongConsumer onEvent;
+    private final HttpServletRequest request;
+    private final FakeServletOutputStream outputStream;
+    private final FakeHttpServletResponse response;
+    private final long startMillis = System.currentTimeMillis();
+    private volatile FakeAsyncContext asyncContext = null;
+    private volatile long lastEventId = -1;
+    private volatile int receivedEvents = 0;
+
+    /**
+     * @param profile client behaviour
+     * @param headers request headers
+     * @param onEvent called with the numeric id of each event read by the client
+     */
+    public FakeConnection(ConsumerProfile profile, Map<String, String> headers, LongConsumer onEvent)
+    {
+        this.profile = profile;
+        this.headers.putAll(headers);
+        this.onEvent = onEvent;
+        outputStream = new FakeServletOutputStream(this, profile);
+        response = new FakeHttpServletResponse(outputStream);
+        request = (HttpServletRequest)Proxy.newProxyInstance(HttpServletRequest.class.getClassLoader(),
+            new Class<?>[] { HttpServletRequest.class }, (proxy, method, args) ->
+            {
+                switch (method.getName())
+                {
+                    case "startAsync": return startAsync();
+                    case "getAsyncContext": return asyncContext;
+                    case "isAsyncStarted": return asyncContext != null;
+                    case "isAsyncSupported": return true;
+                    case "getProtocol": return "HTTP/1.1";
+                    case "getMethod": return "GET";
+                    case "getRequestURI": return "/events";
+                    case "getHeader": return this.headers.get((String)args[0]);
+                    case "getHeaders": return Collections.enumeration(this.headers.containsKey((String)args[0]) ? Collections.singleton(this.headers.get((String)args[0])) : Collections.<String>emptySet());
+                    case "getHeaderNames": return Collections.enumeration(this.headers.keySet());
+                    case "hashCode": return System.identityHashCode(proxy);
+                    case "equals": return proxy == args[0];
+                    case "toString": return "FakeRequest@" + Integer.toHexString(System.identityHashCode(proxy));
+                    default: throw new UnsupportedOperationException(method.getName());
+                }
+            });
+    }
+
+    private synchronized AsyncContext startAsync()
+    {
+        if (asyncContext == null) asyncContext = new FakeAsyncContext(this);
+        return asyncContext;
+    }
+
+    public HttpServletRequest getRequest()
+    {
+        return request;
+    }
+
+    public FakeHttpServletResponse getResponse()
+    {
+        return response;
+    }
+
+    public FakeServletOutputStream getOutputStream()
+    {
+        return outputStream;
+    }
+
+    public ConsumerProfile getProfile()
+    {
+        return profile;
+    }
+
+    /**
+     * Whether the client stopped reading at the given time
+     * @param nowMillis current time
+     * @return whether the client is stalled
+     */
+    boolean isStalled(long nowMillis)
+    {
+        return profile.isStalled(nowMillis - startMillis);
+    }
+
+    /**
+     * Called when the client has read an event
+     * @param id event numeric id
+     * @return whether the client now hangs up
+     */
+    boolean received(long id)
+    {
+        lastEventId = id;
+        onEvent.accept(id);
+        int received = ++receivedEvents;
+        return profile.getDisconnectAfter() > 0 && received >= profile.getDisconnectAfter();
+    }
+
+    /**
+     * @return last event id read by the client, to reconnect with, or null
+     */
+    public String getLastEventId()
+    {
+        return lastEventId < 0 ? null : String.valueOf(lastEventId);
+    }
+
+    public int getReceivedEvents()
+    {
+        return receivedEvents;
+    }
+
+    /**
+     * Whether the connection is over, either closed by the server or by the client
+     * @return whether the connection is over
+     */
+    public boolean isClosed()
+    {
+        FakeAsyncContext context = asyncContext;
+        return outputStream.isDisconnected() || context != null && context.isCompleted();
+    }
+}
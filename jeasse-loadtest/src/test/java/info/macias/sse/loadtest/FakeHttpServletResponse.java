@@ -0,0 +1,267 @@
+package info.macias.sse.loadtest;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * In-memory response, keeping status and headers and writing to a {@link FakeServletOutputStream}
+ */
+public class FakeHttpServletResponse implements HttpServletResponse
+{
+    private final FakeServletOutputStream outputStream;
+    private final Map<String, List<String>> headers = new LinkedHashMap<>(8);
+    private int status = SC_OK;
+    private String contentType = null;
+    private String characterEncoding = "ISO-8859-1";
+    private PrintWriter writer = null;
+    private boolean committed = false;
+
+    FakeHttpServletResponse(FakeServletOutputStream outputStream)
+    {
+        this.outputStream = outputStream;
+    }
+
+    @Override
+    public void addCookie(Cookie cookie)
+    {
+        addHeader("Set-Cookie", cookie.getName() + "=" + cookie.getValue());
+    }
+
+    @Override
+    public boolean containsHeader(String name)
+    {
+        return headers.containsKey(name.toLowerCase(Locale.ROOT));
+    }
+
+    @Override
+    public String encodeURL(String url)
+    {
+        return url;
+    }
+
+    @Override
+    public String encodeRedirectURL(String url)
+    {
+        return url;
+    }
+
+    @Override
+    @Deprecated
+    public String encodeUrl(String url)
+    {
+        return url;
+    }
+
+    @Override
+    @Deprecated
+    public String encodeRedirectUrl(String url)
+    {
+        return url;
+    }
+
+    @Override
+    public void sendError(int sc, String msg) throws IOException
+    {
+        status = sc;
+        committed = true;
+    }
+
+    @Override
+    public void sendError(int sc) throws IOException
+    {
+        sendError(sc, null);
+    }
+
+    @Override
+    public void sendRedirect(String location) throws IOException
+    {
+        setHeader("Location", location);
+        sendError(SC_FOUND);
+    }
+
+    @Override
+    public void setDateHeader(String name, long date)
+    {
+        setHeader(name, String.valueOf(date));
+    }
+
+    @Override
+    public void addDateHeader(String name, long date)
+    {
+        addHeader(name, String.valueOf(date));
+    }
+
+    @Override
+    public void setHeader(String name, String value)
+    {
+        List<String> values = new ArrayList<>(1);
+        values.add(value);
+        headers.put(name.toLowerCase(Locale.ROOT), values);
+    }
+
+    @Override
+    public void addHeader(String name, String value)
+    {
+        headers.computeIfAbsent(name.toLowerCase(Locale.ROOT), key -> new ArrayList<>(1)).add(value);
+    }
+
+    @Override
+    public void setIntHeader(String name, int value)
+    {
+        setHeader(name, String.valueOf(value));
+    }
+
+    @Override
+    public void addIntHeader(String name, int value)
+    {
+        addHeader(name, String.valueOf(value));
+    }
+
+    @Override
+    public void setStatus(int sc)
+    {
+        status = sc;
+    }
+
+    @Override
+    @Deprecated
+    public void setStatus(int sc, String sm)
+    {
+        status = sc;
+    }
+
+    @Override
+    public int getStatus()
+    {
+        return status;
+    }
+
+    @Override
+    public String getHeader(String name)
+    {
+        List<String> values = headers.get(name.toLowerCase(Locale.ROOT));
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    @Override
+    public Collection<String> getHeaders(String name)
+    {
+        List<String> values = headers.get(name.toLowerCase(Locale.ROOT));
+        return values == null ? Collections.emptyList() : Collections.unmodifiableList(values);
+    }
+
+    @Override
+    public Collection<String> getHeaderNames()
+    {
+        return Collections.unmodifiableSet(headers.keySet());
+    }
+
+    @Override
+    public String getCharacterEncoding()
+    {
+        return characterEncoding;
+    }
+
+    @Override
+    public String getContentType()
+    {
+        return contentType == null ? null : contentType + ";charset=" + characterEncoding;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException
+    {
+        committed = true;
+        return outputStream;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException
+    {
+        if (writer == null) writer = new PrintWriter(new OutputStreamWriter(getOutputStream(), StandardCharsets.UTF_8));
+        return writer;
+    }
+
+    @Override
+    public void setCharacterEncoding(String charset)
+    {
+        characterEncoding = charset;
+    }
+
+    @Override
+    public void setContentLength(int len)
+    {
+        setIntHeader("Content-Length", len);
+    }
+
+    @Override
+    public void setContentLengthLong(long len)
+    {
+        setHeader("Content-Length", String.valueOf(len));
+    }
+
+    @Override
+    public void setContentType(String type)
+    {
+        contentType = type;
+    }
+
+    @Override
+    public void setBufferSize(int size)
+    {
+    }
+
+    @Override
+    public int getBufferSize()
+    {
+        return 0;
+    }
+
+    @Override
+    public void flushBuffer() throws IOException
+    {
+        outputStream.flush();
+    }
+
+    @Override
+    public void resetBuffer()
+    {
+    }
+
+    @Override
+    public boolean isCommitted()
+    {
+        return committed;
+    }
+
+    @Override
+    public void reset()
+    {
+        if (committed) throw new IllegalStateException("response already committed");
+        headers.clear();
+        status = SC_OK;
+    }
+
+    @Override
+    public void setLocale(Locale loc)
+    {
+    }
+
+    @Override
+    public Locale getLocale()
+    {
+        return Locale.ROOT;
+    }
+}
@@ -0,0 +1,159 @@
+package info.macias.sse.loadtest;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import java.io.IOException;
+import java.util.ArrayDeque;
+
+/**
+ * <p>Output stream of a simulated connection. Written bytes go to a bounded socket buffer, which the simulated
+ * client reads according to its {@link ConsumerProfile}, driven by the {@link SimulatedNetwork} thread.</p>
+ *
+ * <p>Blocking writes wait for buffer room; in non-blocking mode, {@link #isReady()} returns false when the buffer
+ * is full, and the write listener is notified when the client has read enough.</p>
+ */
+public class FakeServletOutputStream extends ServletOutputStream
+{
+    private final FakeConnection connection;
+    private final ConsumerProfile profile;
+
+    private long written = 0;
+    private long consumed = 0;
+    /* pending events: end offset in the stream, and numeric id */
+    private final ArrayDeque<long[]> pending = new ArrayDeque<>();
+    private WriteListener writeListener = null;
+    private boolean notReady = false;
+    private boolean closed = false;
+    private boolean disconnected = false;
+
+    FakeServletOutputStream(FakeConnection connection, ConsumerProfile profile)
+    {
+        this.connection = connection;
+        this.profile = profile;
+    }
+
+    @Override
+    public synchronized boolean isReady()
+    {
+        if (closed || disconnected) return true; // so that the next write fails
+        if (written - consumed >= profile.getSocketBufferSize())
+        {
+            notReady = true;
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void setWriteListener(WriteListener writeListener)
+    {
+        this.writeListener = writeListener;
+    }
+
+    @Override
+    public void write(int b) throws IOException
+    {
+        write(new byte[] { (byte)b }, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] bytes, int off, int len) throws IOException
+    {
+        if (writeListener == null)
+        {
+            // blocking mode
+            while (!closed && !disconnected && written - consumed >= profile.getSocketBufferSize())
+            {
+                try
+                {
+                    wait();
+                }
+                catch (InterruptedException ie)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted");
+                }
+            }
+        }
+        if (disconnected) throw new IOException("connection reset by peer");
+        if (closed) throw new IOException("stream closed");
+        written += len;
+        long id = parseId(bytes, off, len);
+        if (id >= 0) pending.add(new long[] { written, id });
+        if (!profile.isThrottled()) consume(Long.MAX_VALUE);
+    }
+
+    @Override
+    public void flush() throws IOException
+    {
+        synchronized (this)
+        {
+            if (disconnected) throw new IOException("connection reset by peer");
+        }
+    }
+
+    @Override
+    public synchronized void close()
+    {
+        closed = true;
+        notifyAll();
+    }
+
+    /**
+     * Client side read, called by the network thread
+     * @param maxBytes maximum number of bytes to read
+     * @return write listener to notify, if the stream became ready again
+     */
+    synchronized WriteListener consume(long maxBytes)
+    {
+        long available = written - consumed;
+        long read = Math.min(available, maxBytes);
+        if (read <= 0) return null;
+        consumed += read;
+        while (!pending.isEmpty() && pending.peekFirst()[0] <= consumed)
+        {
+            long[] event = pending.removeFirst();
+            // the client may hang up once it has received enough events
+            if (connection.received(event[1])) disconnected = true;
+        }
+        notifyAll();
+        if (notReady && written - consumed < profile.getSocketBufferSize())
+        {
+            notReady = false;
+            return writeListener;
+        }
+        return null;
+    }
+
+    synchronized long getBufferedBytes()
+    {
+        return written - consumed;
+    }
+
+    synchronized long getConsumedBytes()
+    {
+        return consumed;
+    }
+
+    synchronized boolean isDisconnected()
+    {
+        return disconnected;
+    }
+
+    /* numeric value of the id line of a frame, or -1 */
+    private static long parseId(byte[] bytes, int off, int len)
+    {
+        int end = off + len;
+        for (int i = off; i + 3 < end; ++i)
+        {
+            if ((i == off || bytes[i - 1] == '\n') && bytes[i] == 'i' && bytes[i + 1] == 'd' && bytes[i + 2] == ':' && bytes[i + 3] == ' ')
+            {
+                long id = 0;
+                int digits = 0;
+                for (int j = i + 4; j < end && bytes[j] >= '0' && bytes[j] <= '9'; ++j, ++digits) id = id * 10 + (bytes[j] - '0');
+                return digits == 0 ? -1 : id;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,372 @@
+package info.macias.sse.loadtest;
+
+import info.macias.sse.EventBroadcast;
+import info.macias.sse.OutboundQueue;
+import info.macias.sse.OverflowPolicy;
+import info.macias.sse.events.MessageEvent;
+import info.macias.sse.metrics.Histogram;
+import info.macias.sse.metrics.InMemoryMetrics;
+import info.macias.sse.servlet3.ServletEventTarget;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>Drives a broadcaster with simulated connections: subscribes them, publishes events at a given rate,
+ * waits for clients to read them, and reports throughput, latency, heap usage and evictions.</p>
+ *
+ * <pre>
+ *   try (LoadDriver driver = new LoadDriver.Builder().setConnections(100000).setEvents(1000).build())
+ *   {
+ *       logger.info("{}", driver.run());
+ *   }
+ * </pre>
+ */
+public class LoadDriver implements AutoCloseable
+{
+    private final EventBroadcast broadcast;
+    private final int connectionCount;
+    private final List<ConsumerProfile> profiles;
+    private final Map<String, String> headers;
+    private final boolean nonBlocking;
+    private final int queueCapacity;
+    private final OverflowPolicy overflowPolicy;
+    private final int events;
+    private final int publishRate;
+    private final String payload;
+    private final long quietMillis;
+    private final long timeoutMillis;
+
+    private final InMemoryMetrics metrics = new InMemoryMetrics();
+    private final SimulatedNetwork network;
+    private final List<FakeConnection> connections = new ArrayList<>();
+    private final Histogram latencyMicros = new Histogram();
+    private final LongAdder delivered = new LongAdder();
+    /* publication times, indexed by event id, only grown by the publisher */
+    private volatile AtomicLongArray publishNanos = new AtomicLongArray(1024);
+
+    private LoadDriver(Builder builder)
+    {
+        broadcast = builder.broadcast;
+        connectionCount = builder.connections;
+        profiles = builder.profiles.isEmpty() ? Collections.singletonList(ConsumerProfile.FAST) : builder.profiles;
+        headers = builder.headers;
+        nonBlocking = builder.nonBlocking;
+        queueCapacity = builder.queueCapacity;
+        overflowPolicy = builder.overflowPolicy;
+        events = builder.events;
+        publishRate = builder.publishRate;
+        StringBuilder data = new StringBuilder("{\"payload\":\"");
+        while (data.length() < builder.payloadSize - 2) data.append('x');
+        payload = data.append("\"}").toString();
+        quietMillis = builder.quietMillis;
+        timeoutMillis = builder.timeoutMillis;
+        broadcast.setMetrics(metrics);
+        network = new SimulatedNetwork(builder.tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public EventBroadcast getBroadcast()
+    {
+        return broadcast;
+    }
+
+    public List<FakeConnection> getConnections()
+    {
+        return Collections.unmodifiableList(connections);
+    }
+
+    private void onEvent(long id)
+    {
+        AtomicLongArray times = publishNanos;
+        if (id >= times.length()) return;
+        long published = times.get((int)id);
+        if (published == 0) return;
+        latencyMicros.record((System.nanoTime() - published) / 1000);
+        delivered.increment();
+    }
+
+    private FakeConnection connect(ConsumerProfile profile, String lastEventId) throws IOException
+    {
+        Map<String, String> requestHeaders = headers;
+        if (lastEventId != null)
+        {
+            requestHeaders = new HashMap<>(headers);
+            requestHeaders.put("Last-Event-ID", lastEventId);
+        }
+        FakeConnection connection = new FakeConnection(profile, requestHeaders, this::onEvent);
+        OutboundQueue queue = nonBlocking ? (queueCapacity > 0 ? new OutboundQueue(queueCapacity, overflowPolicy) : new OutboundQueue()) : null;
+        ServletEventTarget target = new ServletEventTarget(connection.getRequest(), queue).setMetrics(metrics);
+        network.add(connection);
+        broadcast.addSubscriber(target, lastEventId);
+        return connection;
+    }
+
+    private static long usedHeap()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; ++i) System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Subscribes the connections, cycling through the consumer profiles, publishes the events, and waits
+     * for clients to read them
+     * @return load report
+     * @throws IOException if a subscription failed
+     * @throws InterruptedException if interrupted while waiting for clients
+     */
+    public LoadReport run() throws IOException, InterruptedException
+    {
+        long heapBefore = usedHeap();
+        for (int i = 0; i < connectionCount; ++i)
+        {
+            connections.add(connect(profiles.get(i % profiles.size()), null));
+        }
+        long heapPerConnection = (usedHeap() - heapBefore) / Math.max(1, connectionCount);
+        metrics.reset();
+        latencyMicros.reset();
+        delivered.reset();
+        long start = System.nanoTime();
+        long bytesBefore = consumedBytes();
+        publish();
+        long duration = awaitQuiescence() - start;
+        return new LoadReport("run", connectionCount, duration, delivered.sum(), consumedBytes() - bytesBefore,
+            latencyMicros.snapshot(), heapPerConnection, metrics.snapshot());
+    }
+
+    /**
+     * Reconnects all closed connections at once, with their <code>Last-Event-ID</code>, from several threads
+     * @param profile behaviour of reconnected clients
+     * @param threads number of reconnecting threads
+     * @return load report, replay sizes being in {@link InMemoryMetrics.Snapshot#getReplayedEvents()}
+     * @throws Exception if a reconnection failed
+     */
+    public LoadReport reconnectStorm(ConsumerProfile profile, int threads) throws Exception
+    {
+        List<FakeConnection> closed = new ArrayList<>();
+        for (FakeConnection connection : connections)
+        {
+            if (connection.isClosed()) closed.add(connection);
+        }
+        metrics.reset();
+        latencyMicros.reset();
+        delivered.reset();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<FakeConnection> reconnected = new ArrayList<>();
+        long start = System.nanoTime();
+        try
+        {
+            List<Future<FakeConnection>> reconnections = new ArrayList<>();
+            for (FakeConnection connection : closed)
+            {
+                reconnections.add(executor.submit(() -> connect(profile, connection.getLastEventId())));
+            }
+            connections.removeAll(closed);
+            for (Future<FakeConnection> reconnection : reconnections) reconnected.add(reconnection.get());
+            connections.addAll(reconnected);
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+        long duration = awaitQuiescence() - start;
+        long bytes = 0;
+        for (FakeConnection connection : reconnected) bytes += connection.getOutputStream().getConsumedBytes();
+        return new LoadReport("reconnect", closed.size(), duration, delivered.sum(), bytes,
+            latencyMicros.snapshot(), -1, metrics.snapshot());
+    }
+
+    private void publish()
+    {
+        long periodNanos = publishRate > 0 ? 1_000_000_000L / publishRate : 0;
+        long next = System.nanoTime();
+        for (int i = 0; i < events; ++i)
+        {
+            String id = broadcast.nextEventId();
+            int index = (int)Long.parseLong(id);
+            AtomicLongArray times = publishNanos;
+            if (index >= times.length())
+            {
+                AtomicLongArray grown = new AtomicLongArray(Math.max(index + 1, times.length() * 2));
+                for (int j = 0; j < times.length(); ++j) grown.set(j, times.get(j));
+                publishNanos = times = grown;
+            }
+            times.set(index, System.nanoTime());
+            broadcast.broadcast(new MessageEvent.Builder().setId(id).setEvent("load").setData(payload).build());
+            if (periodNanos > 0)
+            {
+                next += periodNanos;
+                long sleep = next - System.nanoTime();
+                if (sleep > 0) LockSupport.parkNanos(sleep);
+            }
+        }
+    }
+
+    /**
+     * Waits until clients stopped reading for the quiet period, or the timeout
+     * @return time of the last observed read, as per {@link System#nanoTime()}
+     */
+    private long awaitQuiescence() throws InterruptedException
+    {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        long quietNanos = TimeUnit.MILLISECONDS.toNanos(quietMillis);
+        long lastCount = -1;
+        long lastProgress = System.nanoTime();
+        while (System.nanoTime() < deadline)
+        {
+            long count = delivered.sum();
+            long now = System.nanoTime();
+            if (count != lastCount)
+            {
+                lastCount = count;
+                lastProgress = now;
+            }
+            else if (now - lastProgress >= quietNanos)
+            {
+                break;
+            }
+            Thread.sleep(1);
+        }
+        return lastProgress;
+    }
+
+    private long consumedBytes()
+    {
+        long bytes = 0;
+        for (FakeConnection connection : connections) bytes += connection.getOutputStream().getConsumedBytes();
+        return bytes;
+    }
+
+    @Override
+    public void close()
+    {
+        network.close();
+        broadcast.close();
+    }
+
+    public static class Builder
+    {
+        private EventBroadcast broadcast = null;
+        private int connections = 1000;
+        private final List<ConsumerProfile> profiles = new ArrayList<>();
+        private final Map<String, String> headers = new HashMap<>();
+        private boolean nonBlocking = true;
+        private int queueCapacity = 0;
+        private OverflowPolicy overflowPolicy = OverflowPolicy.DISCONNECT;
+        private int events = 100;
+        private int publishRate = 0;
+        private int payloadSize = 128;
+        private long tickMillis = 5;
+        private long quietMillis = 500;
+        private long timeoutMillis = 60000;
+
+        /**
+         * @param broadcast broadcaster under test, a new {@link EventBroadcast} keeping all events by default
+         * @return this builder
+         */
+        public Builder setBroadcast(EventBroadcast broadcast)
+        {
+            this.broadcast = broadcast;
+            return this;
+        }
+
+        public Builder setConnections(int connections)
+        {
+            this.connections = connections;
+            return this;
+        }
+
+        /**
+         * Adds a consumer profile; connections cycle through profiles, so that a profile added n times
+         * gets n times more connections
+         * @param profile consumer profile
+         * @return this builder
+         */
+        public Builder addProfile(ConsumerProfile profile)
+        {
+            profiles.add(profile);
+            return this;
+        }
+
+        public Builder setHeader(String name, String value)
+        {
+            headers.put(name, value);
+            return this;
+        }
+
+        /**
+         * @param nonBlocking whether to use non-blocking writes (the default)
+         * @param queueCapacity outbound queue capacity, or zero for unbounded queues
+         * @param overflowPolicy outbound queue overflow policy
+         * @return this builder
+         */
+        public Builder setNonBlocking(boolean nonBlocking, int queueCapacity, OverflowPolicy overflowPolicy)
+        {
+            this.nonBlocking = nonBlocking;
+            this.queueCapacity = queueCapacity;
+            this.overflowPolicy = overflowPolicy;
+            return this;
+        }
+
+        public Builder setEvents(int events)
+        {
+            this.events = events;
+            return this;
+        }
+
+        /**
+         * @param publishRate events per second, or zero to publish as fast as possible
+         * @return this builder
+         */
+        public Builder setPublishRate(int publishRate)
+        {
+            this.publishRate = publishRate;
+            return this;
+        }
+
+        public Builder setPayloadSize(int payloadSize)
+        {
+            this.payloadSize = payloadSize;
+            return this;
+        }
+
+        /**
+         * @param tickMillis period of the simulated network reads
+         * @return this builder
+         */
+        public Builder setTick(long tickMillis)
+        {
+            this.tickMillis = tickMillis;
+            return this;
+        }
+
+        /**
+         * @param quietMillis clients are considered done when they have not read anything for this period
+         * @param timeoutMillis maximum waiting time for clients
+         * @return this builder
+         */
+        public Builder setWaits(long quietMillis, long timeoutMillis)
+        {
+            this.quietMillis = quietMillis;
+            this.timeoutMillis = timeoutMillis;
+            return this;
+        }
+
+        public LoadDriver build()
+        {
+            if (broadcast == null) broadcast = new EventBroadcast(Math.max(events, 1));
+            return new LoadDriver(this);
+        }
+    }
+}
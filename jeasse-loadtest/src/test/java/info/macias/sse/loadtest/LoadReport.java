@@ -0,0 +1,101 @@
+package info.macias.sse.loadtest;
+
+import info.macias.sse.metrics.Histogram;
+import info.macias.sse.metrics.InMemoryMetrics;
+
+/**
+ * Outcome of a load test phase
+ */
+public class LoadReport
+{
+    private final String phase;
+    private final int connections;
+    private final long durationNanos;
+    private final long eventsDelivered;
+    private final long bytesDelivered;
+    private final Histogram.Snapshot latencyMicros;
+    private final long heapPerConnection;
+    private final InMemoryMetrics.Snapshot metrics;
+
+    LoadReport(String phase, int connections, long durationNanos, long eventsDelivered, long bytesDelivered,
+               Histogram.Snapshot latencyMicros, long heapPerConnection, InMemoryMetrics.Snapshot metrics)
+    {
+        this.phase = phase;
+        this.connections = connections;
+        this.durationNanos = durationNanos;
+        this.eventsDelivered = eventsDelivered;
+        this.bytesDelivered = bytesDelivered;
+        this.latencyMicros = latencyMicros;
+        this.heapPerConnection = heapPerConnection;
+        this.metrics = metrics;
+    }
+
+    public int getConnections()
+    {
+        return connections;
+    }
+
+    public long getDurationNanos()
+    {
+        return durationNanos;
+    }
+
+    /**
+     * @return number of events read by clients
+     */
+    public long getEventsDelivered()
+    {
+        return eventsDelivered;
+    }
+
+    /**
+     * @return number of bytes read by clients
+     */
+    public long getBytesDelivered()
+    {
+        return bytesDelivered;
+    }
+
+    /**
+     * @return events read by clients per second
+     */
+    public double getThroughput()
+    {
+        return durationNanos == 0 ? 0.0 : eventsDelivered * 1e9 / durationNanos;
+    }
+
+    /**
+     * @return delay between publication and client read of events, in microseconds
+     */
+    public Histogram.Snapshot getLatencyMicros()
+    {
+        return latencyMicros;
+    }
+
+    /**
+     * @return heap used by each connection, client side included, or -1 if not measured
+     */
+    public long getHeapPerConnection()
+    {
+        return heapPerConnection;
+    }
+
+    public long getEvictions()
+    {
+        return metrics.getSubscribersEvicted();
+    }
+
+    public InMemoryMetrics.Snapshot getMetrics()
+    {
+        return metrics;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("[%s] %d connections, %.2fs: %d events (%.0f/s), %d bytes, latency(us) p50=%d p99=%d p999=%d max=%d, heap/connection=%s, evictions=%d, dropped=%d",
+            phase, connections, durationNanos / 1e9, eventsDelivered, getThroughput(), bytesDelivered,
+            latencyMicros.getPercentile(50), latencyMicros.getPercentile(99), latencyMicros.getPercentile(99.9), latencyMicros.getMax(),
+            heapPerConnection < 0 ? "n/a" : heapPerConnection + "B", getEvictions(), metrics.getEventsDropped());
+    }
+}
@@ -0,0 +1,101 @@
+package info.macias.sse.loadtest;
+
+import info.macias.sse.OverflowPolicy;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p>Load scenarios, sized by the <code>loadtest.connections</code> and <code>loadtest.events</code>
+ * system properties. They are only run when the <code>loadtest</code> property is set:</p>
+ * <pre>
+ *   mvn -pl jeasse-loadtest test -Dloadtest -Dloadtest.connections=100000 -Dloadtest.events=1000
+ * </pre>
+ */
+public class LoadTest {
+
+    protected static Logger logger = LoggerFactory.getLogger("sse");
+
+    private static final int CONNECTIONS = Integer.getInteger("loadtest.connections", 2000);
+    private static final int EVENTS = Integer.getInteger("loadtest.events", 200);
+
+    @Test
+    public void testFastConsumers() throws Exception {
+        try (LoadDriver driver = new LoadDriver.Builder()
+            .setConnections(CONNECTIONS)
+            .setEvents(EVENTS)
+            .build()) {
+            LoadReport report = driver.run();
+            logger.info("{}", report);
+            assertEquals((long)CONNECTIONS * EVENTS, report.getEventsDelivered());
+            assertEquals(0, report.getEvictions());
+        }
+    }
+
+    @Test
+    public void testBlockingWrites() throws Exception {
+        try (LoadDriver driver = new LoadDriver.Builder()
+            .setConnections(CONNECTIONS)
+            .setEvents(EVENTS)
+            .setNonBlocking(false, 0, null)
+            .build()) {
+            LoadReport report = driver.run();
+            logger.info("{}", report);
+            assertEquals((long)CONNECTIONS * EVENTS, report.getEventsDelivered());
+        }
+    }
+
+    @Test
+    public void testSlowConsumers() throws Exception {
+        ConsumerProfile slow = new ConsumerProfile.Builder()
+            .setBandwidth(1000)
+            .setSocketBufferSize(512)
+            .setStalls(200, 1000)
+            .build();
+        try (LoadDriver driver = new LoadDriver.Builder()
+            .setConnections(CONNECTIONS)
+            .setEvents(EVENTS)
+            .setNonBlocking(true, 16, OverflowPolicy.DISCONNECT)
+            // one slow consumer out of ten
+            .addProfile(slow)
+            .addProfile(ConsumerProfile.FAST).addProfile(ConsumerProfile.FAST).addProfile(ConsumerProfile.FAST)
+            .addProfile(ConsumerProfile.FAST).addProfile(ConsumerProfile.FAST).addProfile(ConsumerProfile.FAST)
+            .addProfile(ConsumerProfile.FAST).addProfile(ConsumerProfile.FAST).addProfile(ConsumerProfile.FAST)
+            .build()) {
+            LoadReport report = driver.run();
+            logger.info("{}", report);
+            int slowCount = (CONNECTIONS + 9) / 10;
+            assertEquals(slowCount, report.getEvictions());
+            for (FakeConnection connection : driver.getConnections()) {
+                if (connection.getProfile() == ConsumerProfile.FAST) {
+                    assertEquals(EVENTS, connection.getReceivedEvents());
+                } else {
+                    assertTrue(connection.isClosed());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testReconnectStorm() throws Exception {
+        int disconnectAfter = EVENTS / 4;
+        try (LoadDriver driver = new LoadDriver.Builder()
+            .setConnections(CONNECTIONS)
+            .setEvents(EVENTS)
+            .addProfile(new ConsumerProfile.Builder().setDisconnectAfter(disconnectAfter).build())
+            .build()) {
+            LoadReport report = driver.run();
+            logger.info("{}", report);
+            assertEquals((long)CONNECTIONS * disconnectAfter, report.getEventsDelivered());
+            assertEquals(CONNECTIONS, report.getEvictions());
+
+            LoadReport reconnect = driver.reconnectStorm(ConsumerProfile.FAST, 8);
+            logger.info("{}", reconnect);
+            assertEquals(CONNECTIONS, reconnect.getConnections());
+            assertEquals(CONNECTIONS, reconnect.getMetrics().getReplayedEvents().getCount());
+            assertEquals((long)CONNECTIONS * (EVENTS - disconnectAfter), reconnect.getEventsDelivered());
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package info.macias.sse.loadtest;
+
+import javax.servlet.WriteListener;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Network thread reading the socket buffers of throttled clients, at their own pace.</p>
+ *
+ * <p>Every tick, each client reads what its bandwidth allows since the previous tick, unless it is stalled.
+ * Write listeners of the connections whose buffer is no longer full are then notified, as a container would.</p>
+ */
+public class SimulatedNetwork implements AutoCloseable
+{
+    private final long tickNanos;
+    private final Queue<FakeConnection> connections = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    /**
+     * @param tick ticks period
+     * @param unit time unit of the tick argument
+     */
+    public SimulatedNetwork(long tick, TimeUnit unit)
+    {
+        tickNanos = unit.toNanos(tick);
+        thread = new Thread(this::run, "simulated-network");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Registers a connection, which is only needed for throttled clients
+     * @param connection simulated connection
+     */
+    public void add(FakeConnection connection)
+    {
+        if (connection.getProfile().isThrottled()) connections.add(connection);
+    }
+
+    private void run()
+    {
+        long last = System.nanoTime();
+        while (running)
+        {
+            long now = System.nanoTime();
+            long elapsed = now - last;
+            last = now;
+            long nowMillis = System.currentTimeMillis();
+            for (Iterator<FakeConnection> it = connections.iterator(); it.hasNext(); )
+            {
+                FakeConnection connection = it.next();
+                if (connection.isClosed())
+                {
+                    it.remove();
+                    continue;
+                }
+                if (connection.isStalled(nowMillis)) continue;
+                long bandwidth = connection.getProfile().getBandwidth();
+                long allowance = bandwidth == 0 ? Long.MAX_VALUE : Math.max(1, bandwidth * elapsed / 1_000_000_000L);
+                WriteListener listener = connection.getOutputStream().consume(allowance);
+                if (listener != null)
+                {
+                    try
+                    {
+                        listener.onWritePossible();
+                    }
+                    catch (IOException | RuntimeException e)
+                    {
+                        listener.onError(e);
+                    }
+                }
+            }
+            long sleep = tickNanos - (System.nanoTime() - now);
+            if (sleep > 0)
+            {
+                try
+                {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                }
+                catch (InterruptedException ie)
+                {
+                    break;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        running = false;
+        thread.interrupt();
+        try
+        {
+            thread.join();
+        }
+        catch (InterruptedException ie)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package info.macias.sse.nio;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Selector thread, serving a share of the connections of a {@link NioEventServer}
+ */
+class EventLoop implements Runnable
+{
+    protected static Logger logger = LoggerFactory.getLogger("sse");
+
+    final Selector selector;
+    /* buffer for discarded input, only used from the loop thread */
+    final ByteBuffer scratch = ByteBuffer.allocateDirect(512);
+    private final NioEventServer server;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    EventLoop(NioEventServer server, String name) throws IOException
+    {
+        this.server = server;
+        selector = Selector.open();
+        thread = new Thread(this, name);
+        thread.setDaemon(true);
+    }
+
+    void start()
+    {
+        thread.start();
+    }
+
+    boolean inLoop()
+    {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Runs a task on the loop thread
+     * @param task task
+     */
+    void execute(Runnable task)
+    {
+        if (inLoop())
+        {
+            task.run();
+        }
+        else
+        {
+            tasks.add(task);
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Hands a new connection over to this loop
+     * @param channel accepted channel
+     */
+    void register(SocketChannel channel)
+    {
+        execute(() ->
+        {
+            try
+            {
+                NioEventTarget target = new NioEventTarget(server, this, channel);
+                target.setKey(channel.register(selector, SelectionKey.OP_READ, target));
+            }
+            catch (IOException ioe)
+            {
+                logger.debug("could not register connection: {}", ioe.getMessage());
+                try
+                {
+                    channel.close();
+                }
+                catch (IOException e) {}
+            }
+        });
+    }
+
+    @Override
+    public void run()
+    {
+        try
+        {
+            while (running)
+            {
+                selector.select();
+                Runnable task;
+                while ((task = tasks.poll()) != null)
+                {
+                    try
+                    {
+                        task.run();
+                    }
+                    catch (RuntimeException e)
+                    {
+                        logger.error("event loop task error", e);
+                    }
+                }
+                for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext(); )
+                {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable())
+                    {
+                        server.accept();
+                        continue;
+                    }
+                    NioEventTarget target = (NioEventTarget)key.attachment();
+                    // the key may be cancelled at any time by a target closed from another thread, a single
+                    // connection must not stop the loop serving all the others
+                    try
+                    {
+                        if (key.isReadable()) target.onReadable();
+                        if (key.isValid() && key.isWritable()) target.onWritable();
+                    }
+                    catch (CancelledKeyException cke)
+                    {
+                        target.close();
+                    }
+                    catch (RuntimeException e)
+                    {
+                        logger.error("event loop connection error", e);
+                        target.close();
+                    }
+                }
+            }
+        }
+        catch (IOException | ClosedSelectorException e)
+        {
+            if (running) logger.error("event loop failure", e);
+        }
+        finally
+        {
+            for (SelectionKey key : selector.keys())
+            {
+                Object attachment = key.attachment();
+                if (attachment instanceof NioEventTarget) ((NioEventTarget)attachment).close();
+            }
+            try
+            {
+                selector.close();
+            }
+            catch (IOException ioe) {}
+        }
+    }
+
+    /**
+     * Stops the loop, closing its connections
+     * @param millis maximum time to wait for the loop thread to stop
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void shutdown(long millis) throws InterruptedException
+    {
+        running = false;
+        selector.wakeup();
+        if (!inLoop()) thread.join(millis);
+    }
+}
@@ -0,0 +1,236 @@
+package info.macias.sse.nio;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Standalone SSE server, for dedicated push nodes which do not need a servlet container.</p>
+ *
+ * <p>It implements the minimal subset of HTTP/1.1 needed by SSE clients: each connection sends a single GET
+ * request, whose headers are read and handed over to a {@link SubscriptionHandler} as a {@link NioEventTarget},
+ * which is then used like any other event target, typically with an {@link info.macias.sse.EventBroadcast}.
+ * A few event loop threads serve all the connections.</p>
+ *
+ * <p>Servers are built and started using {@link NioEventServer.Builder}.</p>
+ */
+public class NioEventServer implements AutoCloseable
+{
+    protected static Logger logger = LoggerFactory.getLogger("sse");
+
+    public static final int DEFAULT_MAX_PENDING_FRAMES = 1024;
+    public static final int DEFAULT_MAX_REQUEST_SIZE = 8 * 1024;
+    private static final long SHUTDOWN_TIMEOUT = 1000;
+
+    private static final AtomicInteger serverCount = new AtomicInteger();
+
+    private final ServerSocketChannel serverChannel;
+    private final EventLoop[] loops;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private final SubscriptionHandler handler;
+    private final int maxPendingFrames;
+    private final int maxRequestSize;
+
+    private NioEventServer(InetSocketAddress address, int backlog, int eventLoops, SubscriptionHandler handler, int maxPendingFrames, int maxRequestSize) throws IOException
+    {
+        this.handler = handler;
+        this.maxPendingFrames = maxPendingFrames;
+        this.maxRequestSize = maxRequestSize;
+        serverChannel = ServerSocketChannel.open();
+        try
+        {
+            serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            serverChannel.bind(address, backlog);
+            serverChannel.configureBlocking(false);
+            String prefix = "sse-nio-" + serverCount.incrementAndGet() + "-";
+            loops = new EventLoop[eventLoops];
+            for (int i = 0; i < eventLoops; ++i)
+            {
+                loops[i] = new EventLoop(this, prefix + (i + 1));
+            }
+            // the first loop also accepts connections
+            serverChannel.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+        }
+        catch (IOException ioe)
+        {
+            serverChannel.close();
+            throw ioe;
+        }
+        for (EventLoop loop : loops) loop.start();
+        logger.info("sse server listening on {}", serverChannel.getLocalAddress());
+    }
+
+    /**
+     * Accepts pending connections, and dispatches them to the event loops
+     */
+    void accept()
+    {
+        try
+        {
+            SocketChannel channel;
+            while ((channel = serverChannel.accept()) != null)
+            {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)].register(channel);
+            }
+        }
+        catch (IOException ioe)
+        {
+            // typically too many open files: keep on serving existing connections
+            logger.warn("could not accept connection: {}", ioe.getMessage());
+        }
+    }
+
+    SubscriptionHandler getHandler()
+    {
+        return handler;
+    }
+
+    public int getMaxPendingFrames()
+    {
+        return maxPendingFrames;
+    }
+
+    public int getMaxRequestSize()
+    {
+        return maxRequestSize;
+    }
+
+    public int getEventLoopCount()
+    {
+        return loops.length;
+    }
+
+    /**
+     * Listening port, useful when an ephemeral port was asked for
+     * @return listening port
+     */
+    public int getPort()
+    {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Stops listening, and closes all connections
+     */
+    @Override
+    public void close()
+    {
+        try
+        {
+            serverChannel.close();
+        }
+        catch (IOException ioe)
+        {
+            logger.warn("could not close server socket", ioe);
+        }
+        try
+        {
+            for (EventLoop loop : loops) loop.shutdown(SHUTDOWN_TIMEOUT);
+        }
+        catch (InterruptedException ie)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static class Builder
+    {
+        private InetSocketAddress address = new InetSocketAddress(8080);
+        private int backlog = 1024;
+        private int eventLoops = Runtime.getRuntime().availableProcessors();
+        private SubscriptionHandler handler = null;
+        private int maxPendingFrames = DEFAULT_MAX_PENDING_FRAMES;
+        private int maxRequestSize = DEFAULT_MAX_REQUEST_SIZE;
+
+        /**
+         * @param port listening port on all interfaces, zero for an ephemeral port
+         * @return this builder
+         */
+        public Builder setPort(int port)
+        {
+            address = new InetSocketAddress(port);
+            return this;
+        }
+
+        /**
+         * @param address listening address
+         * @return this builder
+         */
+        public Builder setAddress(InetSocketAddress address)
+        {
+            this.address = address;
+            return this;
+        }
+
+        /**
+         * @param backlog maximum number of connections waiting to be accepted
+         * @return this builder
+         */
+        public Builder setBacklog(int backlog)
+        {
+            this.backlog = backlog;
+            return this;
+        }
+
+        /**
+         * @param eventLoops number of event loop threads, defaults to the number of available processors
+         * @return this builder
+         */
+        public Builder setEventLoops(int eventLoops)
+        {
+            if (eventLoops <= 0) throw new IllegalArgumentException("event loops count must be strictly positive");
+            this.eventLoops = eventLoops;
+            return this;
+        }
+
+        /**
+         * @param handler subscription requests handler
+         * @return this builder
+         */
+        public Builder setHandler(SubscriptionHandler handler)
+        {
+            this.handler = handler;
+            return this;
+        }
+
+        /**
+         * @param maxPendingFrames number of frames waiting for a slow client after which it is disconnected
+         * @return this builder
+         */
+        public Builder setMaxPendingFrames(int maxPendingFrames)
+        {
+            this.maxPendingFrames = maxPendingFrames;
+            return this;
+        }
+
+        /**
+         * @param maxRequestSize maximum size of request headers
+         * @return this builder
+         */
+        public Builder setMaxRequestSize(int maxRequestSize)
+        {
+            this.maxRequestSize = maxRequestSize;
+            return this;
+        }
+
+        /**
+         * Builds and starts the server
+         * @return new server
+         * @throws IOException if the server could not listen on the given address
+         */
+        public NioEventServer build() throws IOException
+        {
+            if (handler == null) throw new IllegalStateException("no subscription handler");
+            return new NioEventServer(address, backlog, eventLoops, handler, maxPendingFrames, maxRequestSize);
+        }
+    }
+}
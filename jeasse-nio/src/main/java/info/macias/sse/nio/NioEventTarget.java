@@ -0,0 +1,551 @@
+package info.macias.sse.nio;
+
+import info.macias.sse.EventTarget;
+import info.macias.sse.SlowConsumerException;
+import info.macias.sse.events.MessageEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>SSE connection of a {@link NioEventServer}.</p>
+ *
+ * <p>Events are written from their shared encoded form (see {@link MessageEvent#asDirectByteBuffer()}) with
+ * gathering writes: straight from the calling thread while the socket accepts them, and then from the event loop
+ * once the socket is writable again. Frames waiting for the socket are only referenced by the connection, and
+ * a connection having more than the configured maximum number of pending frames is closed as a slow consumer.</p>
+ *
+ * <p>A disconnected client is detected by its event loop; the next event sent to the target fails, and the
+ * broadcaster evicts it.</p>
+ */
+public class NioEventTarget implements EventTarget
+{
+    protected static Logger logger = LoggerFactory.getLogger("sse");
+
+    private static final AtomicLong nextID = new AtomicLong();
+
+    private static final ByteBuffer OK_RESPONSE = direct(
+        "HTTP/1.1 200 OK\r\n" +
+        "Content-Type: text/event-stream;charset=UTF-8\r\n" +
+        "Cache-Control: no-cache\r\n" +
+        // the stream is delimited by the end of the connection
+        "Connection: close\r\n" +
+        "\r\n");
+    private static final MessageEvent OPEN_EVENT = MessageEvent.fromFrame("event: open\n\n".getBytes(StandardCharsets.UTF_8));
+    private static final MessageEvent KEEP_ALIVE_EVENT = MessageEvent.fromFrame(":\n\n".getBytes(StandardCharsets.UTF_8));
+
+    private static final int GATHER_SIZE = 64;
+    private static final ThreadLocal<ByteBuffer[]> gather = ThreadLocal.withInitial(() -> new ByteBuffer[GATHER_SIZE]);
+
+    private enum State { READING, SUBSCRIBED, CLOSED }
+
+    private final NioEventServer server;
+    private final EventLoop loop;
+    private final SocketChannel channel;
+    private SelectionKey key = null;
+    private volatile State state = State.READING;
+    private ByteBuffer request = null;
+    private String method = null;
+    private String path = null;
+    private Map<String, String> headers = Collections.emptyMap();
+    private String id;
+
+    private final ArrayDeque<ByteBuffer> pending = new ArrayDeque<>(4);
+    private boolean waitingWritable = false;
+    private boolean closeWhenFlushed = false;
+    private volatile long lastWriteTime = 0L;
+    /* time of the last progress while frames are pending */
+    private long progressTime = 0L;
+
+    NioEventTarget(NioEventServer server, EventLoop loop, SocketChannel channel)
+    {
+        this.server = server;
+        this.loop = loop;
+        this.channel = channel;
+        id = String.valueOf(nextID.incrementAndGet());
+    }
+
+    void setKey(SelectionKey key)
+    {
+        this.key = key;
+    }
+
+    /**
+     * Request method
+     * @return request method
+     */
+    public String getMethod()
+    {
+        return method;
+    }
+
+    /**
+     * Request path, including the query string if any
+     * @return request path
+     */
+    public String getPath()
+    {
+        return path;
+    }
+
+    /**
+     * Returns a request header
+     * @param name header name, case insensitive
+     * @return header value, or null if absent
+     */
+    public String getHeader(String name)
+    {
+        return headers.get(name.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * @return <code>Last-Event-ID</code> header of the request, or null
+     */
+    public String getLastEventId()
+    {
+        return getHeader("Last-Event-ID");
+    }
+
+    /**
+     * @return client address
+     */
+    public String getRemoteAddress()
+    {
+        try
+        {
+            return String.valueOf(channel.getRemoteAddress());
+        }
+        catch (IOException ioe)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Sends the response headers:
+     * <pre>
+     *     Content-type: text/event-stream;charset=utf-8
+     *     Cache-Control: no-cache
+     *     Connection: close
+     * </pre>
+     * @return The same {@link NioEventTarget} object that received the method call
+     */
+    @Override
+    public NioEventTarget ok()
+    {
+        try
+        {
+            enqueue(OK_RESPONSE.duplicate());
+        }
+        catch (IOException ioe)
+        {
+            // the following open() call will fail
+            logger.debug("#{} could not accept connection: {}", id, ioe.getMessage());
+        }
+        return this;
+    }
+
+    @Override
+    public NioEventTarget open() throws IOException
+    {
+        return send(OPEN_EVENT);
+    }
+
+    /**
+     * Refuses the subscription with an empty response, and closes the connection
+     * @param status HTTP status, like 404 or 403
+     * @throws IOException if the response could not be sent
+     */
+    public void reject(int status) throws IOException
+    {
+        respond(status);
+    }
+
+    @Override
+    public NioEventTarget send(String event, String data) throws IOException
+    {
+        return send(new MessageEvent.Builder()
+            .setEvent(event)
+            .setData(data)
+            .build());
+    }
+
+    @Override
+    public NioEventTarget send(MessageEvent messageEvent) throws IOException
+    {
+        enqueue(messageEvent.asDirectByteBuffer());
+        return this;
+    }
+
+    @Override
+    public NioEventTarget sendFrame(byte[] frame) throws IOException
+    {
+        // replayed frames may come from a reused buffer
+        enqueue(ByteBuffer.wrap(frame.clone()));
+        return this;
+    }
+
+    @Override
+    public void keepAlive() throws IOException
+    {
+        enqueue(KEEP_ALIVE_EVENT.asDirectByteBuffer());
+    }
+
+    @Override
+    public long getLastWriteTime()
+    {
+        return lastWriteTime;
+    }
+
+    @Override
+    public int getQueueDepth()
+    {
+        synchronized (pending)
+        {
+            return pending.size();
+        }
+    }
+
+    @Override
+    public long getPendingBytes()
+    {
+        synchronized (pending)
+        {
+            long bytes = 0;
+            for (ByteBuffer buffer : pending) bytes += buffer.remaining();
+            return bytes;
+        }
+    }
+
+    /**
+     * @return time since the socket last accepted pending frames, in milliseconds, or zero if none are pending
+     */
+    @Override
+    public long getWriteLatency()
+    {
+        synchronized (pending)
+        {
+            return pending.isEmpty() ? 0L : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - progressTime);
+        }
+    }
+
+    /**
+     * Drops pending frames, except a partially written one, and closes the connection once the reconnection hint
+     * has been written
+     * @param retryHint reconnection delay, in milliseconds
+     */
+    @Override
+    public void disconnect(int retryHint)
+    {
+        synchronized (pending)
+        {
+            if (state == State.CLOSED || closeWhenFlushed) return;
+            ByteBuffer head = pending.peek();
+            pending.clear();
+            if (head != null && head.position() > 0) pending.add(head);
+            try
+            {
+                enqueue(ByteBuffer.wrap(new MessageEvent.Builder().setRetry(retryHint).build().getBytes()));
+                closeWhenFlushed = true;
+                if (pending.isEmpty()) close();
+            }
+            catch (IOException ioe)
+            {
+                close();
+            }
+        }
+    }
+
+    @Override
+    public String getID()
+    {
+        return id;
+    }
+
+    /**
+     * Replaces the generated id, for instance by a user id. Must be called before the target is added to a
+     * broadcaster.
+     * @param id target id, possibly shared by several targets
+     * @return The same {@link NioEventTarget} object that received the method call
+     */
+    public NioEventTarget setID(String id)
+    {
+        this.id = id;
+        return this;
+    }
+
+    public boolean isClosed()
+    {
+        return state == State.CLOSED;
+    }
+
+    @Override
+    public void close()
+    {
+        synchronized (pending)
+        {
+            if (state == State.CLOSED) return;
+            state = State.CLOSED;
+            pending.clear();
+        }
+        if (key != null) key.cancel();
+        try
+        {
+            channel.close();
+        }
+        catch (IOException ioe) {}
+    }
+
+    private void enqueue(ByteBuffer buffer) throws IOException
+    {
+        synchronized (pending)
+        {
+            if (state == State.CLOSED || closeWhenFlushed) throw new IOException("event target #" + id + " is closed");
+            if (pending.size() >= server.getMaxPendingFrames())
+            {
+                close();
+                throw new SlowConsumerException("more than " + server.getMaxPendingFrames() + " pending frames");
+            }
+            if (pending.isEmpty()) progressTime = System.nanoTime();
+            pending.add(buffer);
+            if (waitingWritable) return;
+            try
+            {
+                flush();
+            }
+            catch (IOException ioe)
+            {
+                close();
+                throw ioe;
+            }
+        }
+    }
+
+    /* writes as many pending frames as the socket accepts, called with the pending lock held */
+    private void flush() throws IOException
+    {
+        ByteBuffer[] batch = gather.get();
+        try
+        {
+            while (!pending.isEmpty())
+            {
+                int count = 0;
+                long expected = 0;
+                for (ByteBuffer buffer : pending)
+                {
+                    batch[count++] = buffer;
+                    expected += buffer.remaining();
+                    if (count == batch.length) break;
+                }
+                long written = channel.write(batch, 0, count);
+                if (written > 0)
+                {
+                    lastWriteTime = System.currentTimeMillis();
+                    progressTime = System.nanoTime();
+                }
+                while (!pending.isEmpty() && !pending.peek().hasRemaining()) pending.poll();
+                if (written < expected) break;
+            }
+        }
+        finally
+        {
+            Arrays.fill(batch, null);
+        }
+        if (pending.isEmpty())
+        {
+            if (closeWhenFlushed)
+            {
+                close();
+                return;
+            }
+            if (waitingWritable)
+            {
+                waitingWritable = false;
+                setInterest(SelectionKey.OP_READ);
+            }
+        }
+        else if (!waitingWritable)
+        {
+            waitingWritable = true;
+            setInterest(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    private void setInterest(int ops)
+    {
+        loop.execute(() ->
+        {
+            SelectionKey key = this.key;
+            if (key != null && key.isValid()) key.interestOps(ops);
+        });
+    }
+
+    void onWritable()
+    {
+        synchronized (pending)
+        {
+            if (state == State.CLOSED) return;
+            try
+            {
+                flush();
+            }
+            catch (IOException ioe)
+            {
+                logger.debug("#{} write error: {}", id, ioe.getMessage());
+                close();
+            }
+        }
+    }
+
+    void onReadable()
+    {
+        try
+        {
+            if (state == State.READING)
+            {
+                readRequest();
+            }
+            else
+            {
+                // input after the request is ignored, only the end of the stream matters
+                ByteBuffer scratch = loop.scratch;
+                int read;
+                do
+                {
+                    scratch.clear();
+                    read = channel.read(scratch);
+                }
+                while (read > 0);
+                if (read < 0) close();
+            }
+        }
+        catch (IOException ioe)
+        {
+            logger.debug("#{} read error: {}", id, ioe.getMessage());
+            close();
+        }
+    }
+
+    private void readRequest() throws IOException
+    {
+        if (request == null) request = ByteBuffer.allocate(Math.min(1024, server.getMaxRequestSize()));
+        if (!request.hasRemaining())
+        {
+            if (request.capacity() >= server.getMaxRequestSize())
+            {
+                respond(431);
+                return;
+            }
+            ByteBuffer larger = ByteBuffer.allocate(Math.min(request.capacity() * 2, server.getMaxRequestSize()));
+            request.flip();
+            larger.put(request);
+            request = larger;
+        }
+        int read = channel.read(request);
+        if (read < 0)
+        {
+            close();
+            return;
+        }
+        int end = headersEnd(request.array(), request.position());
+        if (end < 0) return;
+        String head = new String(request.array(), 0, end, StandardCharsets.ISO_8859_1);
+        request = null;
+        if (!parse(head))
+        {
+            respond(400);
+            return;
+        }
+        if (!"GET".equals(method))
+        {
+            respond(405);
+            return;
+        }
+        state = State.SUBSCRIBED;
+        try
+        {
+            server.getHandler().subscribe(this);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            logger.debug("#{} subscription failed: {}", id, e.getMessage());
+            close();
+        }
+    }
+
+    /* position following the empty line which ends the headers, or -1 */
+    private static int headersEnd(byte[] bytes, int length)
+    {
+        for (int i = 0; i < length - 1; ++i)
+        {
+            if (bytes[i] != '\n') continue;
+            if (bytes[i + 1] == '\n') return i + 2;
+            if (bytes[i + 1] == '\r' && i + 2 < length && bytes[i + 2] == '\n') return i + 3;
+        }
+        return -1;
+    }
+
+    private boolean parse(String head)
+    {
+        String[] lines = head.split("\r?\n");
+        String[] requestLine = lines[0].split(" ");
+        if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/1.")) return false;
+        method = requestLine[0];
+        path = requestLine[1];
+        headers = new HashMap<>();
+        for (int i = 1; i < lines.length; ++i)
+        {
+            int colon = lines[i].indexOf(':');
+            if (colon <= 0) continue;
+            headers.put(lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT), lines[i].substring(colon + 1).trim());
+        }
+        return true;
+    }
+
+    private void respond(int status) throws IOException
+    {
+        String response = "HTTP/1.1 " + status + " " + reason(status) + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n";
+        synchronized (pending)
+        {
+            enqueue(ByteBuffer.wrap(response.getBytes(StandardCharsets.ISO_8859_1)));
+            closeWhenFlushed = true;
+            if (pending.isEmpty()) close();
+        }
+    }
+
+    private static String reason(int status)
+    {
+        switch (status)
+        {
+            case 400: return "Bad Request";
+            case 401: return "Unauthorized";
+            case 403: return "Forbidden";
+            case 404: return "Not Found";
+            case 405: return "Method Not Allowed";
+            case 431: return "Request Header Fields Too Large";
+            case 503: return "Service Unavailable";
+            default: return "Error";
+        }
+    }
+
+    private static ByteBuffer direct(String text)
+    {
+        byte[] bytes = text.getBytes(StandardCharsets.ISO_8859_1);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes).flip();
+        return buffer.asReadOnlyBuffer();
+    }
+}
@@ -0,0 +1,20 @@
+package info.macias.sse.nio;
+
+import java.io.IOException;
+
+/**
+ * Handles the subscription requests received by a {@link NioEventServer}
+ */
+@FunctionalInterface
+public interface SubscriptionHandler
+{
+    /**
+     * <p>Called on an event loop thread once the request headers have been read. The handler typically adds the
+     * target to a broadcaster, which accepts the connection, or rejects it with {@link NioEventTarget#reject(int)}.</p>
+     *
+     * <p>Since it runs on an event loop thread, the handler must not block.</p>
+     * @param target new connection
+     * @throws IOException if the subscription failed, in which case the connection is closed
+     */
+    void subscribe(NioEventTarget target) throws IOException;
+}
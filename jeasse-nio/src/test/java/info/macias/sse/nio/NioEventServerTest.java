@@ -0,0 +1,172 @@
+package info.macias.sse.nio;
+
+import info.macias.sse.EventBroadcast;
+import info.macias.sse.events.MessageEvent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.*;
+
+public class NioEventServerTest {
+
+    private EventBroadcast broadcast;
+    private NioEventServer server;
+    private final List<NioEventTarget> targets = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        broadcast = new EventBroadcast();
+        server = new NioEventServer.Builder()
+            .setAddress(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))
+            .setEventLoops(2)
+            .setMaxPendingFrames(16)
+            .setHandler(target -> {
+                targets.add(target);
+                if (target.getPath().startsWith("/events")) broadcast.addSubscriber(target, target.getLastEventId());
+                else target.reject(404);
+            })
+            .build();
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+        broadcast.close();
+    }
+
+    private Socket connect(String request) throws IOException {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+        socket.setSoTimeout(5000);
+        OutputStream out = socket.getOutputStream();
+        out.write(request.getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+        return socket;
+    }
+
+    private static BufferedReader reader(Socket socket) throws IOException {
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    private void awaitSubscribers(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (broadcast.getSubscriberCount() != count && System.currentTimeMillis() < deadline) Thread.sleep(5);
+        assertEquals(count, broadcast.getSubscriberCount());
+    }
+
+    @Test
+    public void testStreaming() throws Exception {
+        try (Socket socket = connect("GET /events HTTP/1.1\r\nHost: localhost\r\nAccept: text/event-stream\r\n\r\n")) {
+            BufferedReader in = reader(socket);
+            assertEquals("HTTP/1.1 200 OK", in.readLine());
+            String line;
+            boolean eventStream = false;
+            while (!(line = in.readLine()).isEmpty()) {
+                if (line.startsWith("Content-Type: text/event-stream")) eventStream = true;
+            }
+            assertTrue(eventStream);
+            assertEquals("event: open", in.readLine());
+            assertEquals("", in.readLine());
+
+            awaitSubscribers(1);
+            for (int i = 1; i <= 3; ++i) {
+                broadcast.broadcast(new MessageEvent.Builder().setId(String.valueOf(i)).setData("data " + i).build());
+            }
+            for (int i = 1; i <= 3; ++i) {
+                assertEquals("data: data " + i, in.readLine());
+                assertEquals("id: " + i, in.readLine());
+                assertEquals("", in.readLine());
+            }
+        }
+    }
+
+    @Test
+    public void testResume() throws Exception {
+        for (int i = 1; i <= 3; ++i) {
+            broadcast.broadcast(new MessageEvent.Builder().setId(String.valueOf(i)).setData("data " + i).build());
+        }
+        try (Socket socket = connect("GET /events HTTP/1.1\r\nLast-Event-ID: 1\r\n\r\n")) {
+            BufferedReader in = reader(socket);
+            while (!in.readLine().isEmpty());
+            assertEquals("event: open", in.readLine());
+            assertEquals("", in.readLine());
+            assertEquals("data: data 2", in.readLine());
+            assertEquals("id: 2", in.readLine());
+            assertEquals("", in.readLine());
+            assertEquals("data: data 3", in.readLine());
+        }
+    }
+
+    @Test
+    public void testRejections() throws Exception {
+        try (Socket socket = connect("GET /elsewhere HTTP/1.1\r\n\r\n")) {
+            BufferedReader in = reader(socket);
+            assertEquals("HTTP/1.1 404 Not Found", in.readLine());
+        }
+        try (Socket socket = connect("POST /events HTTP/1.1\r\nContent-Length: 0\r\n\r\n")) {
+            BufferedReader in = reader(socket);
+            assertEquals("HTTP/1.1 405 Method Not Allowed", in.readLine());
+        }
+        assertEquals(0, broadcast.getSubscriberCount());
+    }
+
+    @Test
+    public void testDisconnections() throws Exception {
+        Socket gone = connect("GET /events HTTP/1.1\r\n\r\n");
+        try (Socket slow = connect("GET /events HTTP/1.1\r\n\r\n")) {
+            slow.setReceiveBufferSize(1024);
+            awaitSubscribers(2);
+            gone.close();
+            char[] payload = new char[64 * 1024];
+            Arrays.fill(payload, 'x');
+            String data = new String(payload);
+            // the slow client never reads: its pending frames exceed the limit
+            long deadline = System.currentTimeMillis() + 5000;
+            while (broadcast.getSubscriberCount() > 0 && System.currentTimeMillis() < deadline) {
+                broadcast.broadcast("big", data);
+                Thread.sleep(1);
+            }
+            assertEquals(0, broadcast.getSubscriberCount());
+        }
+    }
+
+    @Test
+    public void testCloseWhileSending() throws Exception {
+        List<Socket> sockets = new ArrayList<>();
+        for (int i = 0; i < 20; ++i) sockets.add(connect("GET /events HTTP/1.1\r\n\r\n"));
+        awaitSubscribers(20);
+        Thread closer = new Thread(() -> {
+            for (NioEventTarget target : targets) target.close();
+        });
+        closer.start();
+        while (closer.isAlive()) broadcast.broadcast("message", "data");
+        // closed targets are evicted by the next broadcast
+        broadcast.broadcast("message", "data");
+        awaitSubscribers(0);
+        for (Socket socket : sockets) socket.close();
+
+        // the event loops keep serving the other connections
+        try (Socket socket = connect("GET /events HTTP/1.1\r\n\r\n")) {
+            BufferedReader in = reader(socket);
+            while (!in.readLine().isEmpty());
+            assertEquals("event: open", in.readLine());
+            assertEquals("", in.readLine());
+            awaitSubscribers(1);
+            broadcast.broadcast(new MessageEvent.Builder().setId("1").setData("data 1").build());
+            assertEquals("data: data 1", in.readLine());
+        }
+    }
+}
@@ -99,7 +99,7 @@ public class SseDispatcher {
      */
     public SseDispatcher send(MessageEvent messageEvent) throws IOException {
         HttpServletResponse response = (HttpServletResponse)asyncContext.getResponse();
-        response.getOutputStream().print(messageEvent.toString());
+        messageEvent.writeTo(response.getOutputStream());
         response.getOutputStream().flush();
         return this;
     }
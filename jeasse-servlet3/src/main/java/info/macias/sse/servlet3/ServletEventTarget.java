@@ -16,23 +16,43 @@ limitations under the License.
 
 package info.macias.sse.servlet3;
 
+import info.macias.sse.Compression;
 import info.macias.sse.EventBroadcast;
 import info.macias.sse.EventTarget;
+import info.macias.sse.OutboundQueue;
+import info.macias.sse.SlowConsumerException;
+import info.macias.sse.StreamCompressor;
 import info.macias.sse.events.MessageEvent;
+import info.macias.sse.metrics.Metrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.servlet.AsyncContext;
 import javax.servlet.AsyncEvent;
 import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * SSE dispatcher for one-to-one connections from Server to client-side subscriber
  *
+ * <p>By default, frames are written with blocking writes on the caller thread. In non-blocking mode (Servlet 3.1+),
+ * events are parked in a per-target {@link OutboundQueue} and written by a {@link WriteListener} whenever the
+ * container reports the socket as writable, so that a broadcast never waits on a slow client. The queue bounds and
+ * its overflow policy control what happens to clients which cannot keep up.</p>
+ *
+ * <p>Event streams can be compressed, see {@link #setCompression(Compression)}.</p>
+ *
+ * <p>Blocking mode targets can also be wrapped in a {@link info.macias.sse.ThreadedEventTarget}, so that
+ * each subscriber gets its own (virtual, on JDK 21+) writer thread.</p>
+ *
  * @author <a href="http://github.com/mariomac">Mario Macías</a>
  */
 public class ServletEventTarget implements EventTarget
@@ -41,17 +61,60 @@ public class ServletEventTarget implements EventTarget
 
     protected static Logger logger = LoggerFactory.getLogger("sse");
 
+    /* pre-encoded events shared by all targets */
+    private static final MessageEvent OPEN_EVENT = MessageEvent.fromFrame("event: open\n\n".getBytes(StandardCharsets.UTF_8));
+    private static final MessageEvent KEEP_ALIVE_EVENT = MessageEvent.fromFrame(":\n\n".getBytes(StandardCharsets.UTF_8));
+
 	private final AsyncContext asyncContext;
     private String id = null;
     private static AtomicInteger nextID = new AtomicInteger();
 
     private String lastMessageId = "";
 
+    /* non-blocking mode state, outbound queue is null in blocking mode */
+    private final OutboundQueue queue;
+    private volatile IOException writeError = null;
+
+    /* time of the last write, or enqueuing, to spare keep-alives to active subscribers */
+    private volatile long lastWriteTime = 0L;
+
+    /* blocking mode writes lock, so that frames written from several threads (broadcasts, heartbeats) do not interleave */
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    /* blocking mode write latency tracking: start of the ongoing write, and duration of the last one */
+    private volatile long writeStart = 0L;
+    private volatile long lastWriteNanos = 0L;
+
+    private volatile Metrics metrics = Metrics.NOOP;
+
+    /* compression settings, and negotiated compressor if any */
+    private Compression compression = null;
+    private volatile StreamCompressor compressor = null;
+
     /**
-     * Builds a new dispatcher from an {@link HttpServletRequest} object.
+     * Builds a new dispatcher from an {@link HttpServletRequest} object, using blocking writes.
      * @param request The {@link HttpServletRequest} reference, as sent by the subscriber.
      */
     public ServletEventTarget(HttpServletRequest request) {
+        this(request, false);
+    }
+
+    /**
+     * Builds a new dispatcher from an {@link HttpServletRequest} object.
+     * @param request The {@link HttpServletRequest} reference, as sent by the subscriber.
+     * @param nonBlocking whether to use Servlet 3.1 non-blocking writes, with an unbounded outbound queue
+     */
+    public ServletEventTarget(HttpServletRequest request, boolean nonBlocking) {
+        this(request, nonBlocking ? new OutboundQueue() : null);
+    }
+
+    /**
+     * Builds a new dispatcher from an {@link HttpServletRequest} object, using Servlet 3.1 non-blocking writes.
+     * @param request The {@link HttpServletRequest} reference, as sent by the subscriber.
+     * @param queue outbound queue to be used for this subscriber, or null for blocking writes
+     */
+    public ServletEventTarget(HttpServletRequest request, OutboundQueue queue) {
+        this.queue = queue;
         asyncContext = request.startAsync();
         asyncContext.setTimeout(0);
         asyncContext.addListener(new AsyncListenerImpl());
@@ -74,6 +137,17 @@ public class ServletEventTarget implements EventTarget
         response.setContentType("text/event-stream");
         response.setCharacterEncoding("UTF-8");
         response.setHeader("Cache-Control","no-cache");
+        if (compression != null)
+        {
+            String encoding = Compression.negotiate(((HttpServletRequest)asyncContext.getRequest()).getHeader("Accept-Encoding"));
+            if (encoding != null)
+            {
+                compressor = compression.open(encoding);
+                if (compressor == null) logger.debug("#{} too many compressed streams, using identity encoding", id);
+                else response.setHeader("Content-Encoding", encoding);
+            }
+            response.setHeader("Vary", "Accept-Encoding");
+        }
         // do not send the Connection header in HTTP/2
             if (!asyncContext.getRequest().getProtocol().equals("HTTP/2.0"))
         {
@@ -91,11 +165,11 @@ public class ServletEventTarget implements EventTarget
      */
 	@Override
     public ServletEventTarget open() throws IOException {
-        HttpServletResponse response = (HttpServletResponse)asyncContext.getResponse();
-        response.getOutputStream().print("event: open\n\n");
-        response.getOutputStream().flush();
-
-        return this;
+        if (queue != null)
+        {
+            asyncContext.getResponse().getOutputStream().setWriteListener(new WriteListenerImpl());
+        }
+        return deliver(OPEN_EVENT);
     }
 
     /**
@@ -109,17 +183,12 @@ public class ServletEventTarget implements EventTarget
 	@Override
     public ServletEventTarget send(String event, String data) throws IOException {
         logger.warn("#{} message without id: {}: {}", id, event, data);
-        HttpServletResponse response = (HttpServletResponse)asyncContext.getResponse();
-        response.getOutputStream().write(
+        return deliver(
                 new MessageEvent.Builder()
                     .setData(data)
                     .setEvent(event)
                     .build()
-                    .toString()
-                    .getBytes("UTF-8")
         );
-        response.getOutputStream().flush();
-        return this;
     }
 
     /**
@@ -131,7 +200,6 @@ public class ServletEventTarget implements EventTarget
      */
 	@Override
     public ServletEventTarget send(MessageEvent messageEvent) throws IOException {
-		HttpServletResponse response = (HttpServletResponse)asyncContext.getResponse();
 		String messageId = messageEvent.getId();
 		if (messageId == null)
         {
@@ -141,19 +209,247 @@ public class ServletEventTarget implements EventTarget
         {
             this.lastMessageId = messageId;
         }
-        response.getOutputStream().write(messageEvent.toString().getBytes("UTF-8"));
-        response.getOutputStream().flush();
+        return deliver(messageEvent);
+    }
+
+    /**
+     * Sends an already encoded frame to the subscriber
+     * @param frame encoded frame
+     * @return The same {@link ServletEventTarget} object that received the method call
+     * @throws IOException if there was an error writing into the response's {@link java.io.OutputStream}. This may be
+     * a common exception: e.g. it will be thrown when the SSE subscriber closes the connection
+     */
+    @Override
+    public ServletEventTarget sendFrame(byte[] frame) throws IOException {
+        if (queue == null)
+        {
+            write(frame);
+            return this;
+        }
+        return deliver(MessageEvent.fromFrame(frame));
+    }
+
+    /**
+     * Writes the event immediately in blocking mode, or enqueues it in non-blocking mode.
+     * @param messageEvent event to deliver
+     * @return The same {@link ServletEventTarget} object that received the method call
+     * @throws IOException if the event could not be written or enqueued
+     */
+    private ServletEventTarget deliver(MessageEvent messageEvent) throws IOException {
+        lastWriteTime = System.currentTimeMillis();
+        if (queue == null)
+        {
+            // the encoded form is cached by the event and shared with all other targets
+            write(messageEvent.getBytes());
+        }
+        else
+        {
+            if (writeError != null) throw writeError;
+            if (completed) throw new IOException("event target #" + id + " is closed");
+            try
+            {
+                if (!queue.offer(messageEvent)) metrics.eventDropped();
+                metrics.queueDepth(queue.size());
+            }
+            catch (SlowConsumerException sce)
+            {
+                logger.debug("#{} slow consumer: {}", id, sce.getMessage());
+                disconnect(queue.getRetryHint());
+                throw sce;
+            }
+            drain();
+        }
+        return this;
+    }
+
+    private void write(byte[] frame) throws IOException {
+        lastWriteTime = System.currentTimeMillis();
+        writeLock.lock();
+        try
+        {
+            // compressed frames also have to be written in the order they were compressed
+            writeAndFlush(encode(frame));
+        }
+        finally
+        {
+            writeLock.unlock();
+        }
+    }
+
+    private void writeAndFlush(byte[] bytes) throws IOException {
+        long start = System.nanoTime();
+        writeStart = start;
+        HttpServletResponse response = (HttpServletResponse)asyncContext.getResponse();
+        try
+        {
+            response.getOutputStream().write(bytes);
+            response.getOutputStream().flush();
+        }
+        finally
+        {
+            lastWriteNanos = System.nanoTime() - start;
+            writeStart = 0L;
+        }
+        Metrics metrics = this.metrics;
+        if (metrics != Metrics.NOOP) metrics.frameWritten(bytes.length, lastWriteNanos);
+    }
+
+    /**
+     * Compresses the frame, if a compressed encoding has been negotiated
+     * @param frame encoded frame
+     * @return bytes to be written
+     * @throws IOException if the compressor has been released
+     */
+    private byte[] encode(byte[] frame) throws IOException {
+        StreamCompressor compressor = this.compressor;
+        if (compressor == null) return frame;
+        try
+        {
+            return compressor.compress(frame);
+        }
+        catch (IllegalStateException ise)
+        {
+            throw new IOException("event target #" + id + " is closed", ise);
+        }
+    }
+
+    /**
+     * Writes pending events as long as the container accepts them without blocking. When the output stream
+     * stops being ready, the container will call {@link WriteListener#onWritePossible()} later on.
+     * @throws IOException if the write failed
+     */
+    private void drain() throws IOException {
+        synchronized (queue)
+        {
+            ServletOutputStream out = asyncContext.getResponse().getOutputStream();
+            while (out.isReady())
+            {
+                MessageEvent messageEvent = queue.poll();
+                if (messageEvent == null)
+                {
+                    // queue is drained, push everything to the client
+                    out.flush();
+                    break;
+                }
+                byte[] frame = encode(messageEvent.getBytes());
+                Metrics metrics = this.metrics;
+                long start = metrics == Metrics.NOOP ? 0L : System.nanoTime();
+                out.write(frame);
+                if (metrics != Metrics.NOOP) metrics.frameWritten(frame.length, System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Drops pending events and closes the connection, after having sent a reconnection delay hint to the client
+     * if the socket allows it. In blocking mode, the hint is only written if no other write is in progress, since
+     * it would otherwise wait for the same client.
+     * @param retryHint reconnection delay, in milliseconds
+     */
+    @Override
+    public void disconnect(int retryHint) {
+        if (queue == null)
+        {
+            if (writeLock.tryLock())
+            {
+                try
+                {
+                    writeAndFlush(encode(new MessageEvent.Builder().setRetry(retryHint).build().getBytes()));
+                }
+                catch (IOException | IllegalStateException e)
+                {
+                    // client already gone
+                }
+                finally
+                {
+                    writeLock.unlock();
+                }
+            }
+            close();
+            return;
+        }
+        synchronized (queue)
+        {
+            queue.clear();
+            try
+            {
+                ServletOutputStream out = asyncContext.getResponse().getOutputStream();
+                if (out.isReady())
+                {
+                    out.write(encode(new MessageEvent.Builder().setRetry(retryHint).build().getBytes()));
+                    out.flush();
+                }
+            }
+            catch (IOException | IllegalStateException e)
+            {
+                // client already gone
+            }
+        }
+        close();
+    }
+
+    /**
+     * Number of events waiting to be written (always zero in blocking mode)
+     * @return outbound queue depth
+     */
+    @Override
+    public int getQueueDepth() {
+        return queue == null ? 0 : queue.size();
+    }
+
+    /**
+     * Number of events handed over since the last one written, dropped ones included; in blocking mode, number of
+     * writes in progress or waiting for another one
+     * @return lag, in events
+     */
+    @Override
+    public int getLag() {
+        if (queue != null) return queue.getLag();
+        return writeLock.isLocked() ? 1 + writeLock.getQueueLength() : 0;
+    }
+
+    /**
+     * Number of bytes waiting to be written (always zero in blocking mode)
+     * @return pending bytes, before compression
+     */
+    @Override
+    public long getPendingBytes() {
+        return queue == null ? 0L : queue.getPendingBytes();
+    }
+
+    /**
+     * In blocking mode, duration of the ongoing write, or of the last one; in non-blocking mode, time since the
+     * container last accepted pending events
+     * @return write latency in milliseconds
+     */
+    @Override
+    public long getWriteLatency() {
+        if (queue != null) return queue.getStallTime();
+        long start = writeStart;
+        long nanos = start == 0L ? lastWriteNanos : Math.max(lastWriteNanos, System.nanoTime() - start);
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    /**
+     * Sets the metrics implementation fed by this target, typically the one of its broadcaster
+     * @param metrics metrics, or null to stop collecting them
+     * @return The same {@link ServletEventTarget} object that received the method call
+     */
+    public ServletEventTarget setMetrics(Metrics metrics) {
+        this.metrics = metrics == null ? Metrics.NOOP : metrics;
         return this;
     }
 
+    @Override
+    public long getLastWriteTime() {
+        return lastWriteTime;
+    }
+
     @Override
     public void keepAlive() throws IOException
     {
-        HttpServletResponse response = (HttpServletResponse)asyncContext.getResponse();
-
         /* keep-alive using comments */
-        response.getOutputStream().write(":\n\n".getBytes("UTF-8"));
-        response.getOutputStream().flush();
+        deliver(KEEP_ALIVE_EVENT);
 
         /* keep-alive using message */
 //        response.getOutputStream().write(
@@ -169,7 +465,7 @@ public class ServletEventTarget implements EventTarget
 
     }
 
-    private boolean completed = false;
+    private volatile boolean completed = false;
 
     /**
      * Closes the connection between the server and the client.
@@ -178,24 +474,121 @@ public class ServletEventTarget implements EventTarget
     public void close() {
         if(!completed) {
             completed = true;
+            finishCompression();
             asyncContext.complete();
         }
     }
 
+    /**
+     * Terminates the compressed stream if the connection allows it, and releases the compressor
+     */
+    private void finishCompression() {
+        StreamCompressor compressor = this.compressor;
+        if (compressor == null) return;
+        try
+        {
+            if (queue == null)
+            {
+                // a write in progress may be the stalled one the connection is being closed for: do not wait for
+                // it, the trailer is skipped and the compressor just released
+                if (writeLock.tryLock())
+                {
+                    try
+                    {
+                        if (!compressor.isClosed()) writeAndFlush(compressor.finish());
+                    }
+                    finally
+                    {
+                        writeLock.unlock();
+                    }
+                }
+            }
+            else synchronized (queue)
+            {
+                ServletOutputStream out = asyncContext.getResponse().getOutputStream();
+                if (!compressor.isClosed() && out.isReady())
+                {
+                    out.write(compressor.finish());
+                    out.flush();
+                }
+            }
+        }
+        catch (IOException | IllegalStateException e)
+        {
+            // client already gone
+        }
+        finally
+        {
+            compressor.close();
+        }
+    }
+
+    /**
+     * <p>Enables compressed streams, when the client accepts gzip or deflate encodings. Each event is flushed
+     * on its own, so it is still delivered immediately.</p>
+     *
+     * <p>Must be called before the target is added to a broadcaster, that is before {@link #ok()}.</p>
+     * @param compression compression settings, usually shared by all targets
+     * @return The same {@link ServletEventTarget} object that received the method call
+     */
+    public ServletEventTarget setCompression(Compression compression) {
+        this.compression = compression;
+        return this;
+    }
+
+    /**
+     * @return negotiated content encoding, or null for identity
+     */
+    public String getContentEncoding() {
+        StreamCompressor compressor = this.compressor;
+        return compressor == null ? null : compressor.getEncoding();
+    }
+
     @Override
     public String getID()
     {
         return id;
     }
 
+    /**
+     * <p>Replaces the generated id, for instance by a user id, so that events can be sent to this target
+     * with {@link EventBroadcast#send(String, MessageEvent)}.</p>
+     *
+     * <p>Must be called before the target is added to a broadcaster.</p>
+     * @param id target id, possibly shared by several targets
+     * @return The same {@link ServletEventTarget} object that received the method call
+     */
+    public ServletEventTarget setID(String id) {
+        this.id = id;
+        return this;
+    }
+
     public AsyncContext getAsyncContext() {
         return asyncContext;
     }
+
+    private class WriteListenerImpl implements WriteListener {
+
+        @Override
+        public void onWritePossible() throws IOException {
+            drain();
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            writeError = t instanceof IOException ? (IOException)t : new IOException(t);
+            queue.clear();
+            logger.debug("#{} write error: {}", id, t.getMessage());
+        }
+    }
+
     private class AsyncListenerImpl implements AsyncListener {
 
         @Override
         public void onComplete(AsyncEvent event) throws IOException {
             completed = true;
+            StreamCompressor compressor = ServletEventTarget.this.compressor;
+            if (compressor != null) compressor.close();
             // logger.trace("#{} event complete", id);
         }
 
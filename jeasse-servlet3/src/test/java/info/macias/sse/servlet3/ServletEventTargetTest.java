@@ -0,0 +1,370 @@
+package info.macias.sse.servlet3;
+
+import info.macias.sse.Compression;
+import info.macias.sse.EventBroadcast;
+import info.macias.sse.EventTarget;
+import info.macias.sse.LeaveReason;
+import info.macias.sse.OutboundQueue;
+import info.macias.sse.OverflowPolicy;
+import info.macias.sse.SlowConsumerException;
+import info.macias.sse.SlowConsumerPolicy;
+import info.macias.sse.events.MessageEvent;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ServletEventTargetTest {
+
+    /**
+     * Output stream accepting a given number of writes before it stops being ready, and which can stall
+     * in the middle of a blocking write
+     */
+    static class ToggleOutputStream extends ServletOutputStream {
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        final CountDownLatch stalled = new CountDownLatch(1);
+        volatile int writable = Integer.MAX_VALUE;
+        volatile IOException failure = null;
+        volatile WriteListener writeListener = null;
+        volatile int flushes = 0;
+        volatile CountDownLatch gate = null;
+
+        @Override
+        public boolean isReady() {
+            return writable > 0;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            this.writeListener = writeListener;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte)b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int off, int len) throws IOException {
+            if (failure != null) throw failure;
+            if (writeListener != null && writable <= 0) throw new IllegalStateException("output stream is not ready");
+            if (writable != Integer.MAX_VALUE) --writable;
+            CountDownLatch gate = this.gate;
+            this.gate = null;
+            int half = gate == null ? len : len / 2;
+            append(bytes, off, half);
+            if (gate != null) {
+                // the socket buffer is full
+                stalled.countDown();
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    throw new IOException("interrupted");
+                }
+            }
+            append(bytes, off + half, len - half);
+        }
+
+        private synchronized void append(byte[] bytes, int off, int len) {
+            written.write(bytes, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (failure != null) throw failure;
+            ++flushes;
+        }
+
+        /* becomes ready for the given number of writes, and lets the container notify the listener */
+        void resume(int writes) throws IOException {
+            writable = writes;
+            writeListener.onWritePossible();
+        }
+
+        synchronized String content() {
+            return new String(written.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private ToggleOutputStream out;
+    private boolean[] completed;
+    private HttpServletRequest request;
+    private Map<String, Object> requestAnswers;
+
+    @SuppressWarnings("unchecked")
+    private static <T> T stub(Class<T> type, Map<String, Object> answers) {
+        return (T)Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) -> {
+            Object answer = answers.get(method.getName());
+            if (answer instanceof Runnable) {
+                ((Runnable)answer).run();
+                return null;
+            }
+            if (answer != null) return answer;
+            Class<?> returned = method.getReturnType();
+            if (returned == boolean.class) return false;
+            if (returned == int.class) return 0;
+            if (returned == long.class) return 0L;
+            return null;
+        });
+    }
+
+    @Before
+    public void setUp() {
+        out = new ToggleOutputStream();
+        completed = new boolean[1];
+        Map<String, Object> responseAnswers = new HashMap<>();
+        responseAnswers.put("getOutputStream", out);
+        HttpServletResponse response = stub(HttpServletResponse.class, responseAnswers);
+        requestAnswers = new HashMap<>();
+        requestAnswers.put("getProtocol", "HTTP/1.1");
+        request = stub(HttpServletRequest.class, requestAnswers);
+        Map<String, Object> contextAnswers = new HashMap<>();
+        contextAnswers.put("getResponse", response);
+        contextAnswers.put("getRequest", request);
+        contextAnswers.put("complete", (Runnable)() -> completed[0] = true);
+        requestAnswers.put("startAsync", stub(AsyncContext.class, contextAnswers));
+    }
+
+    private static MessageEvent event(int id) {
+        return new MessageEvent.Builder().setData("data").setId(String.valueOf(id)).build();
+    }
+
+    private ServletEventTarget open(OutboundQueue queue) throws IOException {
+        ServletEventTarget target = new ServletEventTarget(request, queue);
+        target.ok().open();
+        assertNotNull(out.writeListener);
+        return target;
+    }
+
+    @Test
+    public void testPartialDrain() throws Exception {
+        ServletEventTarget target = open(new OutboundQueue());
+        assertEquals("event: open\n\n", out.content());
+
+        out.writable = 0;
+        for (int i = 0; i < 3; ++i) target.send(event(i));
+        // nothing is written while the container is not ready, and the broadcaster does not wait
+        assertEquals(3, target.getQueueDepth());
+        assertFalse(out.content().contains("id:"));
+
+        out.resume(1);
+        assertEquals(2, target.getQueueDepth());
+        assertTrue(out.content().contains("id: 0\n"));
+        assertFalse(out.content().contains("id: 1\n"));
+
+        int flushes = out.flushes;
+        out.resume(Integer.MAX_VALUE);
+        assertEquals(0, target.getQueueDepth());
+        assertEquals(0, target.getPendingBytes());
+        String content = out.content();
+        assertTrue(content.indexOf("id: 0\n") < content.indexOf("id: 1\n"));
+        assertTrue(content.indexOf("id: 1\n") < content.indexOf("id: 2\n"));
+        // the drained queue is pushed to the client
+        assertTrue(out.flushes > flushes);
+    }
+
+    @Test
+    public void testWriteWhenReady() throws Exception {
+        ServletEventTarget target = open(new OutboundQueue());
+        target.send(event(0));
+        // ready streams are written to straight away, without waiting for the listener
+        assertEquals(0, target.getQueueDepth());
+        assertTrue(out.content().contains("id: 0\n"));
+    }
+
+    @Test
+    public void testOverflow() throws Exception {
+        ServletEventTarget target = open(new OutboundQueue(2, OverflowPolicy.DISCONNECT));
+        out.writable = 0;
+        target.send(event(0));
+        target.send(event(1));
+        try {
+            target.send(event(2));
+            fail("slow consumer not detected");
+        } catch (SlowConsumerException sce) {
+            // expected
+        }
+        // the pending events are dropped, the connection is closed without waiting for the client
+        assertTrue(completed[0]);
+        assertEquals(0, target.getQueueDepth());
+        try {
+            target.send(event(3));
+            fail("closed target accepted an event");
+        } catch (IOException ioe) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testDropOldest() throws Exception {
+        ServletEventTarget target = open(new OutboundQueue(2, OverflowPolicy.DROP_OLDEST));
+        out.writable = 0;
+        for (int i = 0; i < 4; ++i) target.send(event(i));
+        assertEquals(2, target.getQueueDepth());
+        out.resume(Integer.MAX_VALUE);
+        String content = out.content();
+        assertFalse(content.contains("id: 1\n"));
+        assertTrue(content.contains("id: 2\n"));
+        assertTrue(content.contains("id: 3\n"));
+        assertFalse(completed[0]);
+    }
+
+    @Test
+    public void testDisconnect() throws Exception {
+        ServletEventTarget target = open(new OutboundQueue());
+        out.writable = 0;
+        target.send(event(0));
+        target.send(event(1));
+        out.writable = Integer.MAX_VALUE;
+        target.disconnect(3000);
+        // pending events are dropped in favor of the reconnection hint
+        String content = out.content();
+        assertFalse(content.contains("id:"));
+        assertTrue(content.contains("retry: 3000\n"));
+        assertEquals(0, target.getQueueDepth());
+        assertTrue(completed[0]);
+    }
+
+    @Test
+    public void testDisconnectNotReady() throws Exception {
+        ServletEventTarget target = open(new OutboundQueue());
+        out.writable = 0;
+        target.send(event(0));
+        target.disconnect(3000);
+        // the hint is not written to a stream which would block
+        assertFalse(out.content().contains("retry:"));
+        assertTrue(completed[0]);
+    }
+
+    @Test
+    public void testBlockingDisconnect() throws Exception {
+        ServletEventTarget target = new ServletEventTarget(request);
+        target.ok().open();
+        target.disconnect(3000);
+        assertTrue(out.content().contains("retry: 3000\n"));
+        assertTrue(completed[0]);
+    }
+
+    @Test
+    public void testStalledBlockingWrite() throws Exception {
+        EventBroadcast broadcast = new EventBroadcast();
+        broadcast.setSlowConsumerPolicy(new SlowConsumerPolicy().setMaxWriteLatency(100, TimeUnit.MILLISECONDS));
+        ServletEventTarget target = new ServletEventTarget(request);
+        broadcast.addSubscriber(target);
+        CountDownLatch gate = new CountDownLatch(1);
+        out.gate = gate;
+        Thread heartbeat = new Thread(() -> {
+            try {
+                target.keepAlive();
+            } catch (IOException e) {}
+        });
+        heartbeat.start();
+        assertTrue(out.stalled.await(5, TimeUnit.SECONDS));
+        assertEquals(1, target.getLag());
+        Thread.sleep(200);
+        Thread broadcaster = new Thread(() -> broadcast.broadcast(event(1)));
+        broadcaster.start();
+        broadcaster.join(5000);
+        // the broadcast does not wait for the stalled write, and the hint is not written in the middle of it
+        assertFalse(broadcaster.isAlive());
+        assertEquals(0, broadcast.getSubscriberCount());
+        assertTrue(completed[0]);
+        gate.countDown();
+        heartbeat.join(5000);
+        assertFalse(out.content().contains("retry:"));
+        assertEquals(0, target.getLag());
+    }
+
+    @Test
+    public void testWriteError() throws Exception {
+        EventBroadcast broadcast = new EventBroadcast() {
+            @Override
+            public void subscriberLeft(EventTarget target, LeaveReason reason) {
+                assertEquals(LeaveReason.DISCONNECTED, reason);
+            }
+        };
+        ServletEventTarget target = new ServletEventTarget(request, new OutboundQueue());
+        broadcast.addSubscriber(target);
+        out.writable = 0;
+        assertTrue(broadcast.broadcast(event(0)));
+
+        out.writeListener.onError(new IOException("connection reset by peer"));
+        assertEquals(0, target.getQueueDepth());
+        // the failure is reported by the next event, and the subscriber evicted
+        assertFalse(broadcast.broadcast(event(1)));
+        assertEquals(0, broadcast.getSubscriberCount());
+    }
+
+    @Test
+    public void testBlockingWritesDoNotInterleave() throws Exception {
+        ServletEventTarget target = new ServletEventTarget(request);
+        target.ok().open();
+        CountDownLatch gate = new CountDownLatch(1);
+        out.gate = gate;
+        Thread broadcaster = new Thread(() -> {
+            try {
+                target.send(event(1));
+            } catch (IOException e) {}
+        });
+        broadcaster.start();
+        assertTrue(out.stalled.await(5, TimeUnit.SECONDS));
+        Thread heartbeat = new Thread(() -> {
+            try {
+                target.keepAlive();
+            } catch (IOException e) {}
+        });
+        heartbeat.start();
+        heartbeat.join(200);
+        // the heartbeat waits for the frame being written
+        assertTrue(heartbeat.isAlive());
+        gate.countDown();
+        broadcaster.join(5000);
+        heartbeat.join(5000);
+        assertEquals("event: open\n\n" + new String(event(1).getBytes(), StandardCharsets.UTF_8) + ":\n\n", out.content());
+    }
+
+    @Test
+    public void testCloseDuringStalledWrite() throws Exception {
+        requestAnswers.put("getHeader", "gzip");
+        ServletEventTarget target = new ServletEventTarget(request).setCompression(new Compression.Builder().build());
+        target.ok().open();
+        assertEquals(Compression.GZIP, target.getContentEncoding());
+        CountDownLatch gate = new CountDownLatch(1);
+        out.gate = gate;
+        Thread broadcaster = new Thread(() -> {
+            try {
+                target.send(event(1));
+            } catch (IOException e) {}
+        });
+        broadcaster.start();
+        assertTrue(out.stalled.await(5, TimeUnit.SECONDS));
+        Thread closer = new Thread(target::close);
+        closer.start();
+        closer.join(5000);
+        // the close does not wait for the stalled write to write the gzip trailer
+        assertFalse(closer.isAlive());
+        assertTrue(completed[0]);
+        gate.countDown();
+        broadcaster.join(5000);
+        try {
+            target.send(event(2));
+            fail("closed target accepted an event");
+        } catch (IOException ioe) {
+            // expected
+        }
+    }
+}